@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Alternative routes by the via-vertex method, from a single pair of searches. A Dijkstra
+ * search from each end explores every vertex within the stretch limit of the shortest
+ * distance. Each vertex v settled by both searches gives a candidate route: the shortest path
+ * from the start to v followed by the shortest path from v to the destination, of length
+ * d(start, v) + d(v, destination).
+ *
+ * Candidates are tried shortest first, so the first route kept is a shortest path. A candidate
+ * is kept if it visits no vertex twice and shares at most the overlap limit of its length with
+ * the routes kept before it. Vertices on a kept route are not tried as via vertices, since
+ * their routes mostly coincide with it; this also skips the long plateaus where the two
+ * shortest-path trees agree.
+ */
+class AlternativeRoutes {
+    private AlternativeRoutes() {
+    }
+
+    /**
+     * Finds up to k routes from stNode to destNode, shortest first.
+     * @param g The graph to use.
+     * @param k The largest number of routes to return, the shortest path included.
+     * @param options The stretch and overlap limits; the algorithm and heuristic are ignored.
+     * @return The ids of the vertices on each route, or an empty list if destNode cannot be
+     * reached.
+     */
+    static List<List<Long>> find(GraphDB g, int stNode, int destNode, int k,
+                                 RouteOptions options) {
+        if (!g.components().connected(stNode, destNode)) {
+            return new ArrayList<>();
+        }
+        SearchWorkspace forward = SearchWorkspace.acquire(g, SearchWorkspace.FORWARD);
+        SearchWorkspace backward = SearchWorkspace.acquire(g, SearchWorkspace.BACKWARD);
+        int[] candidates = explore(g, stNode, destNode, forward, backward,
+                1 + options.maxStretch);
+
+        List<List<Long>> routes = new ArrayList<>();
+        BitSet onRoute = new BitSet();
+        BitSet seen = new BitSet();
+        LongIntHashMap routeEdges = new LongIntHashMap();
+        for (int i = 0; i < candidates.length && routes.size() < k; i++) {
+            int via = candidates[i];
+            if (onRoute.get(via)) {
+                continue;
+            }
+            int[] route = viaRoute(via, forward, backward, seen);
+            if (route == null) {
+                continue;
+            }
+
+            // Edges up to via are weighed by the forward tree, the rest by the backward one.
+            double shared = 0;
+            boolean pastVia = false;
+            for (int j = 1; j < route.length; j++) {
+                int v = route[j - 1];
+                int w = route[j];
+                pastVia |= v == via;
+                if (routeEdges.containsKey(edgeKey(v, w))) {
+                    shared += pastVia ? backward.distTo(v) - backward.distTo(w)
+                            : forward.distTo(w) - forward.distTo(v);
+                }
+            }
+            double length = forward.distTo(via) + backward.distTo(via);
+            if (shared > options.maxOverlap * length) {
+                continue;
+            }
+
+            List<Long> ids = new ArrayList<>(route.length);
+            for (int j = 0; j < route.length; j++) {
+                ids.add(g.idOf(route[j]));
+                onRoute.set(route[j]);
+                if (j > 0) {
+                    routeEdges.put(edgeKey(route[j - 1], route[j]), 1);
+                }
+            }
+            routes.add(ids);
+        }
+        return routes;
+    }
+
+    /**
+     * Runs Dijkstra from stNode and from destNode, always advancing the side with the smaller
+     * key, until neither side has a vertex within limit times the shortest distance left. A
+     * vertex is not expanded once the great-circle distance shows no route through it can be
+     * within the limit; the vertices on such routes are never pruned.
+     * @return The vertices settled by both sides within that limit, ordered by the length of
+     * their via routes.
+     */
+    private static int[] explore(GraphDB g, int stNode, int destNode, SearchWorkspace forward,
+                                 SearchWorkspace backward, double limit) {
+        forward.reach(stNode, 0, -1);
+        forward.heap.insertOrDecrease(stNode, 0);
+        backward.reach(destNode, 0, -1);
+        backward.heap.insertOrDecrease(destNode, 0);
+
+        double best = stNode == destNode ? 0 : Double.POSITIVE_INFINITY;
+        int[] both = new int[16];
+        int count = 0;
+        while (true) {
+            double forwardKey = forward.heap.isEmpty()
+                    ? Double.POSITIVE_INFINITY : forward.heap.minKey();
+            double backwardKey = backward.heap.isEmpty()
+                    ? Double.POSITIVE_INFINITY : backward.heap.minKey();
+            if (Math.min(forwardKey, backwardKey) > limit * best
+                    || Math.min(forwardKey, backwardKey) == Double.POSITIVE_INFINITY) {
+                break;
+            }
+            boolean isForward = forwardKey <= backwardKey;
+            SearchWorkspace ws = isForward ? forward : backward;
+            SearchWorkspace other = isForward ? backward : forward;
+
+            int v = ws.heap.poll();
+            // No route within the limit passes v if even the straight line is too long.
+            if (ws.distTo(v) + g.distanceAt(v, isForward ? destNode : stNode) > limit * best) {
+                continue;
+            }
+            ws.settle(v);
+            if (other.isSettled(v)) {
+                if (count == both.length) {
+                    both = Arrays.copyOf(both, count * 2);
+                }
+                both[count++] = v;
+            }
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                int w = g.edgeTarget(e);
+                double dist = ws.distTo(v) + g.edgeWeight(e);
+                if (dist < ws.distTo(w)) {
+                    ws.reach(w, dist, v);
+                    ws.heap.insertOrDecrease(w, dist);
+                    best = Math.min(best, dist + other.distTo(w));
+                }
+            }
+        }
+
+        // Drop the vertices beyond the limit and sort the rest by via length.
+        Integer[] vias = new Integer[count];
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (forward.distTo(both[i]) + backward.distTo(both[i]) <= limit * best) {
+                vias[kept++] = both[i];
+            }
+        }
+        Arrays.sort(vias, 0, kept, Comparator.comparingDouble(
+                v -> forward.distTo(v) + backward.distTo(v)));
+        int[] result = new int[kept];
+        for (int i = 0; i < kept; i++) {
+            result[i] = vias[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the route from the start through via to the destination, following the forward
+     * tree back from via and the backward tree on from it, or null if it visits a vertex twice.
+     * @param seen Scratch space, all clear, and left all clear.
+     */
+    private static int[] viaRoute(int via, SearchWorkspace forward, SearchWorkspace backward,
+                                  BitSet seen) {
+        int[] route = new int[16];
+        int count = 0;
+        for (int v = via; v >= 0; v = forward.edgeTo(v)) {
+            if (count == route.length) {
+                route = Arrays.copyOf(route, count * 2);
+            }
+            route[count++] = v;
+            seen.set(v);
+        }
+        int viaCount = count;
+        for (int i = 0, j = count - 1; i < j; i++, j--) {
+            int swap = route[i];
+            route[i] = route[j];
+            route[j] = swap;
+        }
+        boolean simple = true;
+        for (int v = backward.edgeTo(via); v >= 0 && simple; v = backward.edgeTo(v)) {
+            simple = !seen.get(v);
+            if (count == route.length) {
+                route = Arrays.copyOf(route, count * 2);
+            }
+            route[count++] = v;
+        }
+        for (int i = 0; i < viaCount; i++) {
+            seen.clear(route[i]);
+        }
+        return simple ? Arrays.copyOf(route, count) : null;
+    }
+
+    /** Packs an undirected edge into one key. */
+    private static long edgeKey(int v, int w) {
+        return ((long) Math.min(v, w) << 32) | Math.max(v, w);
+    }
+}
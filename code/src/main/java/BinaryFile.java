@@ -0,0 +1,179 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The file layout shared by GraphSnapshot, ContractionHierarchy and ArcFlags: a fixed header
+ * that identifies the format and the input the file was computed from, followed by a payload
+ * only the format knows how to read.
+ *
+ * <pre>
+ * header:  long magic | int version | int key length | long[key length] key
+ *          | long payload length | long payload CRC32
+ * </pre>
+ *
+ * The key fingerprints the input, e.g. the length and modification time of an OSM file or the
+ * checksum of a CSR graph, so that a file left over from other input is rejected. A file is
+ * written next to its final name and moved into place, so readers never see half of one. It is
+ * read through FileChannel.map, which the formats use as a fast bulk load: they copy the
+ * columns of the payload into heap arrays and let go of the mapping.
+ */
+final class BinaryFile {
+    private BinaryFile() {
+    }
+
+    /** Writes a payload; see write. */
+    interface Payload {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /** Thrown by read when a file cannot be used; the message says why. */
+    static class RejectedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Writes a file, replacing any existing one atomically.
+     * @param file The file.
+     * @param magic The magic number of the format.
+     * @param version The version of the format.
+     * @param key The fingerprint of the input the payload was computed from.
+     * @param payload Writes the payload.
+     * @throws IOException If the file cannot be written. Nothing is left behind then.
+     */
+    static void write(File file, long magic, int version, long[] key, Payload payload)
+            throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        int headerBytes = headerBytes(key.length);
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+                raf.setLength(0);
+                raf.seek(headerBytes);
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(raf.getChannel())), crc));
+                payload.writeTo(out);
+                out.flush();
+
+                raf.seek(0);
+                raf.writeLong(magic);
+                raf.writeInt(version);
+                raf.writeInt(key.length);
+                for (long k : key) {
+                    raf.writeLong(k);
+                }
+                raf.writeLong(raf.length() - headerBytes);
+                raf.writeLong(crc.getValue());
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps a file and checks its header and payload checksum.
+     * @param file The file, which must exist.
+     * @param magic The magic number of the format.
+     * @param version The version of the format.
+     * @param key The fingerprint of the input the payload must have been computed from, or null
+     *            to accept any.
+     * @return The payload, positioned at its start.
+     * @throws RejectedException If the file is truncated, of another format or version, for
+     * other input, or corrupt.
+     * @throws IOException If the file cannot be read.
+     */
+    static ByteBuffer read(File file, long magic, int version, long[] key)
+            throws IOException, RejectedException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < headerBytes(0)) {
+                throw new RejectedException("is truncated");
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getLong() != magic || buf.getInt() != version) {
+                throw new RejectedException("has an unknown format");
+            }
+            int keyLength = buf.getInt();
+            if (keyLength < 0 || channel.size() < headerBytes(keyLength)) {
+                throw new RejectedException("is truncated");
+            }
+            long[] recorded = new long[keyLength];
+            for (int i = 0; i < keyLength; i++) {
+                recorded[i] = buf.getLong();
+            }
+            if (key != null && !Arrays.equals(key, recorded)) {
+                throw new RejectedException("was written for other input");
+            }
+            long payloadLength = buf.getLong();
+            long payloadChecksum = buf.getLong();
+            ByteBuffer payload = buf.slice();
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if (payloadLength != payload.remaining() || crc.getValue() != payloadChecksum) {
+                throw new RejectedException("failed its checksum");
+            }
+            return payload;
+        }
+    }
+
+    private static int headerBytes(int keyLength) {
+        return Long.BYTES + 2 * Integer.BYTES + keyLength * Long.BYTES + 2 * Long.BYTES;
+    }
+
+    static void writeInts(DataOutputStream out, int[] a) throws IOException {
+        for (int x : a) {
+            out.writeInt(x);
+        }
+    }
+
+    static void writeLongs(DataOutputStream out, long[] a) throws IOException {
+        for (long x : a) {
+            out.writeLong(x);
+        }
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] a) throws IOException {
+        for (double x : a) {
+            out.writeDouble(x);
+        }
+    }
+
+    static int[] readInts(ByteBuffer buf, int length) {
+        int[] a = new int[length];
+        buf.asIntBuffer().get(a);
+        buf.position(buf.position() + length * Integer.BYTES);
+        return a;
+    }
+
+    static long[] readLongs(ByteBuffer buf, int length) {
+        long[] a = new long[length];
+        buf.asLongBuffer().get(a);
+        buf.position(buf.position() + length * Long.BYTES);
+        return a;
+    }
+
+    static double[] readDoubles(ByteBuffer buf, int length) {
+        double[] a = new double[length];
+        buf.asDoubleBuffer().get(a);
+        buf.position(buf.position() + length * Double.BYTES);
+        return a;
+    }
+}
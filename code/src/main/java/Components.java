@@ -0,0 +1,90 @@
+import java.util.Arrays;
+
+/**
+ * The connected components of a CsrGraph. clean() only drops isolated nodes, so a map can
+ * still hold islands, such as a parking lot whose driveway was cut off by the extract. A search
+ * between two of them settles the whole start island before it gives up; with every vertex
+ * labelled by its component, such a query is rejected in O(1) instead.
+ *
+ * Every edge is stored once each way, so the weakly and the strongly connected components are
+ * the same and one labelling serves both. Components are numbered from 0 in order of their
+ * lowest vertex.
+ */
+public class Components {
+    private final int[] labels;
+    private final int[] sizes;
+    private final int largest;
+
+    private Components(int[] labels, int[] sizes) {
+        this.labels = labels;
+        this.sizes = sizes;
+        int best = 0;
+        for (int c = 1; c < sizes.length; c++) {
+            if (sizes[c] > sizes[best]) {
+                best = c;
+            }
+        }
+        this.largest = sizes.length == 0 ? -1 : best;
+    }
+
+    /**
+     * Labels every vertex with its component, by a depth-first search from each vertex not
+     * yet labelled, with an explicit stack.
+     * @param g The graph.
+     * @return The components.
+     */
+    static Components label(CsrGraph g) {
+        int n = g.size();
+        int[] labels = new int[n];
+        Arrays.fill(labels, -1);
+        int[] stack = new int[n];
+        int[] sizes = new int[n];
+        int count = 0;
+        for (int s = 0; s < n; s++) {
+            if (labels[s] >= 0) {
+                continue;
+            }
+            labels[s] = count;
+            int top = 0;
+            stack[top++] = s;
+            while (top > 0) {
+                int v = stack[--top];
+                sizes[count]++;
+                for (int e = g.offsets[v]; e < g.offsets[v + 1]; e++) {
+                    int w = g.targets[e];
+                    if (labels[w] < 0) {
+                        labels[w] = count;
+                        stack[top++] = w;
+                    }
+                }
+            }
+            count++;
+        }
+        return new Components(labels, Arrays.copyOf(sizes, count));
+    }
+
+    /** Returns the component of the vertex with dense index v. */
+    int of(int v) {
+        return labels[v];
+    }
+
+    /** Returns whether a path joins the vertices with dense indices v and w. */
+    boolean connected(int v, int w) {
+        return labels[v] == labels[w];
+    }
+
+    /** Returns the number of components. */
+    int count() {
+        return sizes.length;
+    }
+
+    /** Returns the number of vertices in component c. */
+    int size(int c) {
+        return sizes[c];
+    }
+
+    /** Returns the component with the most vertices, the lowest numbered on a tie. */
+    int largest() {
+        return largest;
+    }
+}
@@ -0,0 +1,581 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Contraction Hierarchy over the cleaned road graph. Vertices are contracted one at a time,
+ * least important first, where importance is twice the edge difference (shortcuts added minus
+ * edges removed) plus the number of neighbours already contracted plus the vertex's level in
+ * the hierarchy so far. Importances are refreshed lazily: a vertex's edge difference is only
+ * recomputed when it reaches the front of the queue. Contracting v adds a shortcut
+ * u-w of length |u, v| + |v, w| for each pair of remaining neighbours that has no shorter
+ * witness path avoiding v; witness searches are bounded, so an occasional shortcut is
+ * unnecessary but never missing.
+ *
+ * Only the upward graph is kept: for each vertex, its edges and shortcuts to vertices of higher
+ * rank, in CSR form. Every edge is two-way, so a query runs Dijkstra upwards from both ends
+ * over the same arrays and meets at the highest vertex of the shortest path. Each shortcut
+ * records the vertex it bypasses, and unpacking a path replaces shortcuts by those vertices
+ * recursively, giving the same vertices a search on the original graph would.
+ *
+ * The hierarchy is written to a sidecar file next to the graph snapshot, a BinaryFile with
+ * magic "BMAPCHIE" keyed by the checksum of the CSR graph it was built from, and read back
+ * into heap arrays:
+ *
+ * <pre>
+ * payload: int n | int m | int[n] rank | int[n + 1] offsets | int[m] targets
+ *          | double[m] weights | int[m] middles
+ * </pre>
+ */
+public class ContractionHierarchy {
+    private static final long MAGIC = 0x424D415043484945L; // "BMAPCHIE"
+    private static final int VERSION = 2;
+    /** Vertices a witness search may settle before giving up and keeping the shortcut. */
+    private static final int MAX_WITNESS_SETTLED = 100;
+
+    private final long graphChecksum;
+    /** Contraction order of each vertex; higher ranks were contracted later. */
+    private final int[] rank;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    /** The vertex a shortcut bypasses, or -1 for an original edge. */
+    private final int[] middles;
+
+    private ContractionHierarchy(long graphChecksum, int[] rank, int[] offsets, int[] targets,
+                                 double[] weights, int[] middles) {
+        this.graphChecksum = graphChecksum;
+        this.rank = rank;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middles = middles;
+    }
+
+    /**
+     * Opens the hierarchy for g, preferring the sidecar file. If it is missing, corrupt or was
+     * built from a different graph, the hierarchy is rebuilt and the file rewritten.
+     * @param g The graph, which starts using the hierarchy for Algorithm.CH.
+     * @param path Path to the sidecar file.
+     * @return The hierarchy.
+     */
+    public static ContractionHierarchy open(GraphDB g, String path) {
+        ContractionHierarchy ch = read(new File(path), g);
+        if (ch == null) {
+            ch = build(g);
+            ch.write(new File(path));
+        }
+        g.useContractionHierarchy(ch);
+        return ch;
+    }
+
+    /** Contracts every vertex of g and returns the resulting hierarchy. */
+    public static ContractionHierarchy build(GraphDB g) {
+        return new Contraction(g).run();
+    }
+
+    /** Returns the number of upward edges, shortcuts included. */
+    int edgeCount() {
+        return targets.length;
+    }
+
+    /** Returns the number of shortcuts. */
+    int shortcutCount() {
+        int count = 0;
+        for (int middle : middles) {
+            if (middle >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Runs Dijkstra upwards from stNode and from destNode, alternating between the sides, until
+     * neither frontier holds a vertex closer than the best meeting distance found.
+     * @param forward A freshly created or reset workspace for the search from stNode.
+     * @param backward A freshly created or reset workspace for the search from destNode.
+     * @return The highest vertex on the shortest path, or -1 if destNode cannot be reached.
+     */
+    int search(int stNode, int destNode, SearchWorkspace forward, SearchWorkspace backward) {
+        forward.reach(stNode, 0, -1);
+        forward.heap.insertOrDecrease(stNode, 0);
+        backward.reach(destNode, 0, -1);
+        backward.heap.insertOrDecrease(destNode, 0);
+        return search(forward, backward);
+    }
+
+    /**
+     * Like search(stNode, destNode, forward, backward), from whatever vertices the workspaces
+     * were seeded with, each at the distance it was reached at and queued with that distance
+     * as its key. Seeding both ends of a road segment searches from a point on it.
+     * @return The highest vertex on the shortest path between the two seed sets, or -1 if
+     * there is none.
+     */
+    int search(SearchWorkspace forward, SearchWorkspace backward) {
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (true) {
+            boolean forwardOpen = !forward.heap.isEmpty() && forward.heap.minKey() < best;
+            boolean backwardOpen = !backward.heap.isEmpty() && backward.heap.minKey() < best;
+            if (!forwardOpen && !backwardOpen) {
+                return meet;
+            }
+            boolean isForward = forwardOpen
+                    && (!backwardOpen || forward.heap.minKey() <= backward.heap.minKey());
+            SearchWorkspace ws = isForward ? forward : backward;
+            SearchWorkspace other = isForward ? backward : forward;
+
+            int v = ws.heap.poll();
+            ws.settle(v);
+            double through = ws.distTo(v) + other.distTo(v);
+            if (through < best) {
+                best = through;
+                meet = v;
+            }
+            if (isStalled(v, ws)) {
+                continue;
+            }
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                double dist = ws.distTo(v) + weights[e];
+                if (dist < ws.distTo(w)) {
+                    ws.reach(w, dist, v);
+                    ws.heap.insertOrDecrease(w, dist);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the shortest distance from every source to every target with the bucket-based
+     * many-to-many algorithm. The upward search space of each target is recorded in buckets at
+     * the vertices it settles; then an upward search from each source meets every target at
+     * the buckets of the vertices it settles. That is one small search per point instead of
+     * one search per pair. The searches run in parallel, each on its thread's workspace.
+     * @param g The graph the hierarchy was built from.
+     * @param sourceNodes The dense indices of the sources.
+     * @param targetNodes The dense indices of the targets.
+     * @return distances[i * targetNodes.length + j] from sourceNodes[i] to targetNodes[j], or
+     * infinity if the target cannot be reached.
+     */
+    double[] distances(GraphDB g, int[] sourceNodes, int[] targetNodes) {
+        int[][] spaces = new int[targetNodes.length][];
+        double[][] spaceDistances = new double[targetNodes.length][];
+        IntStream.range(0, targetNodes.length).parallel().forEach(j -> {
+            SearchWorkspace ws = SearchWorkspace.acquire(g);
+            spaces[j] = upwardSearch(targetNodes[j], ws);
+            spaceDistances[j] = new double[spaces[j].length];
+            for (int k = 0; k < spaces[j].length; k++) {
+                spaceDistances[j][k] = ws.distTo(spaces[j][k]);
+            }
+        });
+
+        // Buckets in CSR form: the entries of vertex v are bucketOffsets[v] until
+        // bucketOffsets[v + 1], each a target and its distance from v.
+        int[] bucketOffsets = new int[rank.length + 1];
+        for (int[] space : spaces) {
+            for (int v : space) {
+                bucketOffsets[v + 1]++;
+            }
+        }
+        for (int v = 0; v < rank.length; v++) {
+            bucketOffsets[v + 1] += bucketOffsets[v];
+        }
+        int[] fill = Arrays.copyOf(bucketOffsets, rank.length);
+        int[] bucketTargets = new int[bucketOffsets[rank.length]];
+        double[] bucketDistances = new double[bucketTargets.length];
+        for (int j = 0; j < targetNodes.length; j++) {
+            for (int k = 0; k < spaces[j].length; k++) {
+                int b = fill[spaces[j][k]]++;
+                bucketTargets[b] = j;
+                bucketDistances[b] = spaceDistances[j][k];
+            }
+        }
+
+        double[] distances = new double[sourceNodes.length * targetNodes.length];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        IntStream.range(0, sourceNodes.length).parallel().forEach(i -> {
+            SearchWorkspace ws = SearchWorkspace.acquire(g);
+            int row = i * targetNodes.length;
+            for (int v : upwardSearch(sourceNodes[i], ws)) {
+                for (int b = bucketOffsets[v]; b < bucketOffsets[v + 1]; b++) {
+                    double dist = ws.distTo(v) + bucketDistances[b];
+                    if (dist < distances[row + bucketTargets[b]]) {
+                        distances[row + bucketTargets[b]] = dist;
+                    }
+                }
+            }
+        });
+        return distances;
+    }
+
+    /**
+     * Runs Dijkstra upwards from source until the frontier is exhausted.
+     * @param ws A freshly created or reset workspace, which holds the distances afterwards.
+     * @return The settled vertices that were not stalled, the only ones that can be the
+     * highest vertex of a shortest path from source.
+     */
+    int[] upwardSearch(int source, SearchWorkspace ws) {
+        int[] space = new int[16];
+        int size = 0;
+        ws.reach(source, 0, -1);
+        ws.heap.insertOrDecrease(source, 0);
+        while (!ws.heap.isEmpty()) {
+            int v = ws.heap.poll();
+            ws.settle(v);
+            if (isStalled(v, ws)) {
+                continue;
+            }
+            if (size == space.length) {
+                space = Arrays.copyOf(space, size * 2);
+            }
+            space[size++] = v;
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                double dist = ws.distTo(v) + weights[e];
+                if (dist < ws.distTo(w)) {
+                    ws.reach(w, dist, v);
+                    ws.heap.insertOrDecrease(w, dist);
+                }
+            }
+        }
+        return Arrays.copyOf(space, size);
+    }
+
+    /**
+     * Stall-on-demand: v need not be expanded if a higher neighbour already reached reaches v
+     * by a shorter route downwards, as then no shortest path climbs through v. Edges are
+     * two-way, so v's upward edges are also the downward edges into v.
+     */
+    private boolean isStalled(int v, SearchWorkspace ws) {
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            if (ws.distTo(targets[e]) + weights[e] < ws.distTo(v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Unpacks the path found by search() into the vertices of the original graph.
+     * @return The ids of the vertices from stNode to destNode, or an empty list if meet is -1.
+     */
+    List<Long> path(GraphDB g, int stNode, int meet, SearchWorkspace forward,
+                    SearchWorkspace backward) {
+        List<Long> results = new ArrayList<>();
+        if (meet < 0) {
+            return results;
+        }
+        List<Integer> hops = new ArrayList<>();
+        for (int v = meet; v >= 0; v = forward.edgeTo(v)) {
+            hops.add(v);
+        }
+        Collections.reverse(hops);
+        for (int v = backward.edgeTo(meet); v >= 0; v = backward.edgeTo(v)) {
+            hops.add(v);
+        }
+
+        results.add(g.idOf(stNode));
+        for (int i = 1; i < hops.size(); i++) {
+            unpack(g, hops.get(i - 1), hops.get(i), results);
+        }
+        return results;
+    }
+
+    /** Appends the vertices after v up to and including w on the edge or shortcut v-w. */
+    private void unpack(GraphDB g, int v, int w, List<Long> results) {
+        int middle = middles[upwardEdge(v, w)];
+        if (middle < 0) {
+            results.add(g.idOf(w));
+            return;
+        }
+        unpack(g, v, middle, results);
+        unpack(g, middle, w, results);
+    }
+
+    /** Returns the upward edge between v and w, stored with whichever has the lower rank. */
+    private int upwardEdge(int v, int w) {
+        int low = rank[v] < rank[w] ? v : w;
+        int high = low == v ? w : v;
+        for (int e = offsets[low]; e < offsets[low + 1]; e++) {
+            if (targets[e] == high) {
+                return e;
+            }
+        }
+        throw new IllegalStateException("No upward edge between " + v + " and " + w);
+    }
+
+    /**
+     * Writes the hierarchy, replacing any existing file atomically. Failures are reported but
+     * not fatal; the hierarchy is simply rebuilt on the next start.
+     */
+    void write(File file) {
+        try {
+            BinaryFile.write(file, MAGIC, VERSION, new long[]{graphChecksum}, out -> {
+                out.writeInt(rank.length);
+                out.writeInt(targets.length);
+                BinaryFile.writeInts(out, rank);
+                BinaryFile.writeInts(out, offsets);
+                BinaryFile.writeInts(out, targets);
+                BinaryFile.writeDoubles(out, weights);
+                BinaryFile.writeInts(out, middles);
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads a hierarchy back.
+     * @param file The sidecar file.
+     * @param g The graph the hierarchy must have been built from.
+     * @return The hierarchy, or null if the file is missing, corrupt or for another graph.
+     */
+    static ContractionHierarchy read(File file, GraphDB g) {
+        if (!file.isFile()) {
+            return null;
+        }
+        long checksum = g.csr().checksum();
+        try {
+            ByteBuffer payload = BinaryFile.read(file, MAGIC, VERSION, new long[]{checksum});
+            int n = payload.getInt();
+            int m = payload.getInt();
+            return new ContractionHierarchy(checksum, BinaryFile.readInts(payload, n),
+                    BinaryFile.readInts(payload, n + 1), BinaryFile.readInts(payload, m),
+                    BinaryFile.readDoubles(payload, m), BinaryFile.readInts(payload, m));
+        } catch (BinaryFile.RejectedException e) {
+            System.err.println("Hierarchy " + file + " " + e.getMessage() + "; rebuilding.");
+            return null;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * The state of a running contraction: the remaining graph as growable per-vertex adjacency
+     * arrays, from which contracted vertices are removed, and the upward edges collected so far.
+     */
+    private static class Contraction {
+        private final GraphDB g;
+        private final int n;
+        private final int[][] adj;
+        private final double[][] adjWeights;
+        private final int[][] adjMiddles;
+        private final int[] degree;
+        private final int[] contractedNeighbours;
+        private final int[] level;
+        private final int[] edgeDifference;
+        private final int[] rank;
+        private final int[][] upTargets;
+        private final double[][] upWeights;
+        private final int[][] upMiddles;
+        private final SearchWorkspace witness;
+        /** Marks the targets of the current witness search; see witnessSearch. */
+        private final int[] targetStamp;
+        private int targetRound;
+
+        Contraction(GraphDB g) {
+            this.g = g;
+            n = g.size();
+            adj = new int[n][];
+            adjWeights = new double[n][];
+            adjMiddles = new int[n][];
+            degree = new int[n];
+            contractedNeighbours = new int[n];
+            level = new int[n];
+            edgeDifference = new int[n];
+            rank = new int[n];
+            upTargets = new int[n][];
+            upWeights = new double[n][];
+            upMiddles = new int[n][];
+            witness = new SearchWorkspace(n);
+            targetStamp = new int[n];
+            for (int v = 0; v < n; v++) {
+                int capacity = Math.max(1, g.edgeEnd(v) - g.edgeBegin(v));
+                adj[v] = new int[capacity];
+                adjWeights[v] = new double[capacity];
+                adjMiddles[v] = new int[capacity];
+            }
+            for (int v = 0; v < n; v++) {
+                for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                    if (g.edgeTarget(e) != v) {
+                        connect(v, g.edgeTarget(e), g.edgeWeight(e), -1);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy run() {
+            IndexedHeap queue = new IndexedHeap(n);
+            for (int v = 0; v < n; v++) {
+                edgeDifference[v] = shortcuts(v, false) - degree[v];
+                queue.insertOrDecrease(v, importance(v));
+            }
+            int next = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.poll();
+                // Lazy update: contracting a neighbour may have changed the edge difference.
+                edgeDifference[v] = shortcuts(v, false) - degree[v];
+                double importance = importance(v);
+                if (!queue.isEmpty() && importance > queue.minKey()) {
+                    queue.insertOrDecrease(v, importance);
+                    continue;
+                }
+                rank[v] = next++;
+                contract(v);
+                for (int i = 0; i < degree[v]; i++) {
+                    int u = adj[v][i];
+                    contractedNeighbours[u]++;
+                    level[u] = Math.max(level[u], level[v] + 1);
+                    queue.update(u, importance(u));
+                }
+                adj[v] = null;
+                adjWeights[v] = null;
+                adjMiddles[v] = null;
+            }
+            return toHierarchy();
+        }
+
+        private double importance(int v) {
+            return 2 * edgeDifference[v] + contractedNeighbours[v] + level[v];
+        }
+
+        /**
+         * Keeps v's edges to the remaining graph as its upward edges, adds the shortcuts its
+         * removal needs and takes it out of its neighbours' adjacency.
+         */
+        private void contract(int v) {
+            upTargets[v] = Arrays.copyOf(adj[v], degree[v]);
+            upWeights[v] = Arrays.copyOf(adjWeights[v], degree[v]);
+            upMiddles[v] = Arrays.copyOf(adjMiddles[v], degree[v]);
+            shortcuts(v, true);
+            for (int i = 0; i < degree[v]; i++) {
+                disconnect(adj[v][i], v);
+            }
+        }
+
+        /**
+         * Finds the pairs of v's neighbours whose shortest connection runs through v.
+         * @param add Whether to add the shortcuts, or only count them.
+         * @return The number of shortcuts needed.
+         */
+        private int shortcuts(int v, boolean add) {
+            int d = degree[v];
+            int[] neighbours = Arrays.copyOf(adj[v], d);
+            double[] lengths = Arrays.copyOf(adjWeights[v], d);
+
+            int count = 0;
+            int[] pairs = new int[add ? d * (d - 1) : 0];
+            for (int i = 0; i < d - 1; i++) {
+                double longest = 0;
+                targetRound++;
+                for (int j = i + 1; j < d; j++) {
+                    longest = Math.max(longest, lengths[j]);
+                    targetStamp[neighbours[j]] = targetRound;
+                }
+                witnessSearch(neighbours[i], v, lengths[i] + longest, d - 1 - i);
+                for (int j = i + 1; j < d; j++) {
+                    if (witness.distTo(neighbours[j]) > lengths[i] + lengths[j]) {
+                        if (add) {
+                            pairs[2 * count] = i;
+                            pairs[2 * count + 1] = j;
+                        }
+                        count++;
+                    }
+                }
+            }
+            for (int k = 0; k < 2 * count && add; k += 2) {
+                int i = pairs[k];
+                int j = pairs[k + 1];
+                connect(neighbours[i], neighbours[j], lengths[i] + lengths[j], v);
+                connect(neighbours[j], neighbours[i], lengths[i] + lengths[j], v);
+            }
+            return count;
+        }
+
+        /**
+         * Runs Dijkstra from source in the remaining graph, avoiding via, until every target
+         * (the vertices stamped with the current targetRound) is settled or limit is passed.
+         */
+        private void witnessSearch(int source, int via, double limit, int targets) {
+            witness.reset();
+            witness.reach(source, 0, -1);
+            witness.heap.insertOrDecrease(source, 0);
+            while (!witness.heap.isEmpty() && witness.heap.minKey() <= limit
+                    && witness.settledCount() < MAX_WITNESS_SETTLED) {
+                int u = witness.heap.poll();
+                witness.settle(u);
+                if (targetStamp[u] == targetRound && --targets == 0) {
+                    return;
+                }
+                for (int i = 0; i < degree[u]; i++) {
+                    int w = adj[u][i];
+                    double dist = witness.distTo(u) + adjWeights[u][i];
+                    if (w != via && dist < witness.distTo(w)) {
+                        witness.reach(w, dist, u);
+                        witness.heap.insertOrDecrease(w, dist);
+                    }
+                }
+            }
+        }
+
+        /** Adds the edge v-w to v's adjacency, or shortens it if it is already there. */
+        private void connect(int v, int w, double weight, int middle) {
+            for (int i = 0; i < degree[v]; i++) {
+                if (adj[v][i] == w) {
+                    if (weight < adjWeights[v][i]) {
+                        adjWeights[v][i] = weight;
+                        adjMiddles[v][i] = middle;
+                    }
+                    return;
+                }
+            }
+            if (degree[v] == adj[v].length) {
+                adj[v] = Arrays.copyOf(adj[v], degree[v] * 2);
+                adjWeights[v] = Arrays.copyOf(adjWeights[v], degree[v] * 2);
+                adjMiddles[v] = Arrays.copyOf(adjMiddles[v], degree[v] * 2);
+            }
+            adj[v][degree[v]] = w;
+            adjWeights[v][degree[v]] = weight;
+            adjMiddles[v][degree[v]] = middle;
+            degree[v]++;
+        }
+
+        /** Removes w from v's adjacency. */
+        private void disconnect(int v, int w) {
+            for (int i = 0; i < degree[v]; i++) {
+                if (adj[v][i] == w) {
+                    degree[v]--;
+                    adj[v][i] = adj[v][degree[v]];
+                    adjWeights[v][i] = adjWeights[v][degree[v]];
+                    adjMiddles[v][i] = adjMiddles[v][degree[v]];
+                    return;
+                }
+            }
+        }
+
+        private ContractionHierarchy toHierarchy() {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] = offsets[v] + upTargets[v].length;
+            }
+            int[] targets = new int[offsets[n]];
+            double[] weights = new double[offsets[n]];
+            int[] middles = new int[offsets[n]];
+            for (int v = 0; v < n; v++) {
+                System.arraycopy(upTargets[v], 0, targets, offsets[v], upTargets[v].length);
+                System.arraycopy(upWeights[v], 0, weights, offsets[v], upWeights[v].length);
+                System.arraycopy(upMiddles[v], 0, middles, offsets[v], upMiddles[v].length);
+            }
+            return new ContractionHierarchy(g.csr().checksum(), rank, offsets, targets,
+                    weights, middles);
+        }
+    }
+}
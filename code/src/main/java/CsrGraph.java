@@ -0,0 +1,349 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * Frozen compressed sparse row (CSR) layout of the cleaned road graph. Every vertex that
+ * survives GraphDB's clean() is renumbered with a dense int index, in the order it was
+ * parsed, and its coordinates are kept in parallel primitive columns. The neighbours of
+ * vertex i are targets[offsets[i]] through targets[offsets[i + 1] - 1], in the same order
+ * the edges were first added by the GraphBuildingHandler. weights[e] is the great-circle
+ * length of edge e in miles, computed once when the graph is built, times[e] the seconds it
+ * takes to drive at the speed TravelTime gives its way, and edgeWays[e] is the index of the
+ * way that first linked its two endpoints, in GraphDB's list of ways.
+ */
+public class CsrGraph {
+    final long[] ids;
+    final double[] lons;
+    final double[] lats;
+    final int[] offsets;
+    final int[] targets;
+    final double[] weights;
+    final double[] times;
+    final int[] edgeWays;
+    /** The fewest seconds any edge takes per mile, which bounds the time of any path. */
+    final double minSecondsPerMile;
+    private final LongIntHashMap indexById;
+
+    /** Wraps existing columns, e.g. ones read back from a GraphSnapshot. */
+    CsrGraph(long[] ids, double[] lons, double[] lats, int[] offsets, int[] targets,
+             double[] weights, double[] times, int[] edgeWays) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.times = times;
+        this.edgeWays = edgeWays;
+        this.indexById = new LongIntHashMap(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            indexById.put(ids[i], i);
+        }
+        double fastest = Double.POSITIVE_INFINITY;
+        for (int e = 0; e < weights.length; e++) {
+            if (weights[e] > 0) {
+                fastest = Math.min(fastest, times[e] / weights[e]);
+            }
+        }
+        minSecondsPerMile = fastest == Double.POSITIVE_INFINITY ? 0 : fastest;
+    }
+
+    /** Returns the number of vertices. */
+    int size() {
+        return ids.length;
+    }
+
+    /** Returns the number of directed edges; every road segment is stored once each way. */
+    int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Returns the dense index of a vertex.
+     * @param id The OSM id of the vertex.
+     * @return The dense index, or -1 if the vertex is not in the graph.
+     */
+    int indexOf(long id) {
+        return indexById.get(id);
+    }
+
+    /**
+     * Returns the edge from v to w.
+     * @param v The dense index of the source.
+     * @param w The dense index of the target.
+     * @return The edge index, or -1 if w is not adjacent to v.
+     */
+    int edge(int v, int w) {
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            if (targets[e] == w) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the source of an edge, by binary search over the offsets; the CSR layout only
+     * stores targets.
+     * @param e The edge index.
+     * @return The dense index of the vertex e leaves from.
+     */
+    int source(int e) {
+        int lo = 0;
+        int hi = ids.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= e) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the number of bytes held by the primitive columns, excluding the id index.
+     * @return The footprint of the vertex and edge columns in bytes.
+     */
+    long footprintBytes() {
+        long n = ids.length;
+        long m = targets.length;
+        return n * Long.BYTES + 2 * n * Double.BYTES + (n + 1) * Integer.BYTES
+                + m * (2 * Integer.BYTES + 2 * Double.BYTES);
+    }
+
+    /** Returns the number of bytes held by the OSM id index. */
+    long indexFootprintBytes() {
+        return indexById.footprintBytes();
+    }
+
+    /**
+     * Returns a CRC32 of the vertex ids and the edge columns. Data derived from the graph, such
+     * as a ContractionHierarchy, records it so that it is not reused with a different graph.
+     */
+    long checksum() {
+        ByteBuffer buf = ByteBuffer.allocate(ids.length * Long.BYTES
+                + (offsets.length + targets.length) * Integer.BYTES
+                + weights.length * Double.BYTES);
+        buf.asLongBuffer().put(ids);
+        buf.position(ids.length * Long.BYTES);
+        buf.asIntBuffer().put(offsets).put(targets);
+        buf.position(buf.position() + (offsets.length + targets.length) * Integer.BYTES);
+        buf.asDoubleBuffer().put(weights);
+        buf.rewind();
+        CRC32 crc = new CRC32();
+        crc.update(buf);
+        return crc.getValue();
+    }
+
+    /** Returns the OSM ids of all vertices, in index order. */
+    Iterable<Long> vertexIds() {
+        return () -> new IdIterator(0, ids.length, null);
+    }
+
+    /** Returns the OSM ids of the neighbours of vertex v, in edge order. */
+    Iterable<Long> adjacentIds(int v) {
+        return () -> new IdIterator(offsets[v], offsets[v + 1], targets);
+    }
+
+    /** Iterates over ids[i] (or ids[indices[i]] when indices is given) for lo <= i < hi. */
+    private class IdIterator implements Iterator<Long> {
+        private int i;
+        private final int hi;
+        private final int[] indices;
+
+        IdIterator(int lo, int hi, int[] indices) {
+            this.i = lo;
+            this.hi = hi;
+            this.indices = indices;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return i < hi;
+        }
+
+        @Override
+        public Long next() {
+            if (i >= hi) {
+                throw new NoSuchElementException();
+            }
+            int v = indices == null ? i : indices[i];
+            i++;
+            return ids[v];
+        }
+    }
+
+    /**
+     * Accumulates nodes and edges while the OSM file is parsed, in growable primitive
+     * columns keyed through a LongIntHashMap, and then freezes them into a CsrGraph.
+     * Node indices used here are import indices; they are renumbered by build().
+     */
+    static class Builder {
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final LongIntHashMap indexById = new LongIntHashMap(INITIAL_CAPACITY);
+        private long[] ids = new long[INITIAL_CAPACITY];
+        private double[] lons = new double[INITIAL_CAPACITY];
+        private double[] lats = new double[INITIAL_CAPACITY];
+        private int nodeCount;
+        private int[] edgeFrom = new int[INITIAL_CAPACITY];
+        private int[] edgeTo = new int[INITIAL_CAPACITY];
+        private int[] edgeWay = new int[INITIAL_CAPACITY];
+        private int edgeCount;
+        /** New index of each import index after clean(), or -1 for removed nodes. */
+        private int[] cleanIndex;
+        private int cleanCount;
+
+        /**
+         * Adds a node, or moves it if a node with the same id was already added.
+         * @return The import index of the node.
+         */
+        int addNode(long id, double lon, double lat) {
+            int i = indexById.get(id);
+            if (i == LongIntHashMap.MISSING) {
+                if (nodeCount == ids.length) {
+                    int capacity = nodeCount << 1;
+                    ids = Arrays.copyOf(ids, capacity);
+                    lons = Arrays.copyOf(lons, capacity);
+                    lats = Arrays.copyOf(lats, capacity);
+                }
+                i = nodeCount;
+                nodeCount++;
+                indexById.put(id, i);
+            }
+            ids[i] = id;
+            lons[i] = lon;
+            lats[i] = lat;
+            return i;
+        }
+
+        /**
+         * Returns the import index of a node.
+         * @param id The OSM id of the node.
+         * @return The import index, or LongIntHashMap.MISSING if the node was never added.
+         */
+        int indexOf(long id) {
+            return indexById.get(id);
+        }
+
+        /** Returns the number of nodes added so far. */
+        int nodeCount() {
+            return nodeCount;
+        }
+
+        /**
+         * Adds a directed edge between two import indices; duplicates are dropped by build(),
+         * which keeps the way of the first one.
+         */
+        void addEdge(int from, int to, int way) {
+            if (edgeCount == edgeFrom.length) {
+                edgeFrom = Arrays.copyOf(edgeFrom, edgeCount << 1);
+                edgeTo = Arrays.copyOf(edgeTo, edgeCount << 1);
+                edgeWay = Arrays.copyOf(edgeWay, edgeCount << 1);
+            }
+            edgeFrom[edgeCount] = from;
+            edgeTo[edgeCount] = to;
+            edgeWay[edgeCount] = way;
+            edgeCount++;
+        }
+
+        /**
+         * Removes nodes with no connections, keeping the parse order of the remainder.
+         * @return The new dense index of every import index, or -1 for removed nodes.
+         */
+        int[] clean() {
+            cleanIndex = new int[nodeCount];
+            for (int e = 0; e < edgeCount; e++) {
+                cleanIndex[edgeFrom[e]] = 1;
+            }
+            cleanCount = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                cleanIndex[i] = cleanIndex[i] == 0 ? -1 : cleanCount++;
+            }
+            return cleanIndex;
+        }
+
+        /** Returns the index mapping computed by the last clean(), or null before it. */
+        int[] cleanIndex() {
+            return cleanIndex;
+        }
+
+        /**
+         * Freezes the cleaned nodes into CSR form. Edges are bucketed by source with a stable
+         * counting sort, so each adjacency keeps first-insertion order once duplicates of the
+         * same (source, target) pair are dropped.
+         * @param waySpeeds The speed of each way in mph, from TravelTime.waySpeeds.
+         * @return The frozen graph.
+         */
+        CsrGraph build(double[] waySpeeds) {
+            if (cleanIndex == null) {
+                clean();
+            }
+            int n = cleanCount;
+            long[] newIds = new long[n];
+            double[] newLons = new double[n];
+            double[] newLats = new double[n];
+            for (int i = 0; i < nodeCount; i++) {
+                int v = cleanIndex[i];
+                if (v >= 0) {
+                    newIds[v] = ids[i];
+                    newLons[v] = lons[i];
+                    newLats[v] = lats[i];
+                }
+            }
+
+            int[] start = new int[n + 1];
+            for (int e = 0; e < edgeCount; e++) {
+                start[cleanIndex[edgeFrom[e]] + 1]++;
+            }
+            for (int v = 0; v < n; v++) {
+                start[v + 1] += start[v];
+            }
+            int[] bucketed = new int[edgeCount];
+            int[] bucketedWays = new int[edgeCount];
+            int[] next = Arrays.copyOf(start, n);
+            for (int e = 0; e < edgeCount; e++) {
+                int v = cleanIndex[edgeFrom[e]];
+                bucketed[next[v]] = cleanIndex[edgeTo[e]];
+                bucketedWays[next[v]] = edgeWay[e];
+                next[v]++;
+            }
+
+            // Drop repeated targets within each bucket, stamping seen targets with source + 1
+            int[] seen = new int[n];
+            int[] offsets = new int[n + 1];
+            int m = 0;
+            for (int v = 0; v < n; v++) {
+                offsets[v] = m;
+                for (int e = start[v]; e < start[v + 1]; e++) {
+                    int w = bucketed[e];
+                    if (seen[w] != v + 1) {
+                        seen[w] = v + 1;
+                        bucketed[m] = w;
+                        bucketedWays[m] = bucketedWays[e];
+                        m++;
+                    }
+                }
+            }
+            offsets[n] = m;
+
+            double[] weights = new double[m];
+            double[] times = new double[m];
+            for (int v = 0; v < n; v++) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    int w = bucketed[e];
+                    weights[e] = GraphDB.distance(newLons[v], newLats[v], newLons[w], newLats[w]);
+                    times[e] = TravelTime.seconds(weights[e], waySpeeds[bucketedWays[e]]);
+                }
+            }
+
+            return new CsrGraph(newIds, newLons, newLats, offsets, Arrays.copyOf(bucketed, m),
+                    weights, times, Arrays.copyOf(bucketedWays, m));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A* over the edges of the graph instead of its vertices, so that the cost of a route can
+ * include a penalty for every turn. A search state is a directed edge; moving from edge u->v to
+ * edge v->w costs the cost of v->w plus the penalty for the turn at v, which depends on the
+ * change in bearing, classified as in Router.routeDirections. Turning back on the same road
+ * is allowed, at the highest penalty, so dead ends remain routable.
+ *
+ * The line graph is never built: the successors of a state are the edges leaving its target,
+ * and each turn penalty is computed from the bearings when the transition is relaxed. The only
+ * extra memory is a SearchWorkspace indexed by edge. Penalties are non-negative, so the lower
+ * bounds of node-based A* remain admissible and consistent.
+ */
+class EdgeBasedSearch {
+    /** The seconds lost to a turn of each NavigationDirection, by index. */
+    private static final double[] TURN_SECONDS =
+            new double[Router.NavigationDirection.NUM_DIRECTIONS];
+    /** The seconds lost to turning back on the same road. */
+    private static final double U_TURN_SECONDS = 30;
+
+    static {
+        TURN_SECONDS[Router.NavigationDirection.STRAIGHT] = 0;
+        TURN_SECONDS[Router.NavigationDirection.SLIGHT_LEFT] = 1;
+        TURN_SECONDS[Router.NavigationDirection.SLIGHT_RIGHT] = 1;
+        TURN_SECONDS[Router.NavigationDirection.RIGHT] = 4;
+        TURN_SECONDS[Router.NavigationDirection.LEFT] = 8;
+        TURN_SECONDS[Router.NavigationDirection.SHARP_RIGHT] = 8;
+        TURN_SECONDS[Router.NavigationDirection.SHARP_LEFT] = 12;
+    }
+
+    private EdgeBasedSearch() {
+    }
+
+    /**
+     * Finds the cheapest path from stNode to destNode, turn penalties included.
+     * @param toDest Landmark bound on distances to destNode, or null for great-circle distances.
+     * @param metric The cost to minimize. Under DISTANCE a turn costs the miles covered at
+     *               TravelTime.DEFAULT_SPEED_MPH in the seconds it loses.
+     * @return The ids of the vertices on the path, or an empty list if there is none.
+     */
+    static List<Long> shortestPath(GraphDB g, int stNode, int destNode,
+                                   Landmarks.Bound toDest, RouteOptions.Metric metric) {
+        return shortestPath(g, stNode, destNode, toDest, metric,
+                SearchWorkspace.acquire(g, SearchWorkspace.EDGES));
+    }
+
+    /**
+     * As above, in a given workspace, which is left holding the search state.
+     * @param ws A reset workspace with one entry per edge of g.
+     */
+    static List<Long> shortestPath(GraphDB g, int stNode, int destNode, Landmarks.Bound toDest,
+                                   RouteOptions.Metric metric, SearchWorkspace ws) {
+        List<Long> results = new ArrayList<>();
+        if (stNode == destNode) {
+            results.add(g.idOf(stNode));
+            return results;
+        }
+        for (int e = g.edgeBegin(stNode); e < g.edgeEnd(stNode); e++) {
+            relax(g, ws, -1, e, Router.cost(g, e, metric), destNode, toDest, metric);
+        }
+
+        while (!ws.heap.isEmpty()) {
+            int e = ws.heap.poll();
+            int v = g.edgeTarget(e);
+            if (v == destNode) {
+                return path(g, ws, e);
+            }
+            ws.settle(e);
+            int u = ws.edgeTo(e) < 0 ? stNode : g.edgeTarget(ws.edgeTo(e));
+            double bearing = GraphDB.bearing(g.lonAt(u), g.latAt(u), g.lonAt(v), g.latAt(v));
+            for (int f = g.edgeBegin(v); f < g.edgeEnd(v); f++) {
+                double cost = Router.cost(g, f, metric)
+                        + turnCost(g, u, v, g.edgeTarget(f), bearing, metric);
+                relax(g, ws, e, f, ws.distTo(e) + cost, destNode, toDest, metric);
+            }
+        }
+        return results;
+    }
+
+    private static void relax(GraphDB g, SearchWorkspace ws, int e, int f, double dist,
+                              int destNode, Landmarks.Bound toDest, RouteOptions.Metric metric) {
+        if (dist < ws.distTo(f)) {
+            ws.reach(f, dist, e);
+            if (!ws.isSettled(f)) {
+                ws.heap.insertOrDecrease(f,
+                        dist + Router.lowerBound(g, g.edgeTarget(f), destNode, toDest, metric));
+            }
+        }
+    }
+
+    /**
+     * Returns the penalty for turning at v from the road u->v, of the given bearing, onto v->w.
+     */
+    private static double turnCost(GraphDB g, int u, int v, int w, double bearing,
+                                   RouteOptions.Metric metric) {
+        double seconds;
+        if (w == u) {
+            seconds = U_TURN_SECONDS;
+        } else {
+            seconds = TURN_SECONDS[Router.convertBearingToDirection(bearing,
+                    GraphDB.bearing(g.lonAt(v), g.latAt(v), g.lonAt(w), g.latAt(w)))];
+        }
+        return metric == RouteOptions.Metric.TIME
+                ? seconds : seconds / TravelTime.seconds(1, TravelTime.DEFAULT_SPEED_MPH);
+    }
+
+    /** Follows edgeTo back from the edge into the destination to the first edge. */
+    private static List<Long> path(GraphDB g, SearchWorkspace ws, int last) {
+        List<Long> results = new ArrayList<>();
+        int e = last;
+        for (; ws.edgeTo(e) >= 0; e = ws.edgeTo(e)) {
+            results.add(g.idOf(g.edgeTarget(e)));
+        }
+        results.add(g.idOf(g.edgeTarget(e)));
+        results.add(g.idOf(g.edgeSource(e)));
+        Collections.reverse(results);
+        return results;
+    }
+}
@@ -1,7 +1,5 @@
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import org.xml.sax.Attributes;
@@ -40,9 +38,12 @@ public class GraphBuildingHandler extends DefaultHandler {
                     "secondary_link", "tertiary_link"));
     private String activeState = "";
     private final GraphDB g;
-    private GraphDB.Node curNode;
+    private long curNodeId;
+    private double curNodeLon;
+    private double curNodeLat;
     private GraphDB.Way curWay;
-    private List<Long> nodesInCurWay = new ArrayList<>();
+    private long[] nodesInCurWay = new long[16];
+    private int curWaySize = 0;
 
     /**
      * Create a new GraphBuildingHandler.
@@ -76,9 +77,10 @@ public class GraphBuildingHandler extends DefaultHandler {
             long id = Long.parseLong(attributes.getValue("id"));
             double lon = Double.parseDouble(attributes.getValue("lon"));
             double lat = Double.parseDouble(attributes.getValue("lat"));
-            GraphDB.Node n = new GraphDB.Node(id, lon, lat);
-            g.addNode(n);
-            curNode = n;
+            g.addNode(id, lon, lat);
+            curNodeId = id;
+            curNodeLon = lon;
+            curNodeLat = lat;
         } else if (qName.equals("way")) {
             /* We encountered a new <way...> tag. */
             activeState = "way";
@@ -89,10 +91,11 @@ public class GraphBuildingHandler extends DefaultHandler {
         } else if (activeState.equals("way") && qName.equals("nd")) {
             /* While looking at a way, we found a <nd...> tag. */
             long nodeId = Long.parseLong(attributes.getValue("ref"));
-            nodesInCurWay.add(nodeId);
-            if (!g.getNode(nodeId).wayIds.contains(curWay.id)) {
-                g.getNode(nodeId).wayIds.add(curWay.id);
+            if (curWaySize == nodesInCurWay.length) {
+                nodesInCurWay = Arrays.copyOf(nodesInCurWay, curWaySize << 1);
             }
+            nodesInCurWay[curWaySize] = nodeId;
+            curWaySize++;
         } else if (activeState.equals("way") && qName.equals("tag")) {
             /* While looking at a way, we found a <tag...> tag. */
             String k = attributes.getValue("k");
@@ -102,13 +105,13 @@ public class GraphBuildingHandler extends DefaultHandler {
             } else if (k.equals("highway")) {
                 curWay.highway = v;
                 if (ALLOWED_HIGHWAY_TYPES.contains(v)) {
-                    for (int i = 0, j = 1; j < nodesInCurWay.size(); i++, j++) {
-                        Long lastNode = nodesInCurWay.get(i);
-                        Long node = nodesInCurWay.get(j);
-                        g.addAdj(lastNode, node);
-                        g.addAdj(node, lastNode);
+                    for (int i = 0, j = 1; j < curWaySize; i++, j++) {
+                        long lastNode = nodesInCurWay[i];
+                        long node = nodesInCurWay[j];
+                        g.addAdj(lastNode, node, curWay.id);
+                        g.addAdj(node, lastNode, curWay.id);
                     }
-                    curWay.locations = nodesInCurWay;
+                    curWay.locations = Arrays.copyOf(nodesInCurWay, curWaySize);
                 }
             } else if (k.equals("name")) {
                 curWay.name = v;
@@ -120,10 +123,10 @@ public class GraphBuildingHandler extends DefaultHandler {
             String cleanName = GraphDB.cleanString(name);
             g.addCleanNameToTrie(cleanName, name);
             GraphDB.NameNode nameNode =
-                    new GraphDB.NameNode(curNode.id, curNode.lon, curNode.lat, name);
+                    new GraphDB.NameNode(curNodeId, curNodeLon, curNodeLat, name);
             g.addNameNode(nameNode);
-            g.addLocation(name, curNode.id);
-            g.addLocation(cleanName, curNode.id);
+            g.addLocation(name, curNodeId);
+            g.addLocation(cleanName, curNodeId);
         }
     }
 
@@ -142,7 +145,7 @@ public class GraphBuildingHandler extends DefaultHandler {
     public void endElement(String uri, String localName, String qName) throws SAXException {
         if (qName.equals("way")) {
             /* We are done looking at a way. (We finished looking at the nodes, speeds, etc...)*/
-            nodesInCurWay = new ArrayList<>();
+            curWaySize = 0;
         }
     }
 }
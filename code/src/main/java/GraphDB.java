@@ -3,15 +3,11 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -33,12 +29,31 @@ public class GraphDB {
      * Your instance variables for storing the graph. You should consider
      * creating helper classes, e.g. Node, Edge, etc.
      */
-    private final Map<Long, Node> nodes = new LinkedHashMap<>();
-    private final Map<Long, Way> ways = new LinkedHashMap<>();
+    private final List<Way> ways = new ArrayList<>();
+    private final LongIntHashMap wayIndex = new LongIntHashMap();
     private final Trie trieForNodeName = new Trie();
-    private final Map<Long, NameNode> nameNodes = new LinkedHashMap<>();
-    private final Map<String, List<Long>> locations = new LinkedHashMap<>();
-    private final KdTree kdTreeForNearestNeighbor = new KdTree();
+    private final List<NameNode> nameNodes = new ArrayList<>();
+    private final LongIntHashMap nameNodeIndex = new LongIntHashMap();
+    private final Map<String, long[]> locations = new LinkedHashMap<>();
+    /** Frozen CSR layout of the cleaned graph. */
+    private CsrGraph csr;
+    private KdTree kdTreeForNearestNeighbor;
+    /** Built along with the CSR layout, for snapping locations onto road segments. */
+    private SegmentIndex segmentIndex;
+    /** The connected components of the CSR layout, labelled whenever it is installed. */
+    private Components components;
+    /** Built on first use of Algorithm.CH unless installed earlier by ContractionHierarchy.open. */
+    private volatile ContractionHierarchy contractionHierarchy;
+    /** Built on first use of Heuristic.ALT. */
+    private volatile Landmarks landmarks;
+    /** Built on first use of Router.distance. */
+    private volatile HubLabels hubLabels;
+    /** Built on first use of RouteOptions.arcFlags unless installed earlier by ArcFlags.open. */
+    private volatile ArcFlags arcFlags;
+    /** Routes computed on this graph; cleared whenever the graph is restored. */
+    private final RouteCache routeCache = new RouteCache(RouteCache.DEFAULT_CAPACITY);
+    /** Import-time node and edge columns; dropped once the CSR layout exists. */
+    private CsrGraph.Builder builder = new CsrGraph.Builder();
 
     /**
      * Example constructor shows how to create and start an XML parser.
@@ -59,10 +74,119 @@ public class GraphDB {
             e.printStackTrace();
         }
         clean();
+        freeze();
+    }
+
+    /** Creates an empty graph, to be filled in by GraphSnapshot. */
+    GraphDB() {
+        builder = null;
+    }
 
-        for (long node : nodes.keySet()) {
-            addToKdTree(nodes.get(node));
+    /**
+     * Opens the graph for an OSM file, preferring a binary snapshot of it. If the snapshot is
+     * missing, stale or corrupt, the XML is parsed instead and a fresh snapshot is written.
+     * @param dbPath Path to the XML file.
+     * @param snapshotPath Path to the snapshot of that file.
+     * @return The graph.
+     */
+    public static GraphDB open(String dbPath, String snapshotPath) {
+        File source = new File(dbPath);
+        GraphDB g = GraphSnapshot.read(new File(snapshotPath), source);
+        if (g == null) {
+            g = new GraphDB(dbPath);
+            GraphSnapshot.write(g, new File(snapshotPath), source);
         }
+        return g;
+    }
+
+    /**
+     * Installs the frozen graph read back from a snapshot. The ways and the name index are
+     * restored separately through addWay, addNameNode, addCleanNameToTrie and addLocation.
+     */
+    void restore(CsrGraph frozen, KdTree kdTree) {
+        csr = frozen;
+        kdTreeForNearestNeighbor = kdTree;
+        components = Components.label(frozen);
+        segmentIndex = new SegmentIndex(frozen);
+        routeCache.clear();
+    }
+
+    /** Makes Algorithm.CH use ch, which must have been built from this graph. */
+    void useContractionHierarchy(ContractionHierarchy ch) {
+        contractionHierarchy = ch;
+    }
+
+    /** Makes RouteOptions.arcFlags use flags, which must have been computed for this graph. */
+    void useArcFlags(ArcFlags flags) {
+        arcFlags = flags;
+    }
+
+    /** Returns the arc flags of this graph, computing them the first time. */
+    ArcFlags arcFlags() {
+        ArcFlags result = arcFlags;
+        if (result == null) {
+            synchronized (this) {
+                result = arcFlags;
+                if (result == null) {
+                    result = ArcFlags.build(this, ArcFlags.DEFAULT_CELLS);
+                    arcFlags = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the contraction hierarchy of this graph, building it the first time. */
+    ContractionHierarchy contractionHierarchy() {
+        ContractionHierarchy ch = contractionHierarchy;
+        if (ch == null) {
+            synchronized (this) {
+                ch = contractionHierarchy;
+                if (ch == null) {
+                    ch = ContractionHierarchy.build(this);
+                    contractionHierarchy = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /** Returns the cache of routes computed on this graph. */
+    RouteCache routeCache() {
+        return routeCache;
+    }
+
+    /**
+     * Returns the hub labels of this graph, building them from its contraction hierarchy the
+     * first time.
+     */
+    HubLabels hubLabels() {
+        HubLabels result = hubLabels;
+        if (result == null) {
+            synchronized (this) {
+                result = hubLabels;
+                if (result == null) {
+                    result = HubLabels.build(this, contractionHierarchy());
+                    hubLabels = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ALT landmarks of this graph, building them the first time. */
+    Landmarks landmarks() {
+        Landmarks result = landmarks;
+        if (result == null) {
+            synchronized (this) {
+                result = landmarks;
+                if (result == null) {
+                    result = Landmarks.build(this, Landmarks.DEFAULT_COUNT);
+                    landmarks = result;
+                }
+            }
+        }
+        return result;
     }
 
     /**
@@ -80,13 +204,20 @@ public class GraphDB {
      *  we can reasonably assume this since typically roads are connected.
      */
     private void clean() {
-        Iterator<Long> nodesIterator = nodes.keySet().iterator();
-        while (nodesIterator.hasNext()) {
-            Long node = nodesIterator.next();
-            if (nodes.get(node).adjs.isEmpty()) {
-                nodesIterator.remove();
-            }
-        }
+        builder.clean();
+    }
+
+    /**
+     * Converts the cleaned import columns into the CSR layout, builds the spatial indices over
+     * it and labels its components. The import columns are released afterwards; every query
+     * is served from the CSR.
+     */
+    private void freeze() {
+        csr = builder.build(TravelTime.waySpeeds(ways));
+        kdTreeForNearestNeighbor = new KdTree(csr.lons, csr.lats);
+        components = Components.label(csr);
+        segmentIndex = new SegmentIndex(csr);
+        builder = null;
     }
 
     /**
@@ -94,7 +225,7 @@ public class GraphDB {
      * @return An iterable of id's of all vertices in the graph.
      */
     Iterable<Long> vertices() {
-        return nodes.keySet();
+        return csr.vertexIds();
     }
 
     /**
@@ -103,7 +234,15 @@ public class GraphDB {
      * @return An iterable of the ids of the neighbors of v.
      */
     Iterable<Long> adjacent(long v) {
-        return nodes.get(v).adjs;
+        return csr.adjacentIds(index(v));
+    }
+
+    /**
+     * Returns the great-circle distance between the vertices with dense indices i and j.
+     * @return The great-circle distance in miles.
+     */
+    double distanceAt(int i, int j) {
+        return distance(csr.lons[i], csr.lats[i], csr.lons[j], csr.lats[j]);
     }
 
     /**
@@ -164,16 +303,59 @@ public class GraphDB {
      * @return The id of the node in the graph closest to the target.
      */
     long closest(double lon, double lat) {
+        return csr.ids[closestIndex(lon, lat)];
+    }
+
+    /**
+     * Returns the dense index of the vertex closest to the given longitude and latitude.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The dense index of the closest vertex.
+     */
+    int closestIndex(double lon, double lat) {
         return kdTreeForNearestNeighbor.nearest(lon, lat);
     }
 
+    /**
+     * Returns the dense index of the vertex of the largest component closest to the given
+     * longitude and latitude, so that a point near a small island snaps to the main network.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The dense index of the closest vertex in the largest component.
+     */
+    int closestIndexInLargestComponent(double lon, double lat) {
+        int largest = components.largest();
+        return kdTreeForNearestNeighbor.nearest(lon, lat, v -> components.of(v) == largest);
+    }
+
+    /**
+     * Returns the closest point on a road segment to the given longitude and latitude.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The projection onto the closest segment, or null if the graph has no edges.
+     */
+    SegmentIndex.Snap closestSegment(double lon, double lat) {
+        return segmentIndex.nearest(lon, lat, null);
+    }
+
+    /** Like closestSegment, considering only the segments of the largest component. */
+    SegmentIndex.Snap closestSegmentInLargestComponent(double lon, double lat) {
+        int largest = components.largest();
+        return segmentIndex.nearest(lon, lat, v -> components.of(v) == largest);
+    }
+
+    /** Returns the connected components of this graph. */
+    Components components() {
+        return components;
+    }
+
     /**
      * Gets the longitude of a vertex.
      * @param v The id of the vertex.
      * @return The longitude of the vertex.
      */
     double lon(long v) {
-        return nodes.get(v).lon;
+        return csr.lons[index(v)];
     }
 
     /**
@@ -182,23 +364,168 @@ public class GraphDB {
      * @return The latitude of the vertex.
      */
     double lat(long v) {
-        return nodes.get(v).lat;
+        return csr.lats[index(v)];
     }
 
-    void addNode(Node n) {
-        nodes.put(n.id, n);
+    /** Returns the longitude of the vertex with dense index i. */
+    double lonAt(int i) {
+        return csr.lons[i];
     }
 
-    void addWay(Way w) {
-        ways.put(w.id, w);
+    /** Returns the latitude of the vertex with dense index i. */
+    double latAt(int i) {
+        return csr.lats[i];
+    }
+
+    /** Returns the dense CSR index of vertex v, which must be in the cleaned graph. */
+    private int index(long v) {
+        int i = csr.indexOf(v);
+        if (i < 0) {
+            throw new IllegalArgumentException("Vertex " + v + " is not in the graph.");
+        }
+        return i;
+    }
+
+    /** Returns the number of vertices; dense indices run from 0 to size() - 1. */
+    int size() {
+        return csr.size();
+    }
+
+    /**
+     * Returns the dense index of a vertex, for iterating over its edges.
+     * @param v The id of the vertex.
+     * @return The dense index, or -1 if v is not in the graph.
+     */
+    int indexOf(long v) {
+        return csr.indexOf(v);
+    }
+
+    /** Returns the id of the vertex with dense index i. */
+    long idOf(int i) {
+        return csr.ids[i];
+    }
+
+    /** Returns the first edge index of the vertex with dense index i. */
+    int edgeBegin(int i) {
+        return csr.offsets[i];
+    }
+
+    /** Returns one past the last edge index of the vertex with dense index i. */
+    int edgeEnd(int i) {
+        return csr.offsets[i + 1];
+    }
+
+    /** Returns the dense index of the vertex edge e leaves from, in O(log n). */
+    int edgeSource(int e) {
+        return csr.source(e);
     }
 
-    void addAdj(Long node1, Long node2) {
-        nodes.get(node1).adjs.add(node2);
+    /** Returns the dense index of the vertex edge e points to. */
+    int edgeTarget(int e) {
+        return csr.targets[e];
     }
 
-    public void addToKdTree(GraphDB.Node n) {
-        kdTreeForNearestNeighbor.insert(n);
+    /**
+     * Returns the precomputed great-circle length of an edge; the same value distance()
+     * returns for its two endpoints.
+     * @param e The edge index, between edgeBegin(i) and edgeEnd(i) of its source i.
+     * @return The length of the edge in miles.
+     */
+    double edgeWeight(int e) {
+        return csr.weights[e];
+    }
+
+    /**
+     * Returns the precomputed time to drive an edge at the speed of its way; see TravelTime.
+     * @param e The edge index, between edgeBegin(i) and edgeEnd(i) of its source i.
+     * @return The travel time of the edge in seconds.
+     */
+    double edgeTime(int e) {
+        return csr.times[e];
+    }
+
+    /**
+     * Returns the fewest seconds any edge takes per mile. Any path from i to j takes at least
+     * distanceAt(i, j) times this many seconds.
+     */
+    double minSecondsPerMile() {
+        return csr.minSecondsPerMile;
+    }
+
+    /**
+     * Returns the edge from v to w.
+     * @param v The id of the source vertex.
+     * @param w The id of the target vertex.
+     * @return The edge index, or -1 if there is no such edge.
+     */
+    int edge(long v, long w) {
+        int i = csr.indexOf(v);
+        int j = csr.indexOf(w);
+        if (i < 0 || j < 0) {
+            return -1;
+        }
+        return csr.edge(i, j);
+    }
+
+    /** Returns the number of bytes held by the CSR columns. */
+    long csrFootprintBytes() {
+        return csr.footprintBytes();
+    }
+
+    /** Returns the number of bytes held by the grid of road segments. */
+    long segmentIndexFootprintBytes() {
+        return segmentIndex.footprintBytes();
+    }
+
+    /** Returns the number of directed edges in the cleaned graph. */
+    int edgeCount() {
+        return csr.edgeCount();
+    }
+
+    /* Accessors for GraphSnapshot. */
+
+    CsrGraph csr() {
+        return csr;
+    }
+
+    KdTree kdTree() {
+        return kdTreeForNearestNeighbor;
+    }
+
+    List<Way> ways() {
+        return ways;
+    }
+
+    List<NameNode> nameNodes() {
+        return nameNodes;
+    }
+
+    Map<String, long[]> locations() {
+        return locations;
+    }
+
+    void addNode(long id, double lon, double lat) {
+        builder.addNode(id, lon, lat);
+    }
+
+    void addWay(Way w) {
+        int i = wayIndex.get(w.id);
+        if (i == LongIntHashMap.MISSING) {
+            wayIndex.put(w.id, ways.size());
+            ways.add(w);
+        } else {
+            ways.set(i, w);
+        }
+    }
+
+    /**
+     * Adds a directed edge between two parsed nodes while the file is being parsed.
+     * @param node1 The id of the source node.
+     * @param node2 The id of the target node.
+     * @param wayId The id of the way the edge belongs to, which must already be added.
+     */
+    void addAdj(long node1, long node2, long wayId) {
+        builder.addEdge(builder.indexOf(node1), builder.indexOf(node2), wayIndex.get(wayId));
     }
 
     public void addCleanNameToTrie(String cleanName, String name) {
@@ -224,10 +551,13 @@ public class GraphDB {
     }
 
     public void addLocation(String name, long id) {
-        if (locations.containsKey(name)) {
-            locations.get(name).add(id);
+        long[] ids = locations.get(name);
+        if (ids == null) {
+            locations.put(name, new long[]{id});
         } else {
-            locations.put(name, new ArrayList<>(Arrays.asList(id)));
+            ids = Arrays.copyOf(ids, ids.length + 1);
+            ids[ids.length - 1] = id;
+            locations.put(name, ids);
         }
     }
 
@@ -245,72 +575,37 @@ public class GraphDB {
         return results;
     }
 
-    /** The helper class and methods of Node. */
-    static class Node {
-        long id;
-        double lon;
-        double lat;
-        Set<Long> adjs;
-        double priority = 0;
-        double distTo = 0;
-        List<Long> wayIds;
-
-        Node(long id, double lon, double lat) {
-            this.id = id;
-            this.lon = lon;
-            this.lat = lat;
-            this.adjs = new LinkedHashSet<>();
-            this.wayIds = new ArrayList<>();
-        }
-    }
-
-    public double getDistTo(long v) {
-        return nodes.get(v).distTo;
-    }
-
-    public void changeDistTo(long v, double newDistTo) {
-        nodes.get(v).distTo = newDistTo;
-    }
-
-    public void changePriority(long v, double newPriority) {
-        nodes.get(v).priority = newPriority;
-    }
-
-    class NodeComparator implements Comparator<Long> {
-        @Override
-        public int compare(Long v, Long w) {
-            return Double.compare(nodes.get(v).priority, nodes.get(w).priority);
-        }
-    }
-
-    public Comparator<Long> getNodeComparator() {
-        return new NodeComparator();
-    }
-
-    public Node getNode(long nodeId) {
-        return nodes.get(nodeId);
-    }
-
     /** The helper class and methods of Way. */
     static class Way {
         long id;
         String maxSpeed;
         String name;
         String highway;
-        List<Long> locations;
+        long[] locations;
 
         Way(long id) {
             this.id = id;
-            this.locations = new ArrayList<>();
+            this.locations = new long[0];
         }
     }
 
-    public List<Long> getWays(long nodeId) {
-        return nodes.get(nodeId).wayIds;
+    public String getWayName(long wayId) {
+        return ways.get(wayIndex.get(wayId)).name;
     }
 
-    public String getWayName(long wayId) {
-        return ways.get(wayId).name;
+    /**
+     * Returns the name of the way an edge was taken from. When several ways link the same
+     * two nodes, this is the first one in the file.
+     * @param e The edge index.
+     * @return The name of the way, or null if it has none.
+     */
+    String edgeWayName(int e) {
+        return ways.get(csr.edgeWays[e]).name;
+    }
+
+    /** Returns the OSM id of the way edge e belongs to. */
+    long edgeWayId(int e) {
+        return ways.get(csr.edgeWays[e]).id;
     }
 
     /** The helper class and methods of NameNode. */
@@ -329,15 +624,21 @@ public class GraphDB {
     }
 
     public void addNameNode(NameNode n) {
-        nameNodes.put(n.id, n);
+        int i = nameNodeIndex.get(n.id);
+        if (i == LongIntHashMap.MISSING) {
+            nameNodeIndex.put(n.id, nameNodes.size());
+            nameNodes.add(n);
+        } else {
+            nameNodes.set(i, n);
+        }
     }
 
     public String getNodeName(long id) {
-        return nameNodes.get(id).name;
+        return nameNodes.get(nameNodeIndex.get(id)).name;
     }
 
     public Map<String, Object> getNameNodeAsMap(long id) {
-        NameNode n = nameNodes.get(id);
+        NameNode n = nameNodes.get(nameNodeIndex.get(id));
         Map<String, Object> results = new HashMap<>();
         results.put("id", n.id);
         results.put("lon", n.lon);
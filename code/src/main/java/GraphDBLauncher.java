@@ -1,5 +1,11 @@
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * This class provides a main method for experimenting with GraphDB construction.
@@ -9,8 +15,28 @@ import java.util.ArrayList;
 public class GraphDBLauncher {
     private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
 
+    /** The number of times each layout is built to measure its footprint. */
+    private static final int MEASUREMENTS = 5;
+
+    /** A vertex of the LinkedHashMap layout GraphDB used before its CSR layout. */
+    private static class MapNode {
+        long id;
+        double lon;
+        double lat;
+        Set<Long> adjs = new LinkedHashSet<>();
+        double priority = 0;
+        double distTo = 0;
+        List<Long> wayIds = new ArrayList<>();
+
+        MapNode(long id, double lon, double lat) {
+            this.id = id;
+            this.lon = lon;
+            this.lat = lat;
+        }
+    }
+
     public static void main(String[] args) {
-        GraphDB g = new GraphDB(OSM_DB_PATH);
+        GraphDB g = new GraphDB(args.length > 0 ? args[0] : OSM_DB_PATH);
 
         Iterable<Long> verticesIterable = g.vertices();
 
@@ -33,6 +59,81 @@ public class GraphDBLauncher {
         System.out.print("The vertex number closest to -122.258207, 37.875352 is " + v + ", which");
         System.out.println(" has longitude, latitude of: " + g.lon(v) + ", " + g.lat(v));
 
+        System.out.println("Heap footprint of " + g.size() + " vertices and " + g.edgeCount()
+                + " directed edges:");
+        System.out.println("  LinkedHashMap<Long, Node> layout, measured: "
+                + retainedBytes(() -> mapLayout(g)) + " bytes");
+        System.out.println("  CSR layout with its id index, measured: "
+                + retainedBytes(() -> csrLayout(g.csr())) + " bytes");
+        System.out.println("  CSR columns alone, from their array lengths: "
+                + g.csrFootprintBytes() + " bytes");
+
         System.out.println("To get started, uncomment print statements in GraphBuildingHandler.");
     }
+
+    /**
+     * Measures the heap a layout retains: the used heap after a full collection while the
+     * layout is built and held, less the used heap without it. A collection may leave some
+     * garbage, even an earlier copy of the layout, behind, so the layout is built MEASUREMENTS
+     * times and the median used heap with it is taken less the lowest without it. System.gc()
+     * is only a request, so run with a JVM that honours it, i.e. without
+     * -XX:+DisableExplicitGC.
+     */
+    private static long retainedBytes(Supplier<Object> layout) {
+        long[] without = new long[MEASUREMENTS];
+        long[] with = new long[MEASUREMENTS];
+        for (int i = 0; i < MEASUREMENTS; i++) {
+            without[i] = usedHeap();
+            with[i] = usedHeapHolding(layout);
+        }
+        Arrays.sort(without);
+        Arrays.sort(with);
+        return with[MEASUREMENTS / 2] - without[0];
+    }
+
+    /** Builds a layout and returns the used heap after a full collection while holding it. */
+    private static long usedHeapHolding(Supplier<Object> layout) {
+        Object held = layout.get();
+        long used = usedHeap();
+        if (held == null) {
+            throw new IllegalStateException("The layout was not built.");
+        }
+        return used;
+    }
+
+    /** Returns the bytes in use on the heap after asking for a full collection. */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Rebuilds the cleaned graph in the old layout: a Node per vertex, keyed by its boxed id,
+     * with the boxed ids of its neighbours and of the ways it is on.
+     */
+    private static Map<Long, MapNode> mapLayout(GraphDB g) {
+        Map<Long, MapNode> nodes = new LinkedHashMap<>();
+        for (int v = 0; v < g.size(); v++) {
+            MapNode node = new MapNode(g.idOf(v), g.lonAt(v), g.latAt(v));
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                node.adjs.add(g.idOf(g.edgeTarget(e)));
+                Long way = g.edgeWayId(e);
+                if (!node.wayIds.contains(way)) {
+                    node.wayIds.add(way);
+                }
+            }
+            nodes.put(node.id, node);
+        }
+        return nodes;
+    }
+
+    /** Returns a copy of a CSR layout, so that it can be measured apart from the graph. */
+    private static CsrGraph csrLayout(CsrGraph csr) {
+        return new CsrGraph(csr.ids.clone(), csr.lons.clone(), csr.lats.clone(),
+                csr.offsets.clone(), csr.targets.clone(), csr.weights.clone(), csr.times.clone(),
+                csr.edgeWays.clone());
+    }
 }
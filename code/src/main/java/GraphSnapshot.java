@@ -0,0 +1,182 @@
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned binary snapshot of a cleaned GraphDB, so that a server restart does not have to
+ * parse the OSM XML again. It is a BinaryFile with magic "BMAPSNAP", keyed by the length and
+ * modification time of the OSM file, with the payload:
+ *
+ * <pre>
+ * payload: int n | int m | long[n] ids | double[n] lons | double[n] lats | int[n + 1] offsets
+ *          | int[m] targets | double[m] weights | double[m] times | int[m] edge ways
+ *          | int[n] kd-tree order | ways | name nodes | locations
+ * </pre>
+ *
+ * Strings are an int byte count (-1 for null) followed by UTF-8 bytes. The mapping of the file
+ * only serves as a fast bulk load: every column is copied into a heap array, and the graph
+ * never reads from the mapping afterwards. A snapshot whose version, source fingerprint or
+ * checksum does not match is rejected, so the caller can fall back to re-importing the XML.
+ */
+public class GraphSnapshot {
+    private static final long MAGIC = 0x424D4150534E4150L; // "BMAPSNAP"
+    private static final int VERSION = 5;
+
+    /**
+     * Writes a snapshot of g, replacing any existing file atomically. Failures are reported
+     * but not fatal; the server can run without a snapshot.
+     * @param g The graph to write.
+     * @param snapshot The snapshot file.
+     * @param source The OSM file g was imported from.
+     */
+    public static void write(GraphDB g, File snapshot, File source) {
+        try {
+            BinaryFile.write(snapshot, MAGIC, VERSION, fingerprint(source),
+                    out -> writePayload(g, out));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads a snapshot back into a GraphDB.
+     * @param snapshot The snapshot file.
+     * @param source The OSM file the snapshot should have been written from. If it exists,
+     *               its length and modification time must match the ones recorded.
+     * @return The graph, or null if the snapshot is missing, stale or corrupt.
+     */
+    public static GraphDB read(File snapshot, File source) {
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try {
+            return readPayload(BinaryFile.read(snapshot, MAGIC, VERSION,
+                    source.exists() ? fingerprint(source) : null));
+        } catch (BinaryFile.RejectedException e) {
+            System.err.println("Snapshot " + snapshot + " " + e.getMessage() + "; re-importing.");
+            return null;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Returns the key of a snapshot of source: its length and modification time. */
+    private static long[] fingerprint(File source) {
+        return new long[]{source.length(), source.lastModified()};
+    }
+
+    private static void writePayload(GraphDB g, DataOutputStream out) throws IOException {
+        CsrGraph csr = g.csr();
+        out.writeInt(csr.size());
+        out.writeInt(csr.edgeCount());
+        BinaryFile.writeLongs(out, csr.ids);
+        BinaryFile.writeDoubles(out, csr.lons);
+        BinaryFile.writeDoubles(out, csr.lats);
+        BinaryFile.writeInts(out, csr.offsets);
+        BinaryFile.writeInts(out, csr.targets);
+        BinaryFile.writeDoubles(out, csr.weights);
+        BinaryFile.writeDoubles(out, csr.times);
+        BinaryFile.writeInts(out, csr.edgeWays);
+        BinaryFile.writeInts(out, g.kdTree().order());
+
+        List<GraphDB.Way> ways = g.ways();
+        out.writeInt(ways.size());
+        for (GraphDB.Way w : ways) {
+            out.writeLong(w.id);
+            writeString(out, w.name);
+            writeString(out, w.maxSpeed);
+            writeString(out, w.highway);
+            out.writeInt(w.locations.length);
+            BinaryFile.writeLongs(out, w.locations);
+        }
+
+        List<GraphDB.NameNode> nameNodes = g.nameNodes();
+        out.writeInt(nameNodes.size());
+        for (GraphDB.NameNode n : nameNodes) {
+            out.writeLong(n.id);
+            out.writeDouble(n.lon);
+            out.writeDouble(n.lat);
+            writeString(out, n.name);
+        }
+
+        Map<String, long[]> locations = g.locations();
+        out.writeInt(locations.size());
+        for (Map.Entry<String, long[]> entry : locations.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().length);
+            BinaryFile.writeLongs(out, entry.getValue());
+        }
+    }
+
+    private static GraphDB readPayload(ByteBuffer buf) {
+        int n = buf.getInt();
+        int m = buf.getInt();
+        long[] ids = BinaryFile.readLongs(buf, n);
+        double[] lons = BinaryFile.readDoubles(buf, n);
+        double[] lats = BinaryFile.readDoubles(buf, n);
+        int[] offsets = BinaryFile.readInts(buf, n + 1);
+        int[] targets = BinaryFile.readInts(buf, m);
+        double[] weights = BinaryFile.readDoubles(buf, m);
+        double[] times = BinaryFile.readDoubles(buf, m);
+        int[] edgeWays = BinaryFile.readInts(buf, m);
+        int[] kdOrder = BinaryFile.readInts(buf, n);
+
+        GraphDB g = new GraphDB();
+        g.restore(new CsrGraph(ids, lons, lats, offsets, targets, weights, times, edgeWays),
+                new KdTree(lons, lats, kdOrder));
+
+        int wayCount = buf.getInt();
+        for (int i = 0; i < wayCount; i++) {
+            GraphDB.Way w = new GraphDB.Way(buf.getLong());
+            w.name = readString(buf);
+            w.maxSpeed = readString(buf);
+            w.highway = readString(buf);
+            w.locations = BinaryFile.readLongs(buf, buf.getInt());
+            g.addWay(w);
+        }
+
+        int nameNodeCount = buf.getInt();
+        for (int i = 0; i < nameNodeCount; i++) {
+            long id = buf.getLong();
+            double lon = buf.getDouble();
+            double lat = buf.getDouble();
+            String name = readString(buf);
+            g.addNameNode(new GraphDB.NameNode(id, lon, lat, name));
+            g.addCleanNameToTrie(GraphDB.cleanString(name), name);
+        }
+
+        int locationCount = buf.getInt();
+        for (int i = 0; i < locationCount; i++) {
+            String name = readString(buf);
+            for (long id : BinaryFile.readLongs(buf, buf.getInt())) {
+                g.addLocation(name, id);
+            }
+        }
+        return g;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares a boxed HashMap&lt;Long, Integer&gt; against LongIntHashMap for OSM id lookups.
+ * Synthetic ids are drawn the way OSM assigns them, increasing with random gaps, at the size
+ * of the raw Berkeley import (399287 nodes) and at ten times that. For each scale it prints
+ * the retained heap of each index and the mean latency of a random lookup.
+ */
+public class IdIndexBenchmark {
+    private static final int BERKELEY_NODES = 399287;
+    private static final int LOOKUPS = 10_000_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        for (int scale : new int[]{1, 10}) {
+            run(BERKELEY_NODES * scale);
+        }
+    }
+
+    private static void run(int n) {
+        Random random = new Random(61);
+        long[] ids = new long[n];
+        long id = 25_000_000L;
+        for (int i = 0; i < n; i++) {
+            id += 1 + random.nextInt(4000);
+            ids[i] = id;
+        }
+        long[] queries = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            queries[i] = ids[random.nextInt(n)];
+        }
+
+        long before = usedHeap();
+        Map<Long, Integer> boxed = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            boxed.put(ids[i], i);
+        }
+        long boxedBytes = usedHeap() - before;
+
+        before = usedHeap();
+        LongIntHashMap primitive = new LongIntHashMap();
+        for (int i = 0; i < n; i++) {
+            primitive.put(ids[i], i);
+        }
+        long primitiveBytes = usedHeap() - before;
+
+        double boxedNanos = Double.MAX_VALUE;
+        double primitiveNanos = Double.MAX_VALUE;
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (long q : queries) {
+                sink += boxed.get(q);
+            }
+            boxedNanos = Math.min(boxedNanos, (System.nanoTime() - start) / (double) LOOKUPS);
+
+            start = System.nanoTime();
+            for (long q : queries) {
+                sink += primitive.get(q);
+            }
+            primitiveNanos = Math.min(primitiveNanos,
+                    (System.nanoTime() - start) / (double) LOOKUPS);
+        }
+
+        System.out.println(String.format("%d ids:", n));
+        System.out.println(String.format("  HashMap<Long, Integer>: %.1f MB retained, %.1f ns"
+                + " per lookup", boxedBytes / 1e6, boxedNanos));
+        System.out.println(String.format("  LongIntHashMap:         %.1f MB retained, %.1f ns"
+                + " per lookup", primitiveBytes / 1e6, primitiveNanos));
+        System.out.println("  (checksum " + sink + ")");
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
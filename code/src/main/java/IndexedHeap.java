@@ -0,0 +1,154 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Indexed 4-ary min-heap of dense vertex indices keyed by double priorities, with true
+ * decrease-key. Each vertex is in the heap at most once; pos[v] is its slot, or -1 when it is
+ * not in the heap. Removing or clearing an item resets its slot, so an emptied heap is ready
+ * for the next query without touching the other vertices.
+ */
+public class IndexedHeap {
+    private static final int D = 4;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int[] items;
+    private double[] keys;
+    private final int[] pos;
+    private int size;
+
+    /**
+     * Creates an empty heap.
+     * @param capacity The number of vertices; items must be between 0 and capacity - 1.
+     */
+    public IndexedHeap(int capacity) {
+        items = new int[Math.min(capacity, INITIAL_CAPACITY)];
+        keys = new double[items.length];
+        pos = new int[capacity];
+        Arrays.fill(pos, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int v) {
+        return pos[v] >= 0;
+    }
+
+    /** Returns the smallest key in the heap. */
+    public double minKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return keys[0];
+    }
+
+    /** Returns the item with the smallest key without removing it. */
+    public int peek() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return items[0];
+    }
+
+    /** Returns the key of an item in the heap. */
+    public double key(int v) {
+        return keys[pos[v]];
+    }
+
+    /**
+     * Inserts v with the given key, or lowers its key if v is already in the heap with a
+     * larger one. A larger key for an item already in the heap is ignored.
+     */
+    public void insertOrDecrease(int v, double key) {
+        int i = pos[v];
+        if (i < 0) {
+            if (size == items.length) {
+                int capacity = Math.min(pos.length, size << 1);
+                items = Arrays.copyOf(items, capacity);
+                keys = Arrays.copyOf(keys, capacity);
+            }
+            i = size;
+            size++;
+        } else if (key >= keys[i]) {
+            return;
+        }
+        siftUp(i, v, key);
+    }
+
+    /** Inserts v with the given key, or moves v to it if v is already in the heap. */
+    public void update(int v, double key) {
+        int i = pos[v];
+        if (i < 0 || key < keys[i]) {
+            insertOrDecrease(v, key);
+        } else {
+            siftDown(i, v, key);
+        }
+    }
+
+    /** Removes and returns the item with the smallest key. */
+    public int poll() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        int min = items[0];
+        pos[min] = -1;
+        size--;
+        if (size > 0) {
+            siftDown(0, items[size], keys[size]);
+        }
+        return min;
+    }
+
+    /** Removes every item, touching only the items still in the heap. */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            pos[items[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int i, int v, double key) {
+        while (i > 0) {
+            int parent = (i - 1) / D;
+            if (keys[parent] <= key) {
+                break;
+            }
+            place(i, items[parent], keys[parent]);
+            i = parent;
+        }
+        place(i, v, key);
+    }
+
+    private void siftDown(int i, int v, double key) {
+        while (true) {
+            int first = D * i + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + D, size);
+            int best = first;
+            for (int c = first + 1; c < last; c++) {
+                if (keys[c] < keys[best]) {
+                    best = c;
+                }
+            }
+            if (keys[best] >= key) {
+                break;
+            }
+            place(i, items[best], keys[best]);
+            i = best;
+        }
+        place(i, v, key);
+    }
+
+    private void place(int i, int v, double key) {
+        items[i] = v;
+        keys[i] = key;
+        pos[v] = i;
+    }
+}
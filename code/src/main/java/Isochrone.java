@@ -0,0 +1,210 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The part of the road network within a distance budget of a start vertex: every vertex
+ * reachable within the budget with its distance, and an outline of the area the reachable
+ * roads cover.
+ *
+ * The outline is grid based. The reachable roads, including the reachable part of each road
+ * that leaves the area, are sampled onto a grid of square cells sized to the budget. The
+ * boundary between occupied and empty cells is then traced into rings, counterclockwise around
+ * occupied cells. Only the outer rings are kept: the holes are mostly the blocks between
+ * reachable roads, which belong to the service area. Cells that only touch at a corner count
+ * as connected.
+ */
+public class Isochrone {
+    /** The number of cells across the diameter of the budget. */
+    private static final int CELLS_ACROSS = 32;
+    private static final double MIN_CELL_MILES = 0.01;
+    private static final double MILES_PER_DEGREE = GraphDB.distance(0, 0, 0, 1);
+    private static final int EAST = 0;
+    private static final int NORTH = 1;
+    private static final int WEST = 2;
+    private static final int SOUTH = 3;
+    private static final int[] DX = {1, 0, -1, 0};
+    private static final int[] DY = {0, 1, 0, -1};
+
+    /** The OSM ids of the reachable vertices, nearest first. */
+    final long[] ids;
+    /** distances[i] is the distance in miles from the start to ids[i]. */
+    final double[] distances;
+    /** Closed counterclockwise rings of {lon, lat} points outlining the reachable area. */
+    final List<double[][]> rings;
+
+    private Isochrone(long[] ids, double[] distances, List<double[][]> rings) {
+        this.ids = ids;
+        this.distances = distances;
+        this.rings = rings;
+    }
+
+    /**
+     * Outlines the area covered by the vertices a bounded search settled.
+     * @param g The graph that was searched.
+     * @param settled The settled vertices, in the order they were settled.
+     * @param count The number of entries of settled in use.
+     * @param ws The workspace of the search, holding the distances.
+     * @param budget The distance budget of the search in miles.
+     */
+    static Isochrone of(GraphDB g, int[] settled, int count, SearchWorkspace ws,
+                        double budget) {
+        long[] ids = new long[count];
+        double[] distances = new double[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = g.idOf(settled[i]);
+            distances[i] = ws.distTo(settled[i]);
+        }
+        if (count == 0) {
+            return new Isochrone(ids, distances, new ArrayList<>());
+        }
+
+        double cellMiles = Math.max(2 * budget / CELLS_ACROSS, MIN_CELL_MILES);
+        Grid grid = new Grid(g.lonAt(settled[0]), g.latAt(settled[0]), cellMiles);
+        for (int i = 0; i < count; i++) {
+            int v = settled[i];
+            double left = budget - distances[i];
+            grid.mark(g.lonAt(v), g.latAt(v));
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                int w = g.edgeTarget(e);
+                double fraction = g.edgeWeight(e) > 0 ? Math.min(1, left / g.edgeWeight(e)) : 1;
+                grid.markEdge(g.lonAt(v), g.latAt(v), g.lonAt(w), g.latAt(w), fraction);
+            }
+        }
+        return new Isochrone(ids, distances, grid.trace());
+    }
+
+    /**
+     * A sparse grid of cells around an origin. Cell (x, y) covers x to x + 1 cell widths east
+     * and y to y + 1 cell heights north of the origin.
+     */
+    private static class Grid {
+        private final double lon0;
+        private final double lat0;
+        private final double cellLon;
+        private final double cellLat;
+        private final double cellMiles;
+        private final LongIntHashMap cells = new LongIntHashMap();
+        private long[] cellKeys = new long[64];
+        private int cellCount;
+
+        Grid(double lon0, double lat0, double cellMiles) {
+            this.lon0 = lon0;
+            this.lat0 = lat0;
+            this.cellMiles = cellMiles;
+            cellLat = cellMiles / MILES_PER_DEGREE;
+            cellLon = cellLat / Math.cos(Math.toRadians(lat0));
+        }
+
+        void mark(double lon, double lat) {
+            long key = key((int) Math.floor((lon - lon0) / cellLon),
+                    (int) Math.floor((lat - lat0) / cellLat), 0);
+            if (!cells.containsKey(key)) {
+                cells.put(key, cellCount);
+                if (cellCount == cellKeys.length) {
+                    cellKeys = Arrays.copyOf(cellKeys, cellCount * 2);
+                }
+                cellKeys[cellCount++] = key;
+            }
+        }
+
+        /** Marks the cells along the first fraction of the segment from (lon, lat). */
+        void markEdge(double lon, double lat, double toLon, double toLat, double fraction) {
+            double miles = GraphDB.distance(lon, lat, toLon, toLat) * fraction;
+            int steps = (int) Math.ceil(2 * miles / cellMiles);
+            for (int k = 1; k <= steps; k++) {
+                double t = fraction * k / steps;
+                mark(lon + (toLon - lon) * t, lat + (toLat - lat) * t);
+            }
+        }
+
+        private boolean isOccupied(int x, int y) {
+            return cells.containsKey(key(x, y, 0));
+        }
+
+        /** Traces the outer boundaries of the occupied cells into closed rings. */
+        List<double[][]> trace() {
+            // Each boundary side of an occupied cell, directed so the cell is on its left,
+            // keyed by its start corner and direction.
+            LongIntHashMap sides = new LongIntHashMap();
+            List<int[]> starts = new ArrayList<>();
+            for (int i = 0; i < cellCount; i++) {
+                int x = (int) (cellKeys[i] >> 32);
+                int y = (int) cellKeys[i] >> 2;
+                if (!isOccupied(x, y - 1)) {
+                    starts.add(addSide(sides, x, y, EAST));
+                }
+                if (!isOccupied(x + 1, y)) {
+                    starts.add(addSide(sides, x + 1, y, NORTH));
+                }
+                if (!isOccupied(x, y + 1)) {
+                    starts.add(addSide(sides, x + 1, y + 1, WEST));
+                }
+                if (!isOccupied(x - 1, y)) {
+                    starts.add(addSide(sides, x, y + 1, SOUTH));
+                }
+            }
+
+            List<double[][]> rings = new ArrayList<>();
+            for (int[] start : starts) {
+                if (sides.get(key(start[0], start[1], start[2])) < 0) {
+                    continue;
+                }
+                double[][] ring = ring(sides, start[0], start[1], start[2]);
+                if (signedArea(ring) > 0) {
+                    rings.add(ring);
+                }
+            }
+            return rings;
+        }
+
+        /** Returns the area of a closed ring, positive if it runs counterclockwise. */
+        private static double signedArea(double[][] ring) {
+            double area = 0;
+            for (int i = 1; i < ring.length; i++) {
+                area += ring[i - 1][0] * ring[i][1] - ring[i][0] * ring[i - 1][1];
+            }
+            return area / 2;
+        }
+
+        private int[] addSide(LongIntHashMap sides, int x, int y, int dir) {
+            sides.put(key(x, y, dir), 1);
+            return new int[]{x, y, dir};
+        }
+
+        /**
+         * Follows unused sides from a start side until it returns to its start corner, marking
+         * them used. At a corner shared by two diagonal cells, it turns right, which joins the
+         * two cells into one ring; roads running diagonally across the grid stay connected.
+         */
+        private double[][] ring(LongIntHashMap sides, int x, int y, int dir) {
+            List<double[]> points = new ArrayList<>();
+            int startX = x;
+            int startY = y;
+            int previous = -1;
+            do {
+                sides.put(key(x, y, dir), -1);
+                if (dir != previous) {
+                    points.add(new double[]{lon0 + x * cellLon, lat0 + y * cellLat});
+                }
+                previous = dir;
+                x += DX[dir];
+                y += DY[dir];
+                for (int turn : new int[]{3, 0, 1}) {
+                    int next = (previous + turn) % 4;
+                    if (sides.get(key(x, y, next)) > 0) {
+                        dir = next;
+                        break;
+                    }
+                }
+            } while (x != startX || y != startY);
+            points.add(points.get(0));
+            return points.toArray(new double[0][]);
+        }
+
+        /** Packs a cell or corner and a direction into one key. */
+        private static long key(int x, int y, int dir) {
+            return ((long) x << 32) | ((long) (y << 2) & 0xFFFFFFFFL) | dir;
+        }
+    }
+}
@@ -1,129 +1,176 @@
+import java.util.function.IntPredicate;
+
+/**
+ * Balanced 2-d tree over the dense vertex indices of a CsrGraph, used for nearest-neighbor
+ * lookups. The tree is implicit: the subtree for a range [lo, hi) of the tree array has its
+ * root at the middle of the range, every vertex to its left is not greater along the
+ * splitting axis and every vertex to its right is not smaller. Levels alternate between
+ * splitting on longitude and latitude, starting with longitude.
+ */
 public class KdTree {
-    private KdNode root;
-    private int size;
-
-    private static class KdNode {
-        private final GraphDB.Node point;
-        private boolean compareX;
-        private KdNode leftBottom;
-        private KdNode rightTop;
-
-        KdNode(GraphDB.Node p, boolean compareX) {
-            this.point = p;
-            this.compareX = compareX;
+    /** Earth radius in miles, matching GraphDB.distance. */
+    private static final double EARTH_RADIUS = 3963;
+
+    private final double[] lons;
+    private final double[] lats;
+    private final int[] tree;
+
+    /**
+     * Builds a balanced tree over every vertex of the coordinate columns.
+     * @param lons The longitude of each vertex, by dense index.
+     * @param lats The latitude of each vertex, by dense index.
+     */
+    public KdTree(double[] lons, double[] lats) {
+        this.lons = lons;
+        this.lats = lats;
+        this.tree = new int[lons.length];
+        for (int i = 0; i < tree.length; i++) {
+            tree[i] = i;
         }
+        build(0, tree.length, true);
+    }
 
-        public boolean isRightOrTopOf(GraphDB.Node q) {
-            return (compareX && point.lon > q.lon) || (!compareX && point.lat > q.lat);
-        }
+    /**
+     * Wraps a tree array produced by an earlier build, e.g. one read back from a GraphSnapshot.
+     * @param lons The longitude of each vertex, by dense index.
+     * @param lats The latitude of each vertex, by dense index.
+     * @param tree The implicit tree, as returned by order().
+     */
+    KdTree(double[] lons, double[] lats, int[] tree) {
+        this.lons = lons;
+        this.lats = lats;
+        this.tree = tree;
     }
 
-    public KdTree() {
-        root = null;
-        size = 0;
+    /** Returns the implicit tree array: vertex indices in median-split order. */
+    int[] order() {
+        return tree;
     }
 
     public boolean isEmpty() {
-        return size == 0;
+        return tree.length == 0;
+    }
+
+    public int size() {
+        return tree.length;
     }
 
-    public void insert(GraphDB.Node p) {
-        if (root == null) {
-            root = new KdNode(p, true);
-            size++;
+    private void build(int lo, int hi, boolean compareX) {
+        if (hi - lo <= 1) {
             return;
         }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, compareX ? lons : lats);
+        build(lo, mid, !compareX);
+        build(mid + 1, hi, !compareX);
+    }
 
-        // Find the position of the new node
-        KdNode pre = null;
-        KdNode cur = root;
-        do {
-            if (cur.point.id == p.id) {
+    /** Quickselect: partially orders tree[lo..hi] so that tree[k] holds the k-th smallest key. */
+    private void select(int lo, int hi, int k, double[] keys) {
+        while (lo < hi) {
+            double pivot = keys[tree[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[tree[i]] < pivot) {
+                    i++;
+                }
+                while (keys[tree[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = tree[i];
+                    tree[i] = tree[j];
+                    tree[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
                 return;
             }
-            pre = cur;
-            cur = cur.isRightOrTopOf(p) ? cur.leftBottom : cur.rightTop;
-        } while (cur != null);
-
-        // Insert the new node
-        if (pre.isRightOrTopOf(p)) {
-            pre.leftBottom = new KdNode(p, !pre.compareX);
-        } else {
-            pre.rightTop = new KdNode(p, !pre.compareX);
         }
-        size++;
     }
 
-    public long nearest(double lon, double lat) {
-        return nearest(new GraphDB.Node(0, lon, lat)).id;
+    /**
+     * Returns the vertex closest to the given point by great-circle distance.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @return The dense index of the nearest vertex, or -1 if the tree is empty.
+     */
+    public int nearest(double lon, double lat) {
+        return nearest(lon, lat, null);
     }
 
-    public GraphDB.Node nearest(GraphDB.Node p) {
-        return nearest(p, root, Double.MAX_VALUE);
+    /**
+     * Returns the closest of the vertices accepted by a filter. Rejected vertices still steer
+     * the descent, so the search slows down as more of the vertices near the point are rejected.
+     * @param lon The target longitude.
+     * @param lat The target latitude.
+     * @param accept The vertices to consider, by dense index, or null for all of them.
+     * @return The dense index of the nearest accepted vertex, or -1 if there is none.
+     */
+    int nearest(double lon, double lat, IntPredicate accept) {
+        Best best = new Best();
+        nearest(lon, lat, Math.cos(Math.toRadians(lat)), 0, tree.length, true, accept, best);
+        return best.index;
     }
 
-    private GraphDB.Node nearest(GraphDB.Node p, KdTree.KdNode node, double minDist) {
-        if (p == null) {
-            throw new NullPointerException();
-        }
-        if (node.point == null) {
-            return null;
-        }
-        if (node.point.equals(p)) {
-            return node.point;
+    /** The best candidate found so far during a nearest-neighbor search. */
+    private static class Best {
+        int index = -1;
+        double dist = Double.MAX_VALUE;
+    }
+
+    private void nearest(double lon, double lat, double cosLat, int lo, int hi,
+                         boolean compareX, IntPredicate accept, Best best) {
+        if (lo >= hi) {
+            return;
         }
-        GraphDB.Node bestPoint = null;
-        double bestDist = minDist;
-        double nodeDist = GraphDB.distance(node.point.lon, node.point.lat, p.lon, p.lat);
-        if (nodeDist < minDist) {
-            bestPoint = node.point;
-            bestDist = nodeDist;
+        int mid = (lo + hi) >>> 1;
+        int point = tree[mid];
+        double nodeDist = GraphDB.distance(lons[point], lats[point], lon, lat);
+        if (nodeDist < best.dist && (accept == null || accept.test(point))) {
+            best.index = point;
+            best.dist = nodeDist;
         }
 
         // Determine which side is the good side
-        KdNode first = node.rightTop, second = node.leftBottom;
-        if ((node.compareX && p.lon <= node.point.lon)
-                || (!node.compareX && p.lat <= node.point.lat)) {
-            first = node.leftBottom;
-            second = node.rightTop;
+        double delta = compareX ? lon - lons[point] : lat - lats[point];
+        int firstLo = mid + 1, firstHi = hi, secondLo = lo, secondHi = mid;
+        if (delta <= 0) {
+            firstLo = lo;
+            firstHi = mid;
+            secondLo = mid + 1;
+            secondHi = hi;
         }
 
         // First consider the good side
-        if (first != null) {
-            GraphDB.Node firstBestPoint = nearest(p, first, bestDist);
-            if (firstBestPoint != null) {
-                bestPoint = firstBestPoint;
-                bestDist = GraphDB.distance(bestPoint.lon, bestPoint.lat, p.lon, p.lat);
-            }
-        }
+        nearest(lon, lat, cosLat, firstLo, firstHi, !compareX, accept, best);
 
-        // No need to consider the bad side
-        if (second == null) {
-            return bestPoint;
-        }
-        if (second == node.leftBottom) {
-            if (node.compareX && p.lon - node.point.lon >= bestDist) {
-                return bestPoint;
-            }
-            if (!node.compareX && p.lat - node.point.lat >= bestDist) {
-                return bestPoint;
-            }
-        } else if (second == node.rightTop) {
-            if (node.compareX && node.point.lon - p.lon >= bestDist) {
-                return bestPoint;
-            }
-            if (!node.compareX && node.point.lat - p.lat >= bestDist) {
-                return bestPoint;
-            }
+        // Then consider the bad side, unless the splitting line is farther than the best
+        if (planeDistance(delta, cosLat, compareX) < best.dist) {
+            nearest(lon, lat, cosLat, secondLo, secondHi, !compareX, accept, best);
         }
+    }
 
-        // Then consider the bad side
-        GraphDB.Node secondBestPoint = nearest(p, second, bestDist);
-        if (secondBestPoint != null) {
-            bestPoint = secondBestPoint;
+    /**
+     * Returns a lower bound, in miles, on the distance from the query point to any point on
+     * the far side of a splitting line. For a parallel this is the meridian arc; for a
+     * meridian it is the cross-track distance to that great circle.
+     */
+    private static double planeDistance(double delta, double cosLat, boolean compareX) {
+        double angle = Math.toRadians(Math.abs(delta));
+        if (!compareX) {
+            return EARTH_RADIUS * angle;
         }
-
-        // Return the nearest node
-        return bestPoint;
+        if (angle >= Math.PI / 2) {
+            return 0;
+        }
+        return EARTH_RADIUS * Math.asin(Math.sin(angle) * cosLat);
     }
 }
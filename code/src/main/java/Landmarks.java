@@ -0,0 +1,184 @@
+import java.util.Arrays;
+
+/**
+ * Landmarks for the ALT (A*, landmarks, triangle inequality) heuristic. A few vertices on the
+ * edge of the map are chosen as landmarks and the shortest distance from each of them to every
+ * vertex is stored. By the triangle inequality, |d(L, t) - d(L, v)| is then a lower bound on
+ * the distance from v to t for any landmark L; unlike the straight-line distance it accounts
+ * for the detours the street network forces. Every edge is two-way, so distances from a
+ * landmark are also distances to it.
+ *
+ * Landmarks are picked by farthest selection: the first is the vertex farthest from an
+ * arbitrary start, and each next one is the vertex farthest from all landmarks chosen so far.
+ */
+public class Landmarks {
+    /** The number of landmarks built for a graph by default. */
+    static final int DEFAULT_COUNT = 16;
+    /** The number of landmarks a single query consults, chosen per query. */
+    private static final int ACTIVE_COUNT = 4;
+
+    private final int count;
+    private final int[] vertices;
+    /** distances[v * count + i] is the distance from landmark i to v, or infinity. */
+    private final double[] distances;
+
+    private Landmarks(int[] vertices, double[] distances) {
+        this.count = vertices.length;
+        this.vertices = vertices;
+        this.distances = distances;
+    }
+
+    /**
+     * Picks landmarks and computes their distances to every vertex, with one Dijkstra search
+     * over the whole graph per landmark.
+     * @param g The graph.
+     * @param count The number of landmarks, at most the number of vertices.
+     * @return The landmarks.
+     */
+    public static Landmarks build(GraphDB g, int count) {
+        int n = g.size();
+        count = Math.min(count, n);
+        int[] vertices = new int[count];
+        double[] distances = new double[n * count];
+        SearchWorkspace ws = new SearchWorkspace(n);
+        double[] nearest = new double[n];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+
+        // The vertex farthest from vertex 0 is the first landmark.
+        shortestDistances(g, 0, ws);
+        int next = farthest(ws, n);
+        for (int i = 0; i < count; i++) {
+            vertices[i] = next;
+            ws.reset();
+            shortestDistances(g, next, ws);
+            for (int v = 0; v < n; v++) {
+                double d = ws.distTo(v);
+                distances[v * count + i] = d;
+                if (d < nearest[v]) {
+                    nearest[v] = d;
+                }
+            }
+            next = farthestFromAll(nearest);
+        }
+        return new Landmarks(vertices, distances);
+    }
+
+    /** Runs Dijkstra from source over the whole graph. */
+    private static void shortestDistances(GraphDB g, int source, SearchWorkspace ws) {
+        ws.reach(source, 0, -1);
+        ws.heap.insertOrDecrease(source, 0);
+        while (!ws.heap.isEmpty()) {
+            int v = ws.heap.poll();
+            ws.settle(v);
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                int w = g.edgeTarget(e);
+                double dist = ws.distTo(v) + g.edgeWeight(e);
+                if (dist < ws.distTo(w)) {
+                    ws.reach(w, dist, v);
+                    ws.heap.insertOrDecrease(w, dist);
+                }
+            }
+        }
+    }
+
+    /** Returns the reached vertex with the largest distance in ws. */
+    private static int farthest(SearchWorkspace ws, int n) {
+        int best = 0;
+        for (int v = 0; v < n; v++) {
+            if (ws.distTo(v) < Double.POSITIVE_INFINITY && ws.distTo(v) > ws.distTo(best)) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /** Returns the vertex whose distance to the nearest landmark is largest, but finite. */
+    private static int farthestFromAll(double[] nearest) {
+        int best = 0;
+        for (int v = 0; v < nearest.length; v++) {
+            if (nearest[v] < Double.POSITIVE_INFINITY && nearest[v] > nearest[best]) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /** Returns the number of landmarks. */
+    int count() {
+        return count;
+    }
+
+    /** Returns the dense index of landmark i. */
+    int vertex(int i) {
+        return vertices[i];
+    }
+
+    /** Returns the number of bytes held by the distance table. */
+    long footprintBytes() {
+        return (long) distances.length * Double.BYTES + (long) vertices.length * Integer.BYTES;
+    }
+
+    /**
+     * Returns the lower bound on distances to target to use for a search from source to target.
+     * Only the landmarks that give the best bound at source are consulted, which keeps each
+     * evaluation cheap; a fixed set of landmarks keeps the bound consistent during the search.
+     */
+    Bound boundTo(int source, int target) {
+        int[] active = new int[Math.min(ACTIVE_COUNT, count)];
+        double[] scores = new double[active.length];
+        int used = 0;
+        for (int i = 0; i < count; i++) {
+            double score = Math.abs(distance(i, target) - distance(i, source));
+            if (Double.isNaN(score) || distance(i, target) == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            // Insertion sort into the best scores so far, largest first.
+            int j = Math.min(used, active.length - 1);
+            if (used == active.length && score <= scores[j]) {
+                continue;
+            }
+            while (j > 0 && scores[j - 1] < score) {
+                scores[j] = scores[j - 1];
+                active[j] = active[j - 1];
+                j--;
+            }
+            scores[j] = score;
+            active[j] = i;
+            used = Math.min(used + 1, active.length);
+        }
+
+        double[] toTarget = new double[used];
+        for (int k = 0; k < used; k++) {
+            toTarget[k] = distance(active[k], target);
+        }
+        return new Bound(Arrays.copyOf(active, used), toTarget);
+    }
+
+    private double distance(int landmark, int v) {
+        return distances[v * count + landmark];
+    }
+
+    /** A consistent lower bound on the distance from any vertex to one target. */
+    final class Bound {
+        private final int[] active;
+        private final double[] toTarget;
+
+        private Bound(int[] active, double[] toTarget) {
+            this.active = active;
+            this.toTarget = toTarget;
+        }
+
+        /** Returns a lower bound on the length of a shortest path from v to the target. */
+        double lowerBound(int v) {
+            double best = 0;
+            int row = v * count;
+            for (int k = 0; k < active.length; k++) {
+                double d = distances[row + active[k]];
+                if (d < Double.POSITIVE_INFINITY) {
+                    best = Math.max(best, Math.abs(toTarget[k] - d));
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -13,10 +14,15 @@ import java.util.Set;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.annotations.SerializedName;
 
 import static spark.Spark.*;
 
@@ -51,6 +57,21 @@ public class MapServer {
      * using custom region selection.
      **/
     private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    /**
+     * Binary snapshot of the graph built from OSM_DB_PATH. It is written after the first
+     * import and re-used on later startups for as long as the XML file is unchanged.
+     */
+    private static final String SNAPSHOT_PATH = "berkeley-2018.snapshot";
+    /**
+     * Contraction hierarchy of the graph, used for routing unless a request asks for another
+     * algorithm. It is rebuilt whenever the graph it was built from changes.
+     */
+    private static final String CH_PATH = "berkeley-2018.ch";
+    /**
+     * Arc flags of the graph, used by requests with arc_flags=true. Like the contraction
+     * hierarchy, they are recomputed whenever the graph changes.
+     */
+    private static final String ARC_FLAGS_PATH = "berkeley-2018.arcflags";
     /**
      * Each raster request to the server will have the following parameters
      * as keys in the params map accessible by,
@@ -65,11 +86,78 @@ public class MapServer {
      * Each route request to the server will have the following parameters
      * as keys in the params map.<br>
      * start_lat : start point latitude,<br> start_lon : start point longitude,<br>
-     * end_lat : end point latitude, <br>end_lon : end point longitude.
+     * end_lat : end point latitude, <br>end_lon : end point longitude.<br>
+     * It may also have the optional parameters<br>
+     * metric : distance (the default) or time, to minimize the travel time,<br>
+     * algorithm : ch (the default for distance), astar or bidirectional (the default for
+     * time),<br>
+     * heuristic : haversine (the default) or alt, for astar and bidirectional,<br>
+     * turn_costs : true to penalize turns, for astar (then the default algorithm),<br>
+     * arc_flags : true to skip the roads the graph's arc flags rule out, for astar (then the
+     * default algorithm) and bidirectional with the distance metric,<br>
+     * largest_component : true to snap both points into the largest connected component,<br>
+     * snap : segment (the default without turn costs), to start and end at the closest points
+     * on the roads, or vertex, to start and end at the closest intersections,<br>
+     * max_settled, timeout_ms : tighter limits than the endpoint's SearchBudget. A route whose
+     * search passes a limit fails with failure_reason settled_limit or deadline.
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
         "end_lat", "end_lon"};
 
+    /**
+     * The limits on the searches of each routing endpoint; see SearchBudget. A /route/batch
+     * trip has the batch budget to itself. A request may ask for tighter limits, never looser.
+     */
+    private static final SearchBudget ROUTE_BUDGET = new SearchBudget(100000, 1000);
+    private static final SearchBudget BATCH_BUDGET = new SearchBudget(100000, 1000);
+    private static final SearchBudget ALTERNATIVES_BUDGET = new SearchBudget(200000, 2000);
+    private static final SearchBudget MULTI_STOP_BUDGET = new SearchBudget(400000, 3000);
+    private static final SearchBudget ISOCHRONE_BUDGET = new SearchBudget(100000, 1000);
+
+    /**
+     * The largest number of trips a batch routing request may give. Each trip has its own
+     * BATCH_BUDGET, so this is what bounds the work of the whole request.
+     */
+    private static final int MAX_TRIPS = 1000;
+
+    /** The largest number of stops a multi-stop route request may give. */
+    private static final int MAX_STOPS = 200;
+
+    /**
+     * The largest number of sources, and of targets, a distance matrix request may give. A
+     * 500 x 500 matrix takes 2 MB, and about 150 ms on one core for a graph of 20,000 vertices.
+     */
+    private static final int MAX_MATRIX_POINTS = 500;
+
+    /**
+     * The largest distance budget, in miles, an isochrone request may give. The map is about
+     * five miles across, so this still reaches a large part of it from the middle.
+     */
+    static final double MAX_ISOCHRONE_MILES = 2;
+
+    /** The number of routes an alternative routes request returns if it does not say. */
+    private static final int DEFAULT_ALTERNATIVES = 3;
+
+    /**
+     * Each isochrone request to the server will have a request parameter for each of these:<br>
+     * lon : longitude of the start point,<br>
+     * lat : latitude of the start point,<br>
+     * miles : the distance budget, from 0 to MAX_ISOCHRONE_MILES.<br>
+     * It may also have the optional parameters<br>
+     * max_settled, timeout_ms : tighter limits than ISOCHRONE_BUDGET, as for /route.
+     **/
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lon", "lat", "miles"};
+
+    /**
+     * Each shortest path tree request to the server will have a request parameter for each of
+     * these:<br>
+     * lon : longitude of the origin,<br>
+     * lat : latitude of the origin.<br>
+     * It may also have the optional parameter<br>
+     * metric : distance (the default) or time, the unit of the distances.
+     **/
+    private static final String[] REQUIRED_TREE_REQUEST_PARAMS = {"lon", "lat"};
+
     /**
      * The result of rastering must be a map containing all of the
      * fields listed in the comments for getMapRaster in Rasterer.java.
@@ -79,7 +167,11 @@ public class MapServer {
 
     private static Rasterer rasterer;
     private static GraphDB graph;
-    private static List<Long> route = new LinkedList<>();
+    /**
+     * The route drawn on rastered images; replaced as a whole by each /route and /route/multi
+     * request.
+     */
+    private static volatile List<Long> route = new LinkedList<>();
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -89,7 +181,10 @@ public class MapServer {
      * This is for testing purposes, and you may fail tests otherwise.
      **/
     public static void initialize() {
-        graph = new GraphDB(OSM_DB_PATH);
+        graph = GraphDB.open(OSM_DB_PATH, SNAPSHOT_PATH);
+        ContractionHierarchy.open(graph, CH_PATH);
+        ArcFlags.open(graph, ARC_FLAGS_PATH);
+        graph.landmarks();
         rasterer = new Rasterer();
     }
 
@@ -131,17 +226,210 @@ public class MapServer {
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            String directions = getDirectionsText();
+            RouteOptions options = getRouteOptions(req, ROUTE_BUDGET);
+            RouteCache.Route found;
+            try {
+                found = Router.route(graph, params.get("start_lon"), params.get("start_lat"),
+                        params.get("end_lon"), params.get("end_lat"), options);
+            } catch (SearchBudget.ExceededException e) {
+                clearRoute();
+                return getBudgetFailure(e);
+            }
+            route = found.path;
+            String directions = formatDirections(found.directions);
+            Map<String, Object> routeParams = new HashMap<>();
+            routeParams.put("routing_success", !route.isEmpty() || !found.directions.isEmpty());
+            routeParams.put("directions_success", directions.length() > 0);
+            routeParams.put("directions", directions);
+            Gson gson = new Gson();
+            return gson.toJson(routeParams);
+        });
+
+        /* Define the batch routing endpoint for HTTP POST requests. The body is
+         * {"trips": [[start_lon, start_lat, end_lon, end_lat], ...]}, with at most MAX_TRIPS
+         * trips, and algorithm and heuristic may be given as for /route. The response is a
+         * JSON array with the node ids of the route for each trip, in order and empty if there
+         * is none, or null if its search passed a limit of the budget; it is streamed out as
+         * the trips are routed, so large batches are never held in memory. */
+        post("/route/batch", (req, res) -> {
+            double[][] trips = getBatchRequest(req);
+            RouteOptions options = getRouteOptions(req, BATCH_BUDGET);
+            res.type("application/json");
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                    res.raw().getOutputStream(), StandardCharsets.UTF_8));
+            Gson gson = new Gson();
+            out.write('[');
+            int[] written = {0};
+            Router.shortestPaths(graph, trips, options, path -> {
+                if (written[0]++ > 0) {
+                    out.write(',');
+                }
+                gson.toJson(path, out);
+            });
+            out.write(']');
+            out.flush();
+            return "";
+        });
+
+        /* Define the multi-stop routing endpoint for HTTP POST requests. The body is
+         * {"stops": [[lon, lat], ...], "round_trip": false}. The route starts at the first stop
+         * and visits the others in the order that makes it shortest, returning to the first if
+         * round_trip is true. The response holds that order as indices into stops, the length
+         * in miles, and the node ids and directions of the whole route. max_settled and
+         * timeout_ms may be given as for /route. */
+        post("/route/multi", (req, res) -> {
+            MultiStopRequest request = getMultiStopRequest(req);
+            MultiStopRoute found;
+            try {
+                found = Router.multiStopRoute(graph, request.stops, request.roundTrip,
+                        getBudget(req, MULTI_STOP_BUDGET));
+            } catch (SearchBudget.ExceededException e) {
+                clearRoute();
+                return getBudgetFailure(e);
+            }
+            route = found.path;
+            String directions = formatDirections(found.directions);
             Map<String, Object> routeParams = new HashMap<>();
-            routeParams.put("routing_success", !route.isEmpty());
+            routeParams.put("routing_success", found.order.length > 0);
+            routeParams.put("order", found.order);
+            routeParams.put("distance", found.order.length > 0 ? found.distance : -1);
+            routeParams.put("route", found.path);
             routeParams.put("directions_success", directions.length() > 0);
             routeParams.put("directions", directions);
             Gson gson = new Gson();
             return gson.toJson(routeParams);
         });
 
+        /* Define the alternative routes endpoint for HTTP GET requests. It takes the route
+         * parameters, and optionally k (default 3), max_stretch, max_overlap, largest_component,
+         * max_settled and timeout_ms. The response holds each route, shortest first, with its
+         * node ids and directions. */
+        get("/alternatives", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
+            RouteOptions options = getAlternativeOptions(req);
+            int k = getCount(req, "k", DEFAULT_ALTERNATIVES);
+            List<List<Long>> found;
+            try {
+                found = Router.alternativeRoutes(graph, params.get("start_lon"),
+                        params.get("start_lat"), params.get("end_lon"), params.get("end_lat"), k,
+                        options);
+            } catch (SearchBudget.ExceededException e) {
+                return getBudgetFailure(e);
+            }
+            List<Map<String, Object>> routes = new ArrayList<>();
+            for (List<Long> alternative : found) {
+                Map<String, Object> routeParams = new HashMap<>();
+                routeParams.put("route", alternative);
+                routeParams.put("directions", getDirectionsText(alternative));
+                routes.add(routeParams);
+            }
+            Map<String, Object> alternativesParams = new HashMap<>();
+            alternativesParams.put("routing_success", !found.isEmpty());
+            alternativesParams.put("routes", routes);
+            Gson gson = new Gson();
+            return gson.toJson(alternativesParams);
+        });
+
+        /* Define the distance matrix endpoint for HTTP POST requests. The body is
+         * {"sources": [[lon, lat], ...], "targets": [[lon, lat], ...]}, with at most
+         * MAX_MATRIX_POINTS of each, and the response holds the distances in miles as one flat
+         * row-major array, with -1 for unreachable pairs. */
+        post("/matrix", (req, res) -> {
+            MatrixRequest request = getMatrixRequest(req);
+            double[] distances = Router.distanceMatrix(graph, request.sources, request.targets);
+            for (int i = 0; i < distances.length; i++) {
+                if (distances[i] == Double.POSITIVE_INFINITY) {
+                    distances[i] = -1;
+                }
+            }
+            Map<String, Object> matrixParams = new HashMap<>();
+            matrixParams.put("sources", request.sources.length);
+            matrixParams.put("targets", request.targets.length);
+            matrixParams.put("distances", distances);
+            Gson gson = new Gson();
+            return gson.toJson(matrixParams);
+        });
+
+        /* Define the isochrone endpoint for HTTP GET requests. The response holds the ids of
+         * the vertices within the budget, nearest first, their distances in miles, and the
+         * outline of the area they cover as closed rings of [lon, lat] points. A search that
+         * passes a limit of its budget fails as a /route search does. */
+        get("/isochrone", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            double miles = getIsochroneMiles(params);
+            SearchBudget budget = getBudget(req, ISOCHRONE_BUDGET);
+            Isochrone isochrone;
+            try {
+                isochrone = Router.isochrone(graph, params.get("lon"), params.get("lat"), miles,
+                        budget);
+            } catch (SearchBudget.ExceededException e) {
+                return getBudgetFailure(e);
+            }
+            Map<String, Object> isochroneParams = new HashMap<>();
+            isochroneParams.put("vertices", isochrone.ids);
+            isochroneParams.put("distances", isochrone.distances);
+            isochroneParams.put("polygon", isochrone.rings);
+            Gson gson = new Gson();
+            return gson.toJson(isochroneParams);
+        });
+
+        /* Define the shortest path tree endpoint for HTTP GET requests. The response is
+         * newline-delimited JSON, one {"id", "distance", "parent"} object per vertex reachable
+         * from the origin, nearest first. The parent of the origin is null, never an id, since
+         * any long may be a vertex id. Each line is written as its vertex is settled, so the
+         * tree is never held in memory. */
+        get("/spt", (req, res) -> {
+            HashMap<String, Double> params = getRequestParams(req, REQUIRED_TREE_REQUEST_PARAMS);
+            RouteOptions.Metric metric = RouteOptions.Metric.DISTANCE;
+            try {
+                if (req.queryParams("metric") != null) {
+                    metric = RouteOptions.metric(req.queryParams("metric"));
+                }
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+                halt(HALT_RESPONSE, "Incorrect parameters - unknown metric.");
+            }
+            res.type("application/x-ndjson");
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                    res.raw().getOutputStream(), StandardCharsets.UTF_8));
+            Router.shortestPathTree(graph, params.get("lon"), params.get("lat"), metric,
+                    (id, distance, parent) -> {
+                        out.print("{\"id\":");
+                        out.print(id);
+                        out.print(",\"distance\":");
+                        out.print(distance);
+                        out.print(",\"parent\":");
+                        out.print(parent == id ? "null" : Long.toString(parent));
+                        out.print("}\n");
+                    });
+            out.flush();
+            return "";
+        });
+
+        /* Define the metrics endpoint, reporting the route cache counters as JSON. */
+        get("/metrics", (req, res) -> {
+            RouteCache cache = graph.routeCache();
+            Map<String, Object> routeCacheParams = new HashMap<>();
+            routeCacheParams.put("size", cache.size());
+            routeCacheParams.put("capacity", cache.capacity());
+            routeCacheParams.put("hits", cache.hits());
+            routeCacheParams.put("misses", cache.misses());
+            routeCacheParams.put("evictions", cache.evictions());
+            Map<String, Object> budgetParams = new HashMap<>();
+            budgetParams.put("route", getBudgetMetrics(ROUTE_BUDGET));
+            budgetParams.put("route_batch", getBudgetMetrics(BATCH_BUDGET));
+            budgetParams.put("alternatives", getBudgetMetrics(ALTERNATIVES_BUDGET));
+            budgetParams.put("route_multi", getBudgetMetrics(MULTI_STOP_BUDGET));
+            budgetParams.put("isochrone", getBudgetMetrics(ISOCHRONE_BUDGET));
+            Map<String, Object> metricsParams = new HashMap<>();
+            metricsParams.put("route_cache", routeCacheParams);
+            metricsParams.put("search_budgets", budgetParams);
+            Gson gson = new Gson();
+            return gson.toJson(metricsParams);
+        });
+
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
             clearRoute();
@@ -197,6 +485,268 @@ public class MapServer {
         return params;
     }
 
+    /** The body of a /matrix request. */
+    private static class MatrixRequest {
+        double[][] sources;
+        double[][] targets;
+    }
+
+    /** The body of a /route/batch request. */
+    private static class BatchRequest {
+        double[][] trips;
+    }
+
+    /** The body of a /route/multi request. */
+    private static class MultiStopRequest {
+        double[][] stops;
+        @SerializedName("round_trip")
+        boolean roundTrip;
+    }
+
+    /**
+     * Parses and validates the body of a /route/batch request, halting if it is malformed.
+     * @param req The request.
+     * @return The trips, each {start_lon, start_lat, end_lon, end_lat}.
+     */
+    private static double[][] getBatchRequest(spark.Request req) {
+        BatchRequest request = null;
+        try {
+            request = new Gson().fromJson(req.body(), BatchRequest.class);
+        } catch (JsonSyntaxException e) {
+            e.printStackTrace();
+        }
+        if (request == null || request.trips == null) {
+            halt(HALT_RESPONSE, "Request failed - trips missing.");
+        }
+        if (request.trips.length > MAX_TRIPS) {
+            halt(HALT_RESPONSE, "Incorrect parameters - at most " + MAX_TRIPS + " trips.");
+        }
+        for (double[] trip : request.trips) {
+            if (trip == null || trip.length != 4) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide "
+                        + "[start_lon, start_lat, end_lon, end_lat] trips.");
+            }
+        }
+        return request.trips;
+    }
+
+    /**
+     * Parses and validates the body of a /route/multi request, halting if it is malformed.
+     * @param req The request.
+     * @return The stops, each a {lon, lat} pair, and whether to return to the first.
+     */
+    private static MultiStopRequest getMultiStopRequest(spark.Request req) {
+        MultiStopRequest request = null;
+        try {
+            request = new Gson().fromJson(req.body(), MultiStopRequest.class);
+        } catch (JsonSyntaxException e) {
+            e.printStackTrace();
+        }
+        if (request == null || request.stops == null || request.stops.length == 0) {
+            halt(HALT_RESPONSE, "Request failed - stops missing.");
+        }
+        if (request.stops.length > MAX_STOPS) {
+            halt(HALT_RESPONSE, "Incorrect parameters - at most " + MAX_STOPS + " stops.");
+        }
+        for (double[] stop : request.stops) {
+            if (stop == null || stop.length != 2) {
+                halt(HALT_RESPONSE, "Incorrect parameters - provide [lon, lat] stops.");
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Parses and validates the body of a /matrix request, halting if it is malformed.
+     * @param req The request.
+     * @return The sources and targets, each a {lon, lat} pair.
+     */
+    private static MatrixRequest getMatrixRequest(spark.Request req) {
+        MatrixRequest request = null;
+        try {
+            request = new Gson().fromJson(req.body(), MatrixRequest.class);
+        } catch (JsonSyntaxException e) {
+            e.printStackTrace();
+        }
+        if (request == null || request.sources == null || request.targets == null) {
+            halt(HALT_RESPONSE, "Request failed - sources and targets missing.");
+        }
+        if (request.sources.length > MAX_MATRIX_POINTS
+                || request.targets.length > MAX_MATRIX_POINTS) {
+            halt(HALT_RESPONSE, "Incorrect parameters - at most " + MAX_MATRIX_POINTS
+                    + " sources and " + MAX_MATRIX_POINTS + " targets.");
+        }
+        for (double[][] points : new double[][][]{request.sources, request.targets}) {
+            for (double[] point : points) {
+                if (point == null || point.length != 2) {
+                    halt(HALT_RESPONSE, "Incorrect parameters - provide [lon, lat] pairs.");
+                }
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Reads the optional routing parameters of a request, halting on one it cannot parse.
+     * @param req The request.
+     * @param budget The budget of the endpoint.
+     * @return The options, with defaults for the parameters that are absent.
+     */
+    private static RouteOptions getRouteOptions(spark.Request req, SearchBudget budget) {
+        RouteOptions options = new RouteOptions();
+        options.budget = getBudget(req, budget);
+        try {
+            if (req.queryParams("metric") != null) {
+                options.metric = RouteOptions.metric(req.queryParams("metric"));
+            }
+            options.turnCosts = Boolean.parseBoolean(req.queryParams("turn_costs"));
+            options.arcFlags = Boolean.parseBoolean(req.queryParams("arc_flags"));
+            options.largestComponent =
+                    Boolean.parseBoolean(req.queryParams("largest_component"));
+            String snap = req.queryParams("snap");
+            if (snap == null) {
+                options.snapToSegment = !options.turnCosts;
+            } else if (snap.equalsIgnoreCase("segment") || snap.equalsIgnoreCase("vertex")) {
+                options.snapToSegment = snap.equalsIgnoreCase("segment");
+            } else {
+                throw new IllegalArgumentException("Unknown snap " + snap);
+            }
+            if (options.turnCosts || options.arcFlags) {
+                options.algorithm = RouteOptions.Algorithm.ASTAR;
+            } else {
+                options.algorithm = options.metric == RouteOptions.Metric.DISTANCE
+                        ? RouteOptions.Algorithm.CH : RouteOptions.Algorithm.BIDIRECTIONAL;
+            }
+            if (req.queryParams("algorithm") != null) {
+                options.algorithm = RouteOptions.algorithm(req.queryParams("algorithm"));
+            }
+            if (req.queryParams("heuristic") != null) {
+                options.heuristic = RouteOptions.heuristic(req.queryParams("heuristic"));
+            }
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            halt(HALT_RESPONSE,
+                    "Incorrect parameters - unknown metric, algorithm, heuristic or snap.");
+        }
+        if (options.algorithm == RouteOptions.Algorithm.CH
+                && options.metric != RouteOptions.Metric.DISTANCE) {
+            halt(HALT_RESPONSE, "Incorrect parameters - ch only supports the distance metric.");
+        }
+        if (options.turnCosts && options.algorithm != RouteOptions.Algorithm.ASTAR) {
+            halt(HALT_RESPONSE, "Incorrect parameters - only astar supports turn costs.");
+        }
+        if (options.turnCosts && options.snapToSegment) {
+            halt(HALT_RESPONSE, "Incorrect parameters - turn costs need snap=vertex.");
+        }
+        if (options.arcFlags && (options.algorithm == RouteOptions.Algorithm.CH
+                || options.turnCosts)) {
+            halt(HALT_RESPONSE,
+                    "Incorrect parameters - only astar and bidirectional support arc flags.");
+        }
+        if (options.arcFlags && options.metric != RouteOptions.Metric.DISTANCE) {
+            halt(HALT_RESPONSE,
+                    "Incorrect parameters - arc flags only support the distance metric.");
+        }
+        return options;
+    }
+
+    /**
+     * Reads the optional limits of an alternative routes request, halting on one it cannot
+     * parse.
+     * @param req The request.
+     * @return The options, with defaults for the limits that are absent.
+     */
+    private static RouteOptions getAlternativeOptions(spark.Request req) {
+        RouteOptions options = new RouteOptions();
+        options.budget = getBudget(req, ALTERNATIVES_BUDGET);
+        options.largestComponent = Boolean.parseBoolean(req.queryParams("largest_component"));
+        try {
+            if (req.queryParams("max_stretch") != null) {
+                options.maxStretch = Double.parseDouble(req.queryParams("max_stretch"));
+            }
+            if (req.queryParams("max_overlap") != null) {
+                options.maxOverlap = Double.parseDouble(req.queryParams("max_overlap"));
+            }
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+        }
+        if (!(options.maxStretch >= 0) || !(options.maxOverlap >= 0)) {
+            halt(HALT_RESPONSE, "Incorrect parameters - limits must be at least 0.");
+        }
+        return options;
+    }
+
+    /**
+     * Returns the distance budget of an isochrone request, halting if it is not from 0 to
+     * MAX_ISOCHRONE_MILES.
+     * @param params The parameters of the request.
+     * @return The budget in miles.
+     */
+    static double getIsochroneMiles(Map<String, Double> params) {
+        double miles = params.get("miles");
+        if (!(miles >= 0 && miles <= MAX_ISOCHRONE_MILES)) {
+            halt(HALT_RESPONSE, "Incorrect parameters - miles must be from 0 to "
+                    + MAX_ISOCHRONE_MILES + ".");
+        }
+        return miles;
+    }
+
+    /**
+     * Reads the optional max_settled and timeout_ms parameters of a request, halting if they
+     * are not positive counts.
+     * @param req The request.
+     * @param budget The budget of the endpoint.
+     * @return The budget, tightened to the limits the request asks for.
+     */
+    private static SearchBudget getBudget(spark.Request req, SearchBudget budget) {
+        return budget.tighten(getCount(req, "max_settled", Integer.MAX_VALUE),
+                getCount(req, "timeout_ms", Integer.MAX_VALUE));
+    }
+
+    /** Returns the response to a routing request whose search passed a limit of its budget. */
+    private static String getBudgetFailure(SearchBudget.ExceededException e) {
+        Map<String, Object> failureParams = new HashMap<>();
+        failureParams.put("routing_success", false);
+        failureParams.put("failure_reason", e.reason.label());
+        Gson gson = new Gson();
+        return gson.toJson(failureParams);
+    }
+
+    /** Returns the limits of a budget and the number of queries it stopped for each reason. */
+    private static Map<String, Object> getBudgetMetrics(SearchBudget budget) {
+        Map<String, Object> budgetParams = new HashMap<>();
+        budgetParams.put("max_settled", budget.maxSettled);
+        budgetParams.put("timeout_ms", budget.timeoutMillis);
+        for (SearchBudget.Reason reason : SearchBudget.Reason.values()) {
+            budgetParams.put(reason.label(), budget.trips(reason));
+        }
+        return budgetParams;
+    }
+
+    /**
+     * Reads an optional positive count parameter, halting if it is not one.
+     * @param req The request.
+     * @param name The name of the parameter.
+     * @param defaultCount The count to use if the parameter is absent.
+     * @return The count.
+     */
+    private static int getCount(spark.Request req, String name, int defaultCount) {
+        if (req.queryParams(name) == null) {
+            return defaultCount;
+        }
+        int count = 0;
+        try {
+            count = Integer.parseInt(req.queryParams(name));
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+        }
+        if (count < 1) {
+            halt(HALT_RESPONSE, "Incorrect parameters - " + name + " must be a positive integer.");
+        }
+        return count;
+    }
+
     /**
      * Writes the images corresponding to rasteredImgParams to the output stream.
      * In Spring 2016, students had to do this on their own, but in 2017,
@@ -232,6 +782,7 @@ public class MapServer {
 
         final double wdpp = (lrlon - ullon) / img.getWidth();
         final double hdpp = (ullat - lrlat) / img.getHeight();
+        List<Long> route = MapServer.route;
         if (route != null && !route.isEmpty()) {
             Graphics2D g2d = (Graphics2D) graphic;
             g2d.setColor(MapServer.ROUTE_STROKE_COLOR);
@@ -326,11 +877,15 @@ public class MapServer {
     }
 
     /**
-     * Takes the route of this MapServer and converts it into an HTML friendly
+     * Takes a route found by this MapServer and converts it into an HTML friendly
      * String to be passed to the frontend.
      */
-    private static String getDirectionsText() {
-        List<Router.NavigationDirection> directions = Router.routeDirections(graph, route);
+    private static String getDirectionsText(List<Long> route) {
+        return formatDirections(Router.routeDirections(graph, route));
+    }
+
+    /** Converts directions into an HTML friendly String to be passed to the frontend. */
+    private static String formatDirections(List<Router.NavigationDirection> directions) {
         if (directions == null || directions.isEmpty()) {
             return "";
         }
@@ -0,0 +1,21 @@
+import java.util.Collections;
+import java.util.List;
+
+/** A route through several stops, visited in the order StopOrder chose for them. */
+public class MultiStopRoute {
+    /** The indices of the stops, as they were given, in the order the route visits them. */
+    final int[] order;
+    /** The length of the route in miles, or infinity if some stop cannot be reached. */
+    final double distance;
+    /** The ids of the vertices on the route, through every stop in order. */
+    final List<Long> path;
+    final List<Router.NavigationDirection> directions;
+
+    MultiStopRoute(int[] order, double distance, List<Long> path,
+                   List<Router.NavigationDirection> directions) {
+        this.order = order;
+        this.distance = distance;
+        this.path = Collections.unmodifiableList(path);
+        this.directions = Collections.unmodifiableList(directions);
+    }
+}
@@ -0,0 +1,171 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A bounded cache of computed routes and their directions, keyed by where the endpoints of a
+ * request snap to, the metric and whether turns cost. Many requests repeat the same trips, and
+ * every request whose endpoints snap to the same two vertices gets the same cheapest path, so
+ * one search answers them all. Endpoints snapped onto road segments are keyed by the segment
+ * and the fraction of the way along it, rounded to FRACTION_STEPS steps: on a segment of a
+ * tenth of a mile, a step is under a hundredth of an inch. When full, the least recently used
+ * route is evicted.
+ *
+ * Each GraphDB owns its cache, so a reloaded graph starts with an empty one, and restoring a
+ * graph from a snapshot clears it. The cache is safe for concurrent use.
+ */
+public class RouteCache {
+    /** The number of routes a graph's cache holds. */
+    static final int DEFAULT_CAPACITY = 10000;
+    /** The number of steps a fraction along a segment is rounded to in a key. */
+    static final int FRACTION_STEPS = 1 << 20;
+
+    private final int capacity;
+    private final LinkedHashMap<Key, Route> routes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates an empty cache.
+     * @param capacity The largest number of routes to hold, at least 1.
+     */
+    public RouteCache(int capacity) {
+        this.capacity = capacity;
+        this.routes = new LinkedHashMap<Key, Route>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Route> eldest) {
+                if (size() > RouteCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** A route with its directions. Both lists are unmodifiable. */
+    public static class Route {
+        final List<Long> path;
+        final List<Router.NavigationDirection> directions;
+
+        Route(List<Long> path, List<Router.NavigationDirection> directions) {
+            this.path = Collections.unmodifiableList(path);
+            this.directions = Collections.unmodifiableList(directions);
+        }
+    }
+
+    /**
+     * Returns the cached route between two vertices, counting a hit or a miss.
+     * @param stNode The dense index of the start vertex.
+     * @param destNode The dense index of the destination vertex.
+     * @param options The metric and turn costs the route was found with.
+     * @return The route, or null if it is not cached.
+     */
+    synchronized Route get(int stNode, int destNode, RouteOptions options) {
+        return get(new Key(stNode, -1, destNode, -1, options));
+    }
+
+    /**
+     * Returns the cached route between two points snapped onto segments, counting a hit or a
+     * miss.
+     * @param st The start, snapped onto its segment.
+     * @param dest The destination, snapped onto its segment.
+     * @param options The metric the route was found with.
+     * @return The route, or null if it is not cached.
+     */
+    synchronized Route get(SegmentIndex.Snap st, SegmentIndex.Snap dest, RouteOptions options) {
+        return get(new Key(st.edge, step(st), dest.edge, step(dest), options));
+    }
+
+    private Route get(Key key) {
+        Route route = routes.get(key);
+        if (route == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return route;
+    }
+
+    /** Caches the route between two vertices, evicting the least recently used if full. */
+    synchronized void put(int stNode, int destNode, RouteOptions options, Route route) {
+        routes.put(new Key(stNode, -1, destNode, -1, options), route);
+    }
+
+    /** Caches the route between two snapped points, evicting the least recently used if full. */
+    synchronized void put(SegmentIndex.Snap st, SegmentIndex.Snap dest, RouteOptions options,
+                          Route route) {
+        routes.put(new Key(st.edge, step(st), dest.edge, step(dest), options), route);
+    }
+
+    /** Returns the fraction of a snapped point rounded to a step, from 0 to FRACTION_STEPS. */
+    private static int step(SegmentIndex.Snap snap) {
+        return (int) Math.round(snap.fraction * FRACTION_STEPS);
+    }
+
+    /** Drops every cached route; the counters keep counting. */
+    synchronized void clear() {
+        routes.clear();
+    }
+
+    synchronized int size() {
+        return routes.size();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * The endpoints and the options that decide which route a request gets. An endpoint is a
+     * vertex with a step of -1, or an edge with the step of the point along it.
+     */
+    private static final class Key {
+        private final int st;
+        private final int stStep;
+        private final int dest;
+        private final int destStep;
+        private final RouteOptions.Metric metric;
+        private final boolean turnCosts;
+
+        Key(int st, int stStep, int dest, int destStep, RouteOptions options) {
+            this.st = st;
+            this.stStep = stStep;
+            this.dest = dest;
+            this.destStep = destStep;
+            this.metric = options.metric;
+            this.turnCosts = options.turnCosts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return st == other.st && stStep == other.stStep && dest == other.dest
+                    && destStep == other.destStep && metric == other.metric
+                    && turnCosts == other.turnCosts;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(st, stStep, dest, destStep, metric, turnCosts);
+        }
+    }
+}
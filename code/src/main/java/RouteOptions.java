@@ -0,0 +1,85 @@
+/**
+ * Per-request choices for Router. A fresh RouteOptions gives the default search, plain A*, so
+ * callers only set the fields they care about.
+ */
+public class RouteOptions {
+    /** The search used to find a shortest path. Every algorithm finds a path of equal length. */
+    public enum Algorithm {
+        /** A* from the start toward the destination. */
+        ASTAR,
+        /** A* from both ends at once, meeting in the middle. */
+        BIDIRECTIONAL,
+        /** Upward search from both ends in the graph's ContractionHierarchy. */
+        CH
+    }
+
+    /** The lower bound A* uses for the remaining distance. CH needs none and ignores it. */
+    public enum Heuristic {
+        /** The great-circle distance. */
+        HAVERSINE,
+        /** The best landmark bound from the graph's Landmarks. */
+        ALT
+    }
+
+    /** The cost a route minimizes. */
+    public enum Metric {
+        /** The length in miles. */
+        DISTANCE,
+        /** The travel time in seconds, from TravelTime. CH supports only DISTANCE. */
+        TIME
+    }
+
+    public Algorithm algorithm = Algorithm.ASTAR;
+    public Heuristic heuristic = Heuristic.HAVERSINE;
+    public Metric metric = Metric.DISTANCE;
+    /** Whether to penalize turns, searching edge by edge; see EdgeBasedSearch. ASTAR only. */
+    public boolean turnCosts = false;
+    /** Whether to snap the endpoints into the largest component. */
+    public boolean largestComponent = false;
+    /**
+     * Whether to snap the endpoints onto the closest points of road segments instead of the
+     * closest vertices; see SnappedSearch. Not supported with turn costs.
+     */
+    public boolean snapToSegment = false;
+    /**
+     * Whether to skip the edges the graph's ArcFlags rule out for the destination. ASTAR and
+     * BIDIRECTIONAL with the distance metric only.
+     */
+    public boolean arcFlags = false;
+    /** How much longer than the shortest path an alternative route may be, as a fraction. */
+    public double maxStretch = 0.25;
+    /** The largest fraction of its length an alternative route may share with shorter ones. */
+    public double maxOverlap = 0.8;
+    /** The limits on the work a query may do; see SearchBudget. None by default. */
+    public SearchBudget budget = SearchBudget.UNLIMITED;
+
+    /**
+     * Parses the name of an algorithm, ignoring case.
+     * @param name The name.
+     * @return The algorithm.
+     * @throws IllegalArgumentException If no algorithm has that name.
+     */
+    static Algorithm algorithm(String name) {
+        return Algorithm.valueOf(name.toUpperCase());
+    }
+
+    /**
+     * Parses the name of a heuristic, ignoring case.
+     * @param name The name.
+     * @return The heuristic.
+     * @throws IllegalArgumentException If no heuristic has that name.
+     */
+    static Heuristic heuristic(String name) {
+        return Heuristic.valueOf(name.toUpperCase());
+    }
+
+    /**
+     * Parses the name of a metric, ignoring case.
+     * @param name The name.
+     * @return The metric.
+     * @throws IllegalArgumentException If no metric has that name.
+     */
+    static Metric metric(String name) {
+        return Metric.valueOf(name.toUpperCase());
+    }
+}
@@ -1,15 +1,11 @@
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.PriorityQueue;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This class provides a shortestPath method for finding routes between two points
@@ -33,69 +29,571 @@ public class Router {
      */
     public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
                                           double destlon, double destlat) {
-        List<Long> results = new LinkedList<>();
+        return shortestPath(g, stlon, stlat, destlon, destlat, new RouteOptions());
+    }
 
-        long stNode = g.closest(stlon, stlat);
-        long destNode = g.closest(destlon, destlat);
-        Map<Long, Long> edgeTo = new HashMap<>();
-        Set<Long> isVisited = new HashSet<>();
+    /**
+     * Like shortestPath(g, stlon, stlat, destlon, destlat), with the search chosen by options.
+     * @param options The metric to minimize, and the algorithm and heuristic to use; all of
+     *                them return a path of the same cost.
+     * @return A list of node id's in the order visited on the cheapest path. When options snap
+     * to segments, these are the vertices passed between the two snapped points.
+     * @throws IllegalArgumentException If options ask for CH with a metric other than distance,
+     * for turn costs with an algorithm other than ASTAR or with snapping to segments, or for arc
+     * flags with CH, turn costs or a metric other than distance.
+     * @throws SearchBudget.ExceededException If the search passes a limit of options.budget.
+     */
+    public static List<Long> shortestPath(GraphDB g, double stlon, double stlat,
+                                          double destlon, double destlat, RouteOptions options) {
+        prepare(g, options);
+        SearchBudget.Run run = options.budget.start();
+        try {
+            if (options.snapToSegment) {
+                return SnappedSearch.shortestPath(g, snapToSegment(g, stlon, stlat, options),
+                        snapToSegment(g, destlon, destlat, options), options);
+            }
+            return shortestPath(g, snap(g, stlon, stlat, options),
+                    snap(g, destlon, destlat, options), options);
+        } finally {
+            run.close();
+        }
+    }
 
-        // Initialize
-        PriorityQueue<Long> pq = new PriorityQueue<>(g.getNodeComparator());
-        for (long node : g.vertices()) {
-            g.changeDistTo(node, Double.POSITIVE_INFINITY);
+    /**
+     * Routes a batch of trips, fanned out over the common ForkJoinPool. Each worker thread
+     * searches with its own pooled workspaces and the graph is only read, so the trips run
+     * independently. Paths are handed to results in the order of the trips, each as soon as it
+     * and all the trips before it are done, so a caller can stream them out as they come. The
+     * batch bypasses the RouteCache, which it would only flush.
+     * @param g The graph to use.
+     * @param trips The trips, each {stlon, stlat, destlon, destlat}.
+     * @param options The metric, algorithm and heuristic to use, and the budget of each trip.
+     * @param results Receives the path of each trip, an empty list if there is none, or null if
+     *                its search passed a limit of the budget, from one thread at a time.
+     */
+    public static void shortestPaths(GraphDB g, double[][] trips, RouteOptions options,
+                                     Consumer<List<Long>> results) {
+        IntStream.range(0, trips.length).parallel()
+                .mapToObj(i -> {
+                    try {
+                        return shortestPath(g, trips[i][0], trips[i][1], trips[i][2],
+                                trips[i][3], options);
+                    } catch (SearchBudget.ExceededException e) {
+                        return null;
+                    }
+                })
+                .forEachOrdered(results);
+    }
+
+    /**
+     * Like shortestPath, but also returns the directions, and answers a trip between the same
+     * two snapped vertices as an earlier call with the same metric and turn costs from g's
+     * RouteCache. Every algorithm returns a path of the same cost, so a cached route is
+     * returned whatever the algorithm and heuristic. A trip between points snapped onto
+     * segments is answered from the cache when both points are at the same places along the
+     * same segments, to within RouteCache.FRACTION_STEPS.
+     * @param options The metric and turn costs, and the algorithm and heuristic to use if the
+     *                route is not cached.
+     * @return The route and its directions.
+     * @throws SearchBudget.ExceededException If the search passes a limit of options.budget.
+     *                                        The route is not cached then.
+     */
+    public static RouteCache.Route route(GraphDB g, double stlon, double stlat,
+                                         double destlon, double destlat, RouteOptions options) {
+        prepare(g, options);
+        SearchBudget.Run run = options.budget.start();
+        try {
+            return routeWithinBudget(g, stlon, stlat, destlon, destlat, options);
+        } finally {
+            run.close();
         }
-        g.changeDistTo(stNode, 0);
-        pq.add(stNode);
+    }
 
-        // Visit nodes until reach the destination
-        while (!pq.isEmpty()) {
-            long v = pq.poll();
-            if (isVisited.contains(v)) {
-                continue;
+    private static RouteCache.Route routeWithinBudget(GraphDB g, double stlon, double stlat,
+                                                      double destlon, double destlat,
+                                                      RouteOptions options) {
+        if (options.snapToSegment) {
+            SegmentIndex.Snap st = snapToSegment(g, stlon, stlat, options);
+            SegmentIndex.Snap dest = snapToSegment(g, destlon, destlat, options);
+            RouteCache cache = g.routeCache();
+            RouteCache.Route route = cache.get(st, dest, options);
+            if (route == null) {
+                List<Long> path = SnappedSearch.shortestPath(g, st, dest, options);
+                route = new RouteCache.Route(path, routeDirections(g, st, path, dest));
+                cache.put(st, dest, options, route);
             }
-            if (v == destNode) {
-                break;
+            return route;
+        }
+        int stNode = snap(g, stlon, stlat, options);
+        int destNode = snap(g, destlon, destlat, options);
+        RouteCache cache = g.routeCache();
+        RouteCache.Route route = cache.get(stNode, destNode, options);
+        if (route == null) {
+            List<Long> path = shortestPath(g, stNode, destNode, options);
+            route = new RouteCache.Route(path, routeDirections(g, path));
+            cache.put(stNode, destNode, options, route);
+        }
+        return route;
+    }
+
+    /**
+     * Builds the landmarks, contraction hierarchy and arc flags the search chosen by options
+     * uses, if g has not built them yet. This is called before the run of options.budget is
+     * started, so the first query on a graph is not charged for the preprocessing it waits for.
+     */
+    private static void prepare(GraphDB g, RouteOptions options) {
+        if (options.heuristic == RouteOptions.Heuristic.ALT) {
+            g.landmarks();
+        }
+        if (options.algorithm == RouteOptions.Algorithm.CH && !options.turnCosts
+                && options.metric == RouteOptions.Metric.DISTANCE) {
+            g.contractionHierarchy();
+        }
+        arcFlags(g, options);
+    }
+
+    /**
+     * Finds a cheapest path between two dense indices with the search chosen by options. A
+     * pair in different components is answered at once, without a search.
+     */
+    private static List<Long> shortestPath(GraphDB g, int stNode, int destNode,
+                                           RouteOptions options) {
+        if (!g.components().connected(stNode, destNode)) {
+            return new ArrayList<>();
+        }
+        boolean alt = options.heuristic == RouteOptions.Heuristic.ALT;
+        ArcFlags flags = arcFlags(g, options);
+        if (options.turnCosts) {
+            if (options.algorithm != RouteOptions.Algorithm.ASTAR) {
+                throw new IllegalArgumentException("Only ASTAR supports turn costs.");
             }
+            return EdgeBasedSearch.shortestPath(g, stNode, destNode,
+                    alt ? g.landmarks().boundTo(stNode, destNode) : null, options.metric);
+        }
+        if (options.algorithm == RouteOptions.Algorithm.ASTAR) {
+            SearchWorkspace ws = SearchWorkspace.acquire(g);
+            search(g, stNode, destNode, ws, alt ? g.landmarks().boundTo(stNode, destNode) : null,
+                    options.metric, flags);
+            return ws.path(g, stNode, destNode);
+        }
+        SearchWorkspace forward = SearchWorkspace.acquire(g, SearchWorkspace.FORWARD);
+        SearchWorkspace backward = SearchWorkspace.acquire(g, SearchWorkspace.BACKWARD);
+        if (options.algorithm == RouteOptions.Algorithm.CH) {
+            if (options.metric != RouteOptions.Metric.DISTANCE) {
+                throw new IllegalArgumentException("CH only supports the distance metric.");
+            }
+            ContractionHierarchy ch = g.contractionHierarchy();
+            int meet = ch.search(stNode, destNode, forward, backward);
+            return ch.path(g, stNode, meet, forward, backward);
+        }
+        int meet = searchBidirectional(g, stNode, destNode, forward, backward,
+                alt ? g.landmarks().boundTo(stNode, destNode) : null,
+                alt ? g.landmarks().boundTo(destNode, stNode) : null, options.metric, flags);
+        return joinPaths(g, stNode, meet, forward, backward);
+    }
+
+    /**
+     * Returns up to k reasonable routes between two locations, shortest first, all found from
+     * one search around each end; see AlternativeRoutes. Each route can be passed to
+     * routeDirections.
+     * @param k The largest number of routes, the shortest path included.
+     * @param options The limits on how much longer than the shortest path an alternative may
+     *                be and how much of it may overlap shorter routes.
+     * @return The ids of the vertices on each route, or an empty list if there is no route.
+     * @throws SearchBudget.ExceededException If the search passes a limit of options.budget.
+     */
+    public static List<List<Long>> alternativeRoutes(GraphDB g, double stlon, double stlat,
+                                                     double destlon, double destlat, int k,
+                                                     RouteOptions options) {
+        SearchBudget.Run run = options.budget.start();
+        try {
+            return AlternativeRoutes.find(g, snap(g, stlon, stlat, options),
+                    snap(g, destlon, destlat, options), k, options);
+        } finally {
+            run.close();
+        }
+    }
 
-            isVisited.add(v);
-            for (long w : g.adjacent(v)) {
-                relax(g, edgeTo, pq, v, w, destNode);
+    /**
+     * Returns the shortest distance from every source to every target. Each point is snapped
+     * to its closest vertex once, and no paths are built, so this is much cheaper than a
+     * shortestPath call per pair.
+     * @param g The graph to use.
+     * @param sources The source locations, each {lon, lat}.
+     * @param targets The target locations, each {lon, lat}.
+     * @return distances[i * targets.length + j] in miles from sources[i] to targets[j], or
+     * infinity if there is no route.
+     */
+    public static double[] distanceMatrix(GraphDB g, double[][] sources, double[][] targets) {
+        return g.contractionHierarchy().distances(g, snap(g, sources), snap(g, targets));
+    }
+
+    /**
+     * Returns the shortest distance between the vertices closest to two locations, from g's hub
+     * labels; see HubLabels. No search is run and no path is built, so this is the cheapest way
+     * to ask for many distances one pair at a time. The labels are built on the first call.
+     * @param g The graph to use.
+     * @return The distance in miles, or infinity if there is no route.
+     */
+    public static double distance(GraphDB g, double stlon, double stlat, double destlon,
+                                  double destlat) {
+        return g.hubLabels().distance(g.closestIndex(stlon, stlat),
+                g.closestIndex(destlon, destlat));
+    }
+
+    /**
+     * Routes through a list of stops in the order that makes the route shortest; see
+     * StopOrder. The distance between every pair of stops comes from one many-to-many pass, as
+     * in distanceMatrix, and the legs between consecutive stops are then found with the CH and
+     * joined into one path.
+     * @param g The graph to use.
+     * @param stops The stops, each {lon, lat}, snapped to their closest vertices. The route
+     *              starts at the first.
+     * @param roundTrip Whether the route returns to the first stop at the end.
+     * @return The route. It has no order or path if some stop cannot be reached from the first.
+     */
+    public static MultiStopRoute multiStopRoute(GraphDB g, double[][] stops, boolean roundTrip) {
+        return multiStopRoute(g, stops, roundTrip, SearchBudget.UNLIMITED);
+    }
+
+    /**
+     * Like multiStopRoute(g, stops, roundTrip), with the searches for the legs limited by a
+     * budget. The many-to-many pass is spread over the common ForkJoinPool and not charged.
+     * @throws SearchBudget.ExceededException If the legs pass a limit of the budget together.
+     */
+    public static MultiStopRoute multiStopRoute(GraphDB g, double[][] stops, boolean roundTrip,
+                                                SearchBudget budget) {
+        int[] nodes = snap(g, stops);
+        for (int node : nodes) {
+            if (!g.components().connected(nodes[0], node)) {
+                return new MultiStopRoute(new int[0], Double.POSITIVE_INFINITY,
+                        new ArrayList<>(), new ArrayList<>());
             }
         }
+        int n = nodes.length;
+        double[] table = g.contractionHierarchy().distances(g, nodes, nodes);
+        int[] order = StopOrder.optimize(table, n, roundTrip);
+
+        RouteOptions options = new RouteOptions();
+        options.algorithm = RouteOptions.Algorithm.CH;
+        List<Long> path = new ArrayList<>();
+        if (n > 0) {
+            path.add(g.idOf(nodes[0]));
+        }
+        SearchBudget.Run run = budget.start();
+        try {
+            for (int i = 1; i < (roundTrip ? n + 1 : n); i++) {
+                List<Long> leg = shortestPath(g, nodes[order[i - 1]], nodes[order[i % n]],
+                        options);
+                path.addAll(leg.subList(1, leg.size()));
+            }
+        } finally {
+            run.close();
+        }
+        return new MultiStopRoute(order, StopOrder.length(table, order, roundTrip), path,
+                routeDirections(g, path));
+    }
 
-        // Link all nodes on the shortest path
-        results.add(destNode);
+    /**
+     * Returns everything reachable within a distance of a location: the vertices, with their
+     * distances, and an outline of the area their roads cover. The search is a Dijkstra bounded
+     * by the distance, so it only touches vertices within it and its cost depends on the size
+     * of the isochrone, not of the graph.
+     * @param g The graph to use.
+     * @param lon The longitude of the start location.
+     * @param lat The latitude of the start location.
+     * @param miles The largest distance to travel.
+     * @return The isochrone of the vertex closest to the location.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double miles) {
+        return isochrone(g, lon, lat, miles, SearchBudget.UNLIMITED);
+    }
 
-        while (destNode != stNode) {
-            if (edgeTo.get(destNode) == null) {
-                return new LinkedList<>();
+    /**
+     * Like isochrone(g, lon, lat, miles), with the search limited by a budget.
+     * @throws SearchBudget.ExceededException If the search passes a limit of the budget.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double miles,
+                                      SearchBudget budget) {
+        SearchBudget.Run run = budget.start();
+        try {
+            int stNode = g.closestIndex(lon, lat);
+            SearchWorkspace ws = SearchWorkspace.acquire(g);
+            int[] settled = new int[16];
+            int count = 0;
+
+            ws.reach(stNode, 0, -1);
+            ws.heap.insertOrDecrease(stNode, 0);
+            while (!ws.heap.isEmpty()) {
+                int v = ws.heap.poll();
+                ws.settle(v);
+                if (count == settled.length) {
+                    settled = Arrays.copyOf(settled, count * 2);
+                }
+                settled[count++] = v;
+                for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                    int w = g.edgeTarget(e);
+                    double dist = ws.distTo(v) + g.edgeWeight(e);
+                    // Vertices beyond the distance are never reached, let alone queued.
+                    if (dist <= miles && dist < ws.distTo(w)) {
+                        ws.reach(w, dist, v);
+                        ws.heap.insertOrDecrease(w, dist);
+                    }
+                }
             }
+            return Isochrone.of(g, settled, count, ws, miles);
+        } finally {
+            run.close();
+        }
+    }
 
-            results.add(0, edgeTo.get(destNode));
-            destNode = edgeTo.get(destNode);
+    /**
+     * Runs Dijkstra from the vertex closest to a location over the whole graph, handing each
+     * vertex to visitor as it is settled, nearest first. Its distance and parent are final by
+     * then, so nothing is collected: the search uses only the arrays of its workspace, and the
+     * visitor can write each vertex out and forget it. Vertices that cannot be reached from the
+     * location are not visited.
+     * @param g The graph to use.
+     * @param lon The longitude of the origin.
+     * @param lat The latitude of the origin.
+     * @param metric The cost to minimize; the distances are in its unit.
+     * @param visitor Receives every reachable vertex.
+     */
+    public static void shortestPathTree(GraphDB g, double lon, double lat,
+                                        RouteOptions.Metric metric, TreeVisitor visitor) {
+        int stNode = g.closestIndex(lon, lat);
+        SearchWorkspace ws = SearchWorkspace.acquire(g);
+        ws.reach(stNode, 0, -1);
+        ws.heap.insertOrDecrease(stNode, 0);
+        while (!ws.heap.isEmpty()) {
+            int v = ws.heap.poll();
+            ws.settle(v);
+            int parent = ws.edgeTo(v);
+            visitor.visit(g.idOf(v), ws.distTo(v), g.idOf(parent < 0 ? v : parent));
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                int w = g.edgeTarget(e);
+                double dist = ws.distTo(v) + cost(g, e, metric);
+                if (dist < ws.distTo(w)) {
+                    ws.reach(w, dist, v);
+                    ws.heap.insertOrDecrease(w, dist);
+                }
+            }
         }
+    }
 
-        // Clean
-        for (Long node : g.vertices()) {
-            g.changePriority(node, 0);
+    /**
+     * Returns the graph's arc flags if options ask for them, else null.
+     * @throws IllegalArgumentException If options ask for arc flags together with CH, turn
+     * costs or a metric other than distance.
+     */
+    static ArcFlags arcFlags(GraphDB g, RouteOptions options) {
+        if (!options.arcFlags) {
+            return null;
+        }
+        if (options.algorithm == RouteOptions.Algorithm.CH || options.turnCosts) {
+            throw new IllegalArgumentException("Arc flags only support ASTAR and BIDIRECTIONAL.");
+        }
+        if (options.metric != RouteOptions.Metric.DISTANCE) {
+            throw new IllegalArgumentException("Arc flags only support the distance metric.");
         }
+        return g.arcFlags();
+    }
 
-        return results;
+    /**
+     * Returns the dense index of the vertex a location snaps to: the closest one, or the
+     * closest in the largest component if options ask for it.
+     */
+    private static int snap(GraphDB g, double lon, double lat, RouteOptions options) {
+        return options.largestComponent
+                ? g.closestIndexInLargestComponent(lon, lat) : g.closestIndex(lon, lat);
     }
 
-    private static void relax(GraphDB g, Map<Long, Long> edgeTo, PriorityQueue<Long> pq,
-                              long v, long w, long destNode) {
+    /**
+     * Returns the point on a road segment a location snaps to: the closest one, or the closest
+     * in the largest component if options ask for it.
+     * @throws IllegalArgumentException If options also ask for turn costs.
+     */
+    private static SegmentIndex.Snap snapToSegment(GraphDB g, double lon, double lat,
+                                                   RouteOptions options) {
+        if (options.turnCosts) {
+            throw new IllegalArgumentException("Turn costs need endpoints snapped to vertices.");
+        }
+        return options.largestComponent
+                ? g.closestSegmentInLargestComponent(lon, lat) : g.closestSegment(lon, lat);
+    }
+
+    /** Returns the dense index of the closest vertex to each {lon, lat} point. */
+    private static int[] snap(GraphDB g, double[][] points) {
+        int[] nodes = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            nodes[i] = g.closestIndex(points[i][0], points[i][1]);
+        }
+        return nodes;
+    }
+
+    /** Runs A* with the straight-line heuristic; see search(g, stNode, destNode, ws, bound). */
+    static boolean search(GraphDB g, int stNode, int destNode, SearchWorkspace ws) {
+        return search(g, stNode, destNode, ws, null, RouteOptions.Metric.DISTANCE, null);
+    }
+
+    /**
+     * Runs A* from stNode until destNode is settled or the frontier is exhausted. All search
+     * state lives in ws, so concurrent searches on the same graph do not interfere.
+     * @param ws A freshly created or reset workspace.
+     * @param toDest Landmark bound on distances to destNode, or null to use the great-circle
+     *               distance.
+     * @param metric The cost to minimize; the distances in ws are in its unit.
+     * @param flags Arc flags to skip the edges that lead away from destNode with, or null.
+     * @return Whether destNode was reached.
+     */
+    static boolean search(GraphDB g, int stNode, int destNode, SearchWorkspace ws,
+                          Landmarks.Bound toDest, RouteOptions.Metric metric, ArcFlags flags) {
+        long mask = flags == null ? 0 : flags.cellMask(destNode);
+
+        // Initialize
+        ws.reach(stNode, 0, -1);
+        ws.heap.insertOrDecrease(stNode, 0);
+
+        // Visit nodes until reach the destination
+        while (!ws.heap.isEmpty()) {
+            int v = ws.heap.poll();
+            if (v == destNode) {
+                return true;
+            }
+
+            ws.settle(v);
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                if (flags != null && !flags.allows(e, mask)) {
+                    continue;
+                }
+                relax(g, ws, v, g.edgeTarget(e), cost(g, e, metric), destNode, toDest, metric);
+            }
+        }
+        return false;
+    }
+
+    private static void relax(GraphDB g, SearchWorkspace ws, int v, int w, double weight,
+                              int destNode, Landmarks.Bound toDest, RouteOptions.Metric metric) {
         // Dijkstra
-        if (g.getDistTo(v) + g.distance(v, w) < g.getDistTo(w)) {
-            g.changeDistTo(w, g.getDistTo(v) + g.distance(v, w));
+        double dist = ws.distTo(v) + weight;
+        if (dist < ws.distTo(w)) {
+            ws.reach(w, dist, v);
 
             // A*
-            g.changePriority(w, g.getDistTo(w) + g.distance(w, destNode));
-            pq.add(w);
+            if (!ws.isSettled(w)) {
+                ws.heap.insertOrDecrease(w, dist + lowerBound(g, w, destNode, toDest, metric));
+            }
+        }
+    }
+
+    /**
+     * Runs A* from stNode and from destNode at once, always advancing the side whose frontier
+     * has the smaller key, until the two meet on a shortest path. Both sides use the balanced
+     * potential p(v) = (|v, destNode| - |stNode, v|) / 2, forward keys d(v) + p(v) and backward
+     * keys d(v) - p(v), which keeps the reduced edge lengths of both searches non-negative.
+     * With these keys the search can stop as soon as the two smallest keys add up to at least
+     * the best meeting distance found so far. Every edge is two-way, so the backward search
+     * walks the same adjacency lists as the forward one.
+     * @param toDest Landmark bound on distances to destNode, or null for great-circle distances.
+     * @param toSt Landmark bound on distances to stNode, or null for great-circle distances.
+     * @param metric The cost to minimize; the distances in the workspaces are in its unit.
+     * @param flags Arc flags, or null. The forward search skips the edges that lead away from
+     *              destNode, the backward one those that lead away from stNode.
+     * @param forward A freshly created or reset workspace for the search from stNode.
+     * @param backward A freshly created or reset workspace for the search from destNode.
+     * @return The vertex where the shortest path found crosses from forward to backward, or -1
+     * if destNode cannot be reached.
+     */
+    static int searchBidirectional(GraphDB g, int stNode, int destNode,
+                                   SearchWorkspace forward, SearchWorkspace backward,
+                                   Landmarks.Bound toDest, Landmarks.Bound toSt,
+                                   RouteOptions.Metric metric, ArcFlags flags) {
+        long forwardMask = flags == null ? 0 : flags.cellMask(destNode);
+        long backwardMask = flags == null ? 0 : flags.cellMask(stNode);
+        forward.reach(stNode, 0, -1);
+        forward.heap.insertOrDecrease(stNode,
+                potential(g, stNode, stNode, destNode, toDest, toSt, metric));
+        backward.reach(destNode, 0, -1);
+        backward.heap.insertOrDecrease(destNode,
+                -potential(g, destNode, stNode, destNode, toDest, toSt, metric));
+
+        double best = stNode == destNode ? 0 : Double.POSITIVE_INFINITY;
+        int meet = stNode == destNode ? stNode : -1;
+        while (!forward.heap.isEmpty() && !backward.heap.isEmpty()) {
+            double forwardKey = forward.heap.minKey();
+            double backwardKey = backward.heap.minKey();
+            if (forwardKey + backwardKey >= best) {
+                break;
+            }
+            boolean isForward = forwardKey <= backwardKey;
+            SearchWorkspace ws = isForward ? forward : backward;
+            SearchWorkspace other = isForward ? backward : forward;
+            double sign = isForward ? 1 : -1;
+            long mask = isForward ? forwardMask : backwardMask;
+
+            int v = ws.heap.poll();
+            ws.settle(v);
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                if (flags != null && !flags.allows(e, mask)) {
+                    continue;
+                }
+                int w = g.edgeTarget(e);
+                double dist = ws.distTo(v) + cost(g, e, metric);
+                if (dist < ws.distTo(w)) {
+                    ws.reach(w, dist, v);
+                    if (!ws.isSettled(w)) {
+                        ws.heap.insertOrDecrease(w, dist
+                                + sign * potential(g, w, stNode, destNode, toDest, toSt, metric));
+                    }
+                    double through = dist + other.distTo(w);
+                    if (through < best) {
+                        best = through;
+                        meet = w;
+                    }
+                }
+            }
+        }
+        return meet;
+    }
 
-            edgeTo.put(w, v);
+    /** The balanced potential of v for a bidirectional search from stNode to destNode. */
+    private static double potential(GraphDB g, int v, int stNode, int destNode,
+                                    Landmarks.Bound toDest, Landmarks.Bound toSt,
+                                    RouteOptions.Metric metric) {
+        return (lowerBound(g, v, destNode, toDest, metric)
+                - lowerBound(g, v, stNode, toSt, metric)) / 2;
+    }
+
+    /**
+     * Returns a lower bound on the cost from v to target: the landmark bound if there is one,
+     * else the great-circle distance. A bound on the distance becomes a bound on the travel
+     * time at the speed of the fastest edge, so it stays admissible and consistent.
+     */
+    static double lowerBound(GraphDB g, int v, int target, Landmarks.Bound toTarget,
+                             RouteOptions.Metric metric) {
+        double distance = toTarget == null ? g.distanceAt(v, target) : toTarget.lowerBound(v);
+        return metric == RouteOptions.Metric.TIME ? distance * g.minSecondsPerMile() : distance;
+    }
+
+    /** Returns the cost of edge e under metric. */
+    static double cost(GraphDB g, int e, RouteOptions.Metric metric) {
+        return metric == RouteOptions.Metric.TIME ? g.edgeTime(e) : g.edgeWeight(e);
+    }
+
+    /**
+     * Joins the forward path from stNode to meet with the backward path from meet onwards.
+     * @return The ids of the vertices on the path, or an empty list if meet is -1.
+     */
+    private static List<Long> joinPaths(GraphDB g, int stNode, int meet,
+                                        SearchWorkspace forward, SearchWorkspace backward) {
+        if (meet < 0) {
+            return new ArrayList<>();
+        }
+        List<Long> results = forward.path(g, stNode, meet);
+        for (int v = backward.edgeTo(meet); v >= 0; v = backward.edgeTo(v)) {
+            results.add(g.idOf(v));
         }
+        return results;
     }
 
     /**
@@ -107,48 +605,137 @@ public class Router {
      * route.
      */
     public static List<NavigationDirection> routeDirections(GraphDB g, List<Long> route) {
+        int n = route.size();
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        String[] ways = new String[Math.max(n - 1, 0)];
+        double[] lengths = new double[ways.length];
+        for (int i = 0; i < n; i++) {
+            lons[i] = g.lon(route.get(i));
+            lats[i] = g.lat(route.get(i));
+            if (i > 0) {
+                int e = g.edge(route.get(i - 1), route.get(i));
+                ways[i - 1] = getWayName(g, e);
+                lengths[i - 1] = length(g, e, route.get(i - 1), route.get(i));
+            }
+        }
+        return directions(lons, lats, ways, lengths, n - 1);
+    }
+
+    /**
+     * Like routeDirections(g, route), for a route between two points snapped onto road
+     * segments, as found by SnappedSearch. The parts of the end segments are included.
+     * @param st The start, snapped onto its segment.
+     * @param route The ids of the vertices passed on the way.
+     * @param dest The destination, snapped onto its segment.
+     * @return The directions, or an empty list if there is no route.
+     */
+    static List<NavigationDirection> routeDirections(GraphDB g, SegmentIndex.Snap st,
+                                                     List<Long> route, SegmentIndex.Snap dest) {
+        RouteOptions.Metric metric = RouteOptions.Metric.DISTANCE;
+        int n = route.size();
+        double[] lons = new double[n + 2];
+        double[] lats = new double[n + 2];
+        String[] ways = new String[n + 1];
+        double[] lengths = new double[n + 1];
+        int legs = 0;
+        lons[0] = st.lon;
+        lats[0] = st.lat;
+        if (n == 0) {
+            if (st.edge != dest.edge) {
+                return new ArrayList<>();
+            }
+            legs = addLeg(lons, lats, ways, lengths, legs, dest.lon, dest.lat,
+                    getWayName(g, st.edge),
+                    Math.abs(st.fraction - dest.fraction) * g.edgeWeight(st.edge));
+            return directions(lons, lats, ways, lengths, legs);
+        }
+
+        int first = g.indexOf(route.get(0));
+        legs = addLeg(lons, lats, ways, lengths, legs, g.lonAt(first), g.latAt(first),
+                getWayName(g, st.edge), first == st.from ? SnappedSearch.toFrom(g, st, metric)
+                        : SnappedSearch.toTo(g, st, metric));
+        for (int i = 1; i < n; i++) {
+            int e = g.edge(route.get(i - 1), route.get(i));
+            legs = addLeg(lons, lats, ways, lengths, legs, g.lon(route.get(i)),
+                    g.lat(route.get(i)), getWayName(g, e),
+                    length(g, e, route.get(i - 1), route.get(i)));
+        }
+        int last = g.indexOf(route.get(n - 1));
+        legs = addLeg(lons, lats, ways, lengths, legs, dest.lon, dest.lat,
+                getWayName(g, dest.edge), last == dest.from ? SnappedSearch.toFrom(g, dest, metric)
+                        : SnappedSearch.toTo(g, dest, metric));
+        return directions(lons, lats, ways, lengths, legs);
+    }
+
+    /**
+     * Appends a leg ending at the given point, unless it has no length, as when a snapped
+     * point lies on a vertex.
+     * @return The number of legs afterwards.
+     */
+    private static int addLeg(double[] lons, double[] lats, String[] ways, double[] lengths,
+                              int legs, double lon, double lat, String way, double length) {
+        if (length <= 0) {
+            return legs;
+        }
+        lons[legs + 1] = lon;
+        lats[legs + 1] = lat;
+        ways[legs] = way;
+        lengths[legs] = length;
+        return legs + 1;
+    }
+
+    /**
+     * Merges consecutive legs on the same way into directions.
+     * @param lons The longitude of each point, legs + 1 of them.
+     * @param lats The latitude of each point.
+     * @param ways The way of the leg from each point to the next.
+     * @param lengths The length of the leg from each point to the next, in miles.
+     * @param legs The number of legs.
+     */
+    private static List<NavigationDirection> directions(double[] lons, double[] lats,
+                                                        String[] ways, double[] lengths,
+                                                        int legs) {
         List<NavigationDirection> results = new ArrayList<>();
+        if (legs < 1) {
+            return results;
+        }
 
         NavigationDirection current = new NavigationDirection();
         current.direction = NavigationDirection.START;
-        current.way = getWayName(g, route.get(0), route.get(1));
-        current.distance += g.distance(route.get(0), route.get(1));
+        current.way = ways[0];
+        current.distance += lengths[0];
 
-        for (int i = 1; i < route.size() - 1; i++) {
-            if (!getWayName(g, route.get(i), route.get(i + 1)).equals(current.way)) {
+        for (int i = 1; i < legs; i++) {
+            if (!ways[i].equals(current.way)) {
                 results.add(current);
                 current = new NavigationDirection();
-                current.way = getWayName(g, route.get(i), route.get(i + 1));
+                current.way = ways[i];
 
-                double prevBearing = g.bearing(route.get(i - 1), route.get(i));
-                double curBearing = g.bearing(route.get(i), route.get(i + 1));
+                double prevBearing = GraphDB.bearing(lons[i - 1], lats[i - 1], lons[i], lats[i]);
+                double curBearing = GraphDB.bearing(lons[i], lats[i], lons[i + 1], lats[i + 1]);
                 current.direction = convertBearingToDirection(prevBearing, curBearing);
             }
-            current.distance += g.distance(route.get(i), route.get(i + 1));
+            current.distance += lengths[i];
         }
         results.add(current);
         return results;
     }
 
-    private static String getWayName(GraphDB g, long node1, long node2) {
-        List<Long> ways1 = g.getWays(node1);
-        List<Long> ways2 = g.getWays(node2);
-
-        List<Long> intersection =
-                ways1.stream().filter(ways2::contains).collect(Collectors.toList());
+    /** Returns the length of edge e between two consecutive route nodes, if there is one. */
+    private static double length(GraphDB g, int e, long v, long w) {
+        return e < 0 ? g.distance(v, w) : g.edgeWeight(e);
+    }
 
-        if (!intersection.isEmpty()) {
-            if (g.getWayName(intersection.get(0)) == null) {
-                return "";
-            } else {
-                return g.getWayName(intersection.get(0));
-            }
+    /** Returns the name of the way edge e belongs to, or "" if it is unnamed or missing. */
+    private static String getWayName(GraphDB g, int e) {
+        if (e < 0 || g.edgeWayName(e) == null) {
+            return "";
         }
-
-        return "";
+        return g.edgeWayName(e);
     }
 
-    private static int convertBearingToDirection(double prevBearing, double curBearing) {
+    static int convertBearingToDirection(double prevBearing, double curBearing) {
         double relativeBearing = curBearing - prevBearing;
         if (relativeBearing > 180) {
             relativeBearing -= 360;
@@ -173,6 +760,19 @@ public class Router {
         }
     }
 
+    /** Receives the vertices of a shortest path tree; see shortestPathTree. */
+    public interface TreeVisitor {
+        /**
+         * Visits one vertex of the tree.
+         * @param id The id of the vertex.
+         * @param distance The cost of the shortest path to it from the origin.
+         * @param parent The id of the vertex before it on that path, or its own id for the
+         *               origin, which is the only vertex that is its own parent. Any long is
+         *               a valid OSM id, so no other value can mark the origin.
+         */
+        void visit(long id, double distance, long parent);
+    }
+
     /**
      * Class to represent a navigation direction, which consists of 3 attributes:
      * a direction to go, a way, and the distance to travel for.
@@ -0,0 +1,737 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measurements for Router on a real or synthetic OSM file. Run with the path of the file as
+ * the first argument (the Berkeley extract by default) and optionally the names of the
+ * sections to run (all of them by default): allocation, frontier, bidirectional, ch, alt,
+ * matrix, batch, turns, snap, labels, arcflags.
+ * Queries are random vertex pairs drawn with a fixed seed, so runs are comparable. Timings are
+ * the best of several rounds after warming up, which is steady enough to compare two
+ * implementations on the same machine.
+ */
+public class RouterBenchmark {
+    private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
+    private static final String PARAMS_FILE = "path_params.txt";
+    private static final int NUM_QUERIES = 2000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int TIMED_ROUNDS = 5;
+    private static final int MATRIX_SIZE = 100;
+
+    public static void main(String[] args) {
+        GraphDB g = new GraphDB(args.length > 0 ? args[0] : OSM_DB_PATH);
+        List<String> sections = Arrays.asList(args).subList(Math.min(1, args.length), args.length);
+        int[][] queries = randomQueries(g, NUM_QUERIES, 17);
+        int[][] params = paramsQueries(g, PARAMS_FILE);
+        int[][] longHaul = longHaulQueries(g, NUM_QUERIES / 4, 23);
+        System.out.println(g.size() + " vertices, " + queries.length + " random queries");
+
+        if (sections.isEmpty() || sections.contains("allocation")) {
+            allocationPerQuery(g, queries);
+        }
+        if (sections.isEmpty() || sections.contains("frontier")) {
+            if (params.length > 0) {
+                frontierComparison(g, PARAMS_FILE, params);
+            }
+            frontierComparison(g, "long-haul pairs", longHaul);
+        }
+        if (sections.isEmpty() || sections.contains("bidirectional")) {
+            if (params.length > 0) {
+                bidirectionalComparison(g, PARAMS_FILE, params);
+            }
+            bidirectionalComparison(g, "long-haul pairs", longHaul);
+        }
+        if (sections.isEmpty() || sections.contains("ch")) {
+            contractionHierarchy(g, queries);
+        }
+        if (sections.isEmpty() || sections.contains("alt")) {
+            Landmarks landmarks = landmarks(g);
+            if (params.length > 0) {
+                altComparison(g, landmarks, PARAMS_FILE, params);
+            }
+            altComparison(g, landmarks, "random pairs", queries);
+            altComparison(g, landmarks, "long-haul pairs", longHaul);
+        }
+        if (sections.isEmpty() || sections.contains("matrix")) {
+            distanceMatrix(g, MATRIX_SIZE);
+        }
+        if (sections.isEmpty() || sections.contains("batch")) {
+            batchScaling(g, queries);
+        }
+        if (sections.isEmpty() || sections.contains("turns")) {
+            turnCosts(g, queries);
+        }
+        if (sections.isEmpty() || sections.contains("snap")) {
+            snapping(g, NUM_QUERIES, 29);
+        }
+        if (sections.isEmpty() || sections.contains("labels")) {
+            hubLabels(g, queries);
+        }
+        if (sections.isEmpty() || sections.contains("arcflags")) {
+            arcFlags(g, queries, longHaul);
+        }
+    }
+
+    /** Returns n random (source, target) pairs of dense vertex indices. */
+    static int[][] randomQueries(GraphDB g, int n, long seed) {
+        Random random = new Random(seed);
+        int[][] queries = new int[n][];
+        for (int i = 0; i < n; i++) {
+            queries[i] = new int[]{random.nextInt(g.size()), random.nextInt(g.size())};
+        }
+        return queries;
+    }
+
+    /**
+     * Returns the queries in a path_params.txt file snapped to their closest vertices, or none
+     * if the file is missing. The file has two comment lines followed by four lines (start
+     * lon, start lat, end lon, end lat) per query.
+     */
+    static int[][] paramsQueries(GraphDB g, String paramsFile) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(paramsFile), Charset.defaultCharset());
+        } catch (IOException e) {
+            return new int[0][];
+        }
+        int n = (lines.size() - 2) / 4;
+        int[][] queries = new int[n][];
+        for (int i = 0; i < n; i++) {
+            int line = 2 + 4 * i;
+            queries[i] = new int[]{
+                g.closestIndex(Double.parseDouble(lines.get(line)),
+                        Double.parseDouble(lines.get(line + 1))),
+                g.closestIndex(Double.parseDouble(lines.get(line + 2)),
+                        Double.parseDouble(lines.get(line + 3)))};
+        }
+        return queries;
+    }
+
+    /**
+     * Returns n random pairs at least half as far apart as the farthest pair found in a
+     * sample, so that each query crosses most of the map.
+     */
+    static int[][] longHaulQueries(GraphDB g, int n, long seed) {
+        Random random = new Random(seed);
+        double farthest = 0;
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            farthest = Math.max(farthest,
+                    g.distanceAt(random.nextInt(g.size()), random.nextInt(g.size())));
+        }
+        int[][] queries = new int[n][];
+        for (int i = 0; i < n; ) {
+            int st = random.nextInt(g.size());
+            int dest = random.nextInt(g.size());
+            if (g.distanceAt(st, dest) >= farthest / 2) {
+                queries[i++] = new int[]{st, dest};
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Compares the time per query of A* with the IndexedHeap frontier against the same search
+     * with the previous java.util.PriorityQueue frontier, which has no decrease-key and so
+     * re-inserts a vertex on every improvement and skips the stale copies when polled.
+     */
+    private static void frontierComparison(GraphDB g, String name, int[][] queries) {
+        LegacySearch legacy = new LegacySearch(g.size());
+        long heapNanos = Long.MAX_VALUE;
+        long legacyNanos = Long.MAX_VALUE;
+        int reached = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int[] q : queries) {
+                SearchWorkspace ws = SearchWorkspace.acquire(g);
+                reached += Router.search(g, q[0], q[1], ws) ? 1 : 0;
+            }
+            long heapRound = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int[] q : queries) {
+                reached -= legacy.search(g, q[0], q[1]) < Double.POSITIVE_INFINITY ? 1 : 0;
+            }
+            long legacyRound = System.nanoTime() - start;
+
+            if (round >= WARMUP_ROUNDS) {
+                heapNanos = Math.min(heapNanos, heapRound);
+                legacyNanos = Math.min(legacyNanos, legacyRound);
+            }
+        }
+        System.out.println(String.format("Frontier, %d queries from %s (reached mismatch %d):",
+                queries.length, name, reached));
+        System.out.println(String.format("  PriorityQueue, lazy deletion: %.1f us/query",
+                legacyNanos / 1000.0 / queries.length));
+        System.out.println(String.format("  IndexedHeap, decrease-key:    %.1f us/query",
+                heapNanos / 1000.0 / queries.length));
+    }
+
+    /**
+     * Compares A* against bidirectional A*: vertices settled and time per query, and the
+     * largest difference in path length, which should be rounding error only.
+     */
+    private static void bidirectionalComparison(GraphDB g, String name, int[][] queries) {
+        long oneWayNanos = Long.MAX_VALUE;
+        long bidirectionalNanos = Long.MAX_VALUE;
+        long oneWaySettled = 0;
+        long bidirectionalSettled = 0;
+        double maxDifference = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            oneWaySettled = 0;
+            bidirectionalSettled = 0;
+            long oneWayRound = 0;
+            long bidirectionalRound = 0;
+            for (int[] q : queries) {
+                long start = System.nanoTime();
+                SearchWorkspace ws = SearchWorkspace.acquire(g);
+                Router.search(g, q[0], q[1], ws);
+                oneWayRound += System.nanoTime() - start;
+                oneWaySettled += ws.settledCount();
+                double length = ws.distTo(q[1]);
+
+                start = System.nanoTime();
+                SearchWorkspace forward = SearchWorkspace.acquire(g, SearchWorkspace.FORWARD);
+                SearchWorkspace backward = SearchWorkspace.acquire(g, SearchWorkspace.BACKWARD);
+                int meet = Router.searchBidirectional(g, q[0], q[1], forward, backward,
+                        null, null, RouteOptions.Metric.DISTANCE, null);
+                bidirectionalRound += System.nanoTime() - start;
+                bidirectionalSettled += forward.settledCount() + backward.settledCount();
+                if (meet >= 0) {
+                    double difference = forward.distTo(meet) + backward.distTo(meet) - length;
+                    maxDifference = Math.max(maxDifference, Math.abs(difference));
+                }
+            }
+            if (round >= WARMUP_ROUNDS) {
+                oneWayNanos = Math.min(oneWayNanos, oneWayRound);
+                bidirectionalNanos = Math.min(bidirectionalNanos, bidirectionalRound);
+            }
+        }
+        System.out.println(String.format("Bidirectional, %d queries from %s "
+                + "(max length difference %.2e):", queries.length, name, maxDifference));
+        System.out.println(String.format("  A*:               %8d settled/query, %.1f us/query",
+                oneWaySettled / queries.length, oneWayNanos / 1000.0 / queries.length));
+        System.out.println(String.format("  bidirectional A*: %8d settled/query, %.1f us/query",
+                bidirectionalSettled / queries.length,
+                bidirectionalNanos / 1000.0 / queries.length));
+    }
+
+    /**
+     * Reports the preprocessing time and size of a ContractionHierarchy, and compares its query
+     * time and settled counts against A*, including path unpacking for both.
+     */
+    private static void contractionHierarchy(GraphDB g, int[][] queries) {
+        long start = System.nanoTime();
+        ContractionHierarchy ch = ContractionHierarchy.build(g);
+        long buildNanos = System.nanoTime() - start;
+        System.out.println(String.format("Contraction hierarchy: built in %.1f s, %d upward "
+                + "edges of which %d shortcuts (graph has %d edges)", buildNanos / 1e9,
+                ch.edgeCount(), ch.shortcutCount(), g.edgeCount()));
+
+        long astarNanos = Long.MAX_VALUE;
+        long chNanos = Long.MAX_VALUE;
+        long astarSettled = 0;
+        long chSettled = 0;
+        int mismatches = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            astarSettled = 0;
+            chSettled = 0;
+            mismatches = 0;
+            long astarRound = 0;
+            long chRound = 0;
+            for (int[] q : queries) {
+                start = System.nanoTime();
+                SearchWorkspace ws = SearchWorkspace.acquire(g);
+                Router.search(g, q[0], q[1], ws);
+                List<Long> expected = ws.path(g, q[0], q[1]);
+                astarRound += System.nanoTime() - start;
+                astarSettled += ws.settledCount();
+
+                start = System.nanoTime();
+                SearchWorkspace forward = SearchWorkspace.acquire(g, SearchWorkspace.FORWARD);
+                SearchWorkspace backward = SearchWorkspace.acquire(g, SearchWorkspace.BACKWARD);
+                int meet = ch.search(q[0], q[1], forward, backward);
+                List<Long> actual = ch.path(g, q[0], meet, forward, backward);
+                chRound += System.nanoTime() - start;
+                chSettled += forward.settledCount() + backward.settledCount();
+                mismatches += expected.equals(actual) ? 0 : 1;
+            }
+            if (round >= WARMUP_ROUNDS) {
+                astarNanos = Math.min(astarNanos, astarRound);
+                chNanos = Math.min(chNanos, chRound);
+            }
+        }
+        System.out.println(String.format("Contraction hierarchy, %d random queries "
+                + "(%d paths differ from A*):", queries.length, mismatches));
+        System.out.println(String.format("  A*: %8d settled/query, %.1f us/query",
+                astarSettled / queries.length, astarNanos / 1000.0 / queries.length));
+        System.out.println(String.format("  CH: %8d settled/query, %.1f us/query",
+                chSettled / queries.length, chNanos / 1000.0 / queries.length));
+    }
+
+    /** Builds the default number of landmarks and reports how long it took. */
+    private static Landmarks landmarks(GraphDB g) {
+        long start = System.nanoTime();
+        Landmarks landmarks = Landmarks.build(g, Landmarks.DEFAULT_COUNT);
+        System.out.println(String.format("Landmarks: %d built in %.2f s, %d bytes",
+                landmarks.count(), (System.nanoTime() - start) / 1e9,
+                landmarks.footprintBytes()));
+        return landmarks;
+    }
+
+    /**
+     * Compares A* with the great-circle heuristic against A* with the ALT heuristic: vertices
+     * settled and time per query, and the largest difference in path length.
+     */
+    private static void altComparison(GraphDB g, Landmarks landmarks, String name,
+                                      int[][] queries) {
+        long haversineNanos = Long.MAX_VALUE;
+        long altNanos = Long.MAX_VALUE;
+        long haversineSettled = 0;
+        long altSettled = 0;
+        double maxDifference = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            haversineSettled = 0;
+            altSettled = 0;
+            long haversineRound = 0;
+            long altRound = 0;
+            for (int[] q : queries) {
+                long start = System.nanoTime();
+                SearchWorkspace ws = SearchWorkspace.acquire(g);
+                Router.search(g, q[0], q[1], ws);
+                haversineRound += System.nanoTime() - start;
+                haversineSettled += ws.settledCount();
+                double length = ws.distTo(q[1]);
+
+                start = System.nanoTime();
+                ws = SearchWorkspace.acquire(g);
+                Router.search(g, q[0], q[1], ws, landmarks.boundTo(q[0], q[1]),
+                        RouteOptions.Metric.DISTANCE, null);
+                altRound += System.nanoTime() - start;
+                altSettled += ws.settledCount();
+                if (length < Double.POSITIVE_INFINITY) {
+                    maxDifference = Math.max(maxDifference, Math.abs(ws.distTo(q[1]) - length));
+                }
+            }
+            if (round >= WARMUP_ROUNDS) {
+                haversineNanos = Math.min(haversineNanos, haversineRound);
+                altNanos = Math.min(altNanos, altRound);
+            }
+        }
+        System.out.println(String.format("ALT, %d queries from %s (max length difference %.2e):",
+                queries.length, name, maxDifference));
+        System.out.println(String.format("  great-circle: %8d settled/query, %.1f us/query",
+                haversineSettled / queries.length, haversineNanos / 1000.0 / queries.length));
+        System.out.println(String.format("  landmarks:    %8d settled/query, %.1f us/query",
+                altSettled / queries.length, altNanos / 1000.0 / queries.length));
+    }
+
+    /**
+     * Compares a size x size Router.distanceMatrix against the same distances from one
+     * point-to-point contraction hierarchy query per pair, and checks a sample against A*.
+     */
+    private static void distanceMatrix(GraphDB g, int size) {
+        Random random = new Random(29);
+        double[][] sources = new double[size][];
+        double[][] targets = new double[size][];
+        int[] sourceNodes = new int[size];
+        int[] targetNodes = new int[size];
+        for (int i = 0; i < size; i++) {
+            sourceNodes[i] = random.nextInt(g.size());
+            targetNodes[i] = random.nextInt(g.size());
+            sources[i] = new double[]{g.lon(g.idOf(sourceNodes[i])), g.lat(g.idOf(sourceNodes[i]))};
+            targets[i] = new double[]{g.lon(g.idOf(targetNodes[i])), g.lat(g.idOf(targetNodes[i]))};
+        }
+        ContractionHierarchy ch = g.contractionHierarchy();
+
+        long matrixNanos = Long.MAX_VALUE;
+        long pairNanos = Long.MAX_VALUE;
+        double[] distances = null;
+        double maxDifference = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            distances = Router.distanceMatrix(g, sources, targets);
+            long matrixRound = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    SearchWorkspace forward = SearchWorkspace.acquire(g, SearchWorkspace.FORWARD);
+                    SearchWorkspace backward =
+                            SearchWorkspace.acquire(g, SearchWorkspace.BACKWARD);
+                    int meet = ch.search(sourceNodes[i], targetNodes[j], forward, backward);
+                    if (meet >= 0) {
+                        double dist = forward.distTo(meet) + backward.distTo(meet);
+                        maxDifference = Math.max(maxDifference,
+                                Math.abs(dist - distances[i * size + j]));
+                    }
+                }
+            }
+            long pairRound = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                matrixNanos = Math.min(matrixNanos, matrixRound);
+                pairNanos = Math.min(pairNanos, pairRound);
+            }
+        }
+
+        double maxAStarDifference = 0;
+        for (int i = 0; i < size; i += 10) {
+            SearchWorkspace ws = SearchWorkspace.acquire(g);
+            Router.search(g, sourceNodes[i], targetNodes[i], ws);
+            if (ws.distTo(targetNodes[i]) < Double.POSITIVE_INFINITY) {
+                maxAStarDifference = Math.max(maxAStarDifference,
+                        Math.abs(ws.distTo(targetNodes[i]) - distances[i * size + i]));
+            }
+        }
+        System.out.println(String.format("Distance matrix, %d x %d on %d cores (max difference "
+                + "%.2e from CH queries, %.2e from A*):", size, size,
+                Runtime.getRuntime().availableProcessors(), maxDifference, maxAStarDifference));
+        System.out.println(String.format("  one CH query per pair: %.1f ms", pairNanos / 1e6));
+        System.out.println(String.format("  distanceMatrix:        %.1f ms", matrixNanos / 1e6));
+    }
+
+    /**
+     * Reports the throughput of Router.shortestPaths on the queries, with contraction hierarchy
+     * searches, in ForkJoinPools of 1, 2, 4, ... threads up to the number of cores, and the
+     * speedup of each over a single thread.
+     */
+    private static void batchScaling(GraphDB g, int[][] queries) {
+        double[][] trips = new double[queries.length][];
+        for (int i = 0; i < queries.length; i++) {
+            trips[i] = new double[]{g.lonAt(queries[i][0]), g.latAt(queries[i][0]),
+                g.lonAt(queries[i][1]), g.latAt(queries[i][1])};
+        }
+        RouteOptions options = new RouteOptions();
+        options.algorithm = RouteOptions.Algorithm.CH;
+        g.contractionHierarchy();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println(String.format("Batch routing, %d random trips on %d cores:",
+                trips.length, cores));
+        double singleNanos = 0;
+        for (int threads = 1; threads <= cores; threads = threads < cores
+                ? Math.min(threads * 2, cores) : threads + 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long bestNanos = Long.MAX_VALUE;
+            long[] routed = new long[1];
+            try {
+                for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+                    routed[0] = 0;
+                    long start = System.nanoTime();
+                    // A parallel stream started from a pool's task runs in that pool.
+                    pool.submit(() -> Router.shortestPaths(g, trips, options,
+                            path -> routed[0]++)).get();
+                    if (round >= WARMUP_ROUNDS) {
+                        bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+                    }
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+                return;
+            } finally {
+                pool.shutdown();
+            }
+            if (threads == 1) {
+                singleNanos = bestNanos;
+            }
+            System.out.println(String.format("  %2d threads: %8.0f trips/s, %.2fx", threads,
+                    routed[0] * 1e9 / bestNanos, singleNanos / bestNanos));
+        }
+    }
+
+    /**
+     * A* as it was before IndexedHeap, kept here only as the baseline for the comparison. It
+     * resets by generation like SearchWorkspace, so that only the frontier differs.
+     */
+    private static class LegacySearch {
+        private final double[] distTo;
+        private final double[] priority;
+        private final boolean[] settled;
+        private final int[] stamp;
+        private int generation;
+        private final PriorityQueue<Integer> pq;
+
+        LegacySearch(int size) {
+            distTo = new double[size];
+            priority = new double[size];
+            settled = new boolean[size];
+            stamp = new int[size];
+            pq = new PriorityQueue<>((v, w) -> Double.compare(priority[v], priority[w]));
+        }
+
+        double search(GraphDB g, int st, int dest) {
+            generation++;
+            pq.clear();
+            reach(st, 0, 0);
+            pq.add(st);
+            while (!pq.isEmpty()) {
+                int v = pq.poll();
+                if (settled[v]) {
+                    continue;
+                }
+                if (v == dest) {
+                    break;
+                }
+                settled[v] = true;
+                for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                    int w = g.edgeTarget(e);
+                    double dist = distTo[v] + g.edgeWeight(e);
+                    if (stamp[w] != generation || dist < distTo[w]) {
+                        reach(w, dist, dist + g.distanceAt(w, dest));
+                        pq.add(w);
+                    }
+                }
+            }
+            return stamp[dest] == generation ? distTo[dest] : Double.POSITIVE_INFINITY;
+        }
+
+        private void reach(int v, double dist, double newPriority) {
+            if (stamp[v] != generation) {
+                stamp[v] = generation;
+                settled[v] = false;
+            }
+            distTo[v] = dist;
+            priority[v] = newPriority;
+        }
+    }
+
+    /**
+     * Compares the bytes allocated per query by a fresh SearchWorkspace per query against a
+     * pooled, generation-stamped one.
+     */
+    /**
+     * Compares the edge-based search with turn costs against node-based A*: the memory of the
+     * search workspace, time per query and states settled per query.
+     */
+    private static void turnCosts(GraphDB g, int[][] queries) {
+        long nodeNanos = Long.MAX_VALUE;
+        long edgeNanos = Long.MAX_VALUE;
+        long nodeSettled = 0;
+        long edgeSettled = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            nodeSettled = 0;
+            edgeSettled = 0;
+            long nodeRound = 0;
+            long edgeRound = 0;
+            for (int[] q : queries) {
+                long start = System.nanoTime();
+                SearchWorkspace ws = SearchWorkspace.acquire(g);
+                Router.search(g, q[0], q[1], ws);
+                nodeRound += System.nanoTime() - start;
+                nodeSettled += ws.settledCount();
+
+                start = System.nanoTime();
+                ws = SearchWorkspace.acquire(g, SearchWorkspace.EDGES);
+                EdgeBasedSearch.shortestPath(g, q[0], q[1], null, RouteOptions.Metric.DISTANCE, ws);
+                edgeRound += System.nanoTime() - start;
+                edgeSettled += ws.settledCount();
+            }
+            if (round >= WARMUP_ROUNDS) {
+                nodeNanos = Math.min(nodeNanos, nodeRound);
+                edgeNanos = Math.min(edgeNanos, edgeRound);
+            }
+        }
+        System.out.println(String.format("Turn costs, %d random queries:", queries.length));
+        System.out.println(String.format("  node-based A*: %8d settled/query, %.1f us/query, "
+                + "%d KB workspace", nodeSettled / queries.length,
+                nodeNanos / 1000.0 / queries.length,
+                SearchWorkspace.acquire(g).footprintBytes() / 1024));
+        System.out.println(String.format("  edge-based A*: %8d settled/query, %.1f us/query, "
+                + "%d KB workspace", edgeSettled / queries.length,
+                edgeNanos / 1000.0 / queries.length,
+                SearchWorkspace.acquire(g, SearchWorkspace.EDGES).footprintBytes() / 1024));
+    }
+
+    /**
+     * Compares the time to snap n random locations inside the map onto the closest road
+     * segment against snapping them to the closest vertex, with the average distance each
+     * moves the locations, and reports the size of the segment grid.
+     */
+    private static void snapping(GraphDB g, int n, long seed) {
+        Random random = new Random(seed);
+        double[][] points = new double[n][];
+        for (int i = 0; i < n; i++) {
+            int v = random.nextInt(g.size());
+            int w = random.nextInt(g.size());
+            double t = random.nextDouble();
+            points[i] = new double[]{g.lonAt(v) + t * (g.lonAt(w) - g.lonAt(v)),
+                g.latAt(v) + t * (g.latAt(w) - g.latAt(v))};
+        }
+        long vertexNanos = Long.MAX_VALUE;
+        long segmentNanos = Long.MAX_VALUE;
+        double vertexMiles = 0;
+        double segmentMiles = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            vertexMiles = 0;
+            segmentMiles = 0;
+            long start = System.nanoTime();
+            for (double[] p : points) {
+                int v = g.closestIndex(p[0], p[1]);
+                vertexMiles += GraphDB.distance(p[0], p[1], g.lonAt(v), g.latAt(v));
+            }
+            long vertexRound = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (double[] p : points) {
+                segmentMiles += g.closestSegment(p[0], p[1]).distance;
+            }
+            long segmentRound = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                vertexNanos = Math.min(vertexNanos, vertexRound);
+                segmentNanos = Math.min(segmentNanos, segmentRound);
+            }
+        }
+        System.out.println(String.format("Snapping, %d random locations:", n));
+        System.out.println(String.format("  closest vertex:  %.2f us/lookup, %.1f ft away",
+                vertexNanos / 1000.0 / n, vertexMiles * 5280 / n));
+        System.out.println(String.format("  closest segment: %.2f us/lookup, %.1f ft away, "
+                + "%d KB grid", segmentNanos / 1000.0 / n, segmentMiles * 5280 / n,
+                g.segmentIndexFootprintBytes() / 1024));
+    }
+
+    private static void hubLabels(GraphDB g, int[][] queries) {
+        ContractionHierarchy ch = g.contractionHierarchy();
+        long start = System.nanoTime();
+        HubLabels labels = HubLabels.build(g, ch);
+        long buildNanos = System.nanoTime() - start;
+        int largest = 0;
+        for (int v = 0; v < g.size(); v++) {
+            largest = Math.max(largest, labels.labelSize(v));
+        }
+
+        long labelNanos = Long.MAX_VALUE;
+        long chNanos = Long.MAX_VALUE;
+        int unreachable = 0;
+        int mismatches = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            unreachable = 0;
+            mismatches = 0;
+            double[] expected = new double[queries.length];
+            start = System.nanoTime();
+            for (int i = 0; i < queries.length; i++) {
+                SearchWorkspace forward = SearchWorkspace.acquire(g, SearchWorkspace.FORWARD);
+                SearchWorkspace backward = SearchWorkspace.acquire(g, SearchWorkspace.BACKWARD);
+                int meet = ch.search(queries[i][0], queries[i][1], forward, backward);
+                expected[i] = meet < 0 ? Double.POSITIVE_INFINITY
+                        : forward.distTo(meet) + backward.distTo(meet);
+            }
+            long chRound = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int[] q : queries) {
+                unreachable += labels.distance(q[0], q[1]) == Double.POSITIVE_INFINITY ? 1 : 0;
+            }
+            long labelRound = System.nanoTime() - start;
+            for (int i = 0; i < queries.length; i++) {
+                double actual = labels.distance(queries[i][0], queries[i][1]);
+                mismatches += actual == expected[i] || Math.abs(actual - expected[i]) < 1e-9
+                        ? 0 : 1;
+            }
+            if (round >= WARMUP_ROUNDS) {
+                labelNanos = Math.min(labelNanos, labelRound);
+                chNanos = Math.min(chNanos, chRound);
+            }
+        }
+        System.out.println(String.format("Hub labels: built in %.1f s, %.1f hubs/vertex "
+                + "(largest %d), %d MB", buildNanos / 1e9,
+                (double) labels.hubCount() / g.size(), largest,
+                labels.footprintBytes() / (1024 * 1024)));
+        System.out.println(String.format("Distances, %d random queries (%d differ from CH, "
+                + "%d unreachable):", queries.length, mismatches, unreachable));
+        System.out.println(String.format("  CH search:   %.2f us/query",
+                chNanos / 1000.0 / queries.length));
+        System.out.println(String.format("  label merge: %.2f us/query",
+                labelNanos / 1000.0 / queries.length));
+    }
+
+    private static void allocationPerQuery(GraphDB g, int[][] queries) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long freshBytes = 0;
+        long pooledBytes = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long start = threads.getThreadAllocatedBytes(thread);
+            for (int[] q : queries) {
+                SearchWorkspace ws = new SearchWorkspace(g.size());
+                Router.search(g, q[0], q[1], ws);
+                ws.path(g, q[0], q[1]);
+            }
+            freshBytes = threads.getThreadAllocatedBytes(thread) - start;
+
+            start = threads.getThreadAllocatedBytes(thread);
+            for (int[] q : queries) {
+                SearchWorkspace ws = SearchWorkspace.acquire(g);
+                Router.search(g, q[0], q[1], ws);
+                ws.path(g, q[0], q[1]);
+            }
+            pooledBytes = threads.getThreadAllocatedBytes(thread) - start;
+        }
+        System.out.println("Allocation per query:");
+        System.out.println(String.format("  new workspace per query: %d bytes",
+                freshBytes / queries.length));
+        System.out.println(String.format("  pooled workspace:        %d bytes",
+                pooledBytes / queries.length));
+    }
+
+    /**
+     * Computes the arc flags of g, then compares A* with and without them, with the great-circle
+     * and the ALT heuristic: vertices settled and time per query, and the largest difference
+     * in path length.
+     */
+    private static void arcFlags(GraphDB g, int[][] queries, int[][] longHaul) {
+        long start = System.nanoTime();
+        ArcFlags flags = ArcFlags.build(g, ArcFlags.DEFAULT_CELLS);
+        System.out.println(String.format("Arc flags: %d cells built in %.2f s, %.1f%% set",
+                flags.cellCount(), (System.nanoTime() - start) / 1e9, 100 * flags.density()));
+        Landmarks landmarks = g.landmarks();
+        for (int[][] pairs : new int[][][]{queries, longHaul}) {
+            long[] nanos = new long[4];
+            long[] settled = new long[4];
+            Arrays.fill(nanos, Long.MAX_VALUE);
+            double maxDifference = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+                Arrays.fill(settled, 0);
+                long[] roundNanos = new long[4];
+                for (int[] q : pairs) {
+                    double length = Double.NaN;
+                    for (int k = 0; k < 4; k++) {
+                        start = System.nanoTime();
+                        SearchWorkspace ws = SearchWorkspace.acquire(g);
+                        Router.search(g, q[0], q[1], ws,
+                                k < 2 ? null : landmarks.boundTo(q[0], q[1]),
+                                RouteOptions.Metric.DISTANCE, k % 2 == 0 ? null : flags);
+                        roundNanos[k] += System.nanoTime() - start;
+                        settled[k] += ws.settledCount();
+                        if (k == 0) {
+                            length = ws.distTo(q[1]);
+                        } else if (length < Double.POSITIVE_INFINITY) {
+                            maxDifference = Math.max(maxDifference,
+                                    Math.abs(ws.distTo(q[1]) - length));
+                        }
+                    }
+                }
+                if (round >= WARMUP_ROUNDS) {
+                    for (int k = 0; k < 4; k++) {
+                        nanos[k] = Math.min(nanos[k], roundNanos[k]);
+                    }
+                }
+            }
+            System.out.println(String.format("Arc flags, %d %s queries (max length difference"
+                    + " %.2e):", pairs.length, pairs == queries ? "random" : "long-haul",
+                    maxDifference));
+            String[] names = {"great-circle:", "  + arc flags:", "landmarks:", "  + arc flags:"};
+            for (int k = 0; k < 4; k++) {
+                System.out.println(String.format("  %-14s %8d settled/query, %.1f us/query",
+                        names[k], settled[k] / pairs.length, nanos[k] / 1000.0 / pairs.length));
+            }
+        }
+    }
+}
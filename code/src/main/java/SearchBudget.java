@@ -0,0 +1,148 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Limits on the work a routing query may do: how many entries its searches may settle, and how
+ * long it may run. The component check already answers a query between islands at once, but a
+ * query can still be slow, like an A* search misled by a far-off click or a time-metric search
+ * with a weak bound. Without a limit, such a query holds a server thread for as long as it
+ * takes. MapServer gives each endpoint its own budget, which counts the queries it stops.
+ *
+ * The limits are enforced through the workspaces, so no search loop checks them itself.
+ * Router opens a Run for each query. Every workspace the thread acquires while the run is open
+ * charges the run for each vertex, or edge for an EdgeBasedSearch, that it settles. The
+ * entries settled by all of the query's searches together count against the limit, and
+ * once a limit is passed the run throws an ExceededException out of the search. The clock is
+ * only read every CLOCK_INTERVAL settles, so the deadline costs next to nothing on the hot path
+ * and may be overrun by the time those take, a few microseconds.
+ */
+public class SearchBudget {
+    /** A budget without limits, the default of RouteOptions. */
+    static final SearchBudget UNLIMITED = new SearchBudget(Integer.MAX_VALUE, Long.MAX_VALUE);
+    /** The number of settles between two readings of the clock. */
+    private static final int CLOCK_INTERVAL = 256;
+    private static final ThreadLocal<Run> CURRENT = new ThreadLocal<>();
+
+    /** Why a query was stopped. */
+    public enum Reason {
+        /** Its searches settled more entries than the budget allows. */
+        SETTLED_LIMIT,
+        /** It ran past its deadline. */
+        DEADLINE;
+
+        /** Returns the name of the reason as MapServer reports it, e.g. settled_limit. */
+        public String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    /** The largest number of entries the searches of a query may settle. */
+    final int maxSettled;
+    /** The longest a query may run, in milliseconds, or Long.MAX_VALUE for no limit. */
+    final long timeoutMillis;
+    /** The number of queries stopped for each Reason, by ordinal. */
+    private final AtomicLongArray trips;
+
+    /**
+     * Creates a budget that has not stopped any query yet.
+     * @param maxSettled The largest number of entries the searches of a query may settle.
+     * @param timeoutMillis The longest a query may run, in milliseconds, or Long.MAX_VALUE for
+     *                      no limit.
+     */
+    public SearchBudget(int maxSettled, long timeoutMillis) {
+        this(maxSettled, timeoutMillis, new AtomicLongArray(Reason.values().length));
+    }
+
+    private SearchBudget(int maxSettled, long timeoutMillis, AtomicLongArray trips) {
+        this.maxSettled = maxSettled;
+        this.timeoutMillis = timeoutMillis;
+        this.trips = trips;
+    }
+
+    /**
+     * Returns a budget with limits no looser than this one's, which counts the queries it stops
+     * together with this one, e.g. for a request asking for tighter limits than its endpoint's.
+     */
+    SearchBudget tighten(int maxSettled, long timeoutMillis) {
+        return new SearchBudget(Math.min(this.maxSettled, maxSettled),
+                Math.min(this.timeoutMillis, timeoutMillis), trips);
+    }
+
+    /** Returns the number of queries stopped for the given reason. */
+    long trips(Reason reason) {
+        return trips.get(reason.ordinal());
+    }
+
+    /**
+     * Opens a run of this budget on the calling thread, which the workspaces it acquires charge
+     * until the run is closed. The clock starts now, so callers build the preprocessing a
+     * query needs, like landmarks or arc flags, before they open its run.
+     * @return The run, to be closed when the query is done, in a finally block.
+     */
+    Run start() {
+        Run run = new Run(this, CURRENT.get());
+        CURRENT.set(run);
+        return run;
+    }
+
+    /** Returns the run open on the calling thread, or null if there is none. */
+    static Run current() {
+        return CURRENT.get();
+    }
+
+    /** The spending of one query against a budget. */
+    static final class Run implements AutoCloseable {
+        private final SearchBudget budget;
+        private final Run previous;
+        private final long deadline;
+        private int settled;
+
+        private Run(SearchBudget budget, Run previous) {
+            this.budget = budget;
+            this.previous = previous;
+            this.deadline = budget.timeoutMillis == Long.MAX_VALUE ? 0
+                    : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget.timeoutMillis);
+        }
+
+        /**
+         * Charges one settled entry.
+         * @throws ExceededException If that passes a limit.
+         */
+        void charge() {
+            settled++;
+            if (settled > budget.maxSettled) {
+                trip(Reason.SETTLED_LIMIT);
+            }
+            if (settled % CLOCK_INTERVAL == 0 && budget.timeoutMillis != Long.MAX_VALUE
+                    && System.nanoTime() - deadline > 0) {
+                trip(Reason.DEADLINE);
+            }
+        }
+
+        private void trip(Reason reason) {
+            budget.trips.incrementAndGet(reason.ordinal());
+            throw new ExceededException(reason, settled);
+        }
+
+        /** Ends the run, reopening the one that was open on the thread before it, if any. */
+        @Override
+        public void close() {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /** Thrown out of a search when its query passes a limit of its budget. */
+    public static class ExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final Reason reason;
+
+        ExceededException(Reason reason, int settled) {
+            super("Search stopped after settling " + settled + " entries: " + reason.label());
+            this.reason = reason;
+        }
+    }
+}
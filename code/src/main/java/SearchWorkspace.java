@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The mutable state of a single shortest-path search, indexed by dense vertex index: the best
+ * known distance to each vertex, the vertex it was reached from, whether it has been settled,
+ * and the frontier, an IndexedHeap keyed by A* priority. GraphDB itself is never written to by
+ * a search, so any number of searches can run concurrently as long as each has its own
+ * workspace.
+ *
+ * Workspaces are pooled per thread and reused across queries, one per search direction, so a
+ * bidirectional search can hold a forward and a backward workspace at once. Instead of
+ * clearing its arrays, a workspace bumps a generation counter on reset(); an entry whose stamp
+ * is from an older generation reads as unreached (infinite distance, no parent, not
+ * settled). A query therefore only touches the entries of the vertices it actually reaches.
+ *
+ * A workspace acquired while a SearchBudget run is open on the thread charges that run for
+ * every entry it settles.
+ */
+public class SearchWorkspace {
+    /**
+     * Pool slots: a one-way search uses FORWARD, a bidirectional one also BACKWARD. An
+     * EdgeBasedSearch uses EDGES, whose workspace is indexed by edge rather than by vertex.
+     */
+    static final int FORWARD = 0;
+    static final int BACKWARD = 1;
+    static final int EDGES = 2;
+    private static final ThreadLocal<SearchWorkspace[]> POOL =
+            ThreadLocal.withInitial(() -> new SearchWorkspace[3]);
+
+    private final double[] distTo;
+    private final int[] edgeTo;
+    private final boolean[] settled;
+    private final int[] stamp;
+    private int generation;
+    private int settledCount;
+    /** The run this workspace charges, or null; set when the workspace is acquired. */
+    private SearchBudget.Run budget;
+    final IndexedHeap heap;
+
+    /**
+     * Creates a workspace for a graph, with every vertex unreached.
+     * @param size The number of vertices in the graph.
+     */
+    public SearchWorkspace(int size) {
+        distTo = new double[size];
+        edgeTo = new int[size];
+        settled = new boolean[size];
+        stamp = new int[size];
+        generation = 1;
+        heap = new IndexedHeap(size);
+    }
+
+    /** Returns this thread's forward workspace for g, reset for a new query. */
+    static SearchWorkspace acquire(GraphDB g) {
+        return acquire(g, FORWARD);
+    }
+
+    /**
+     * Returns this thread's workspace for g in the given slot, reset for a new query. A
+     * workspace is only reused while it has the right size, so reloading the graph replaces it.
+     * @param g The graph to be searched.
+     * @param slot FORWARD, BACKWARD or EDGES.
+     * @return A reset workspace owned by the calling thread.
+     */
+    static SearchWorkspace acquire(GraphDB g, int slot) {
+        SearchWorkspace[] pool = POOL.get();
+        SearchWorkspace ws = pool[slot];
+        int size = slot == EDGES ? g.edgeCount() : g.size();
+        if (ws == null || ws.size() != size) {
+            ws = new SearchWorkspace(size);
+            pool[slot] = ws;
+        } else {
+            ws.reset();
+        }
+        ws.budget = SearchBudget.current();
+        return ws;
+    }
+
+    /** Marks every vertex unreached in O(1), by moving to a new generation. */
+    void reset() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        settledCount = 0;
+        heap.clear();
+    }
+
+    int size() {
+        return stamp.length;
+    }
+
+    /** Returns the number of bytes held by the per-entry arrays, heap positions included. */
+    long footprintBytes() {
+        return (long) size() * (Double.BYTES + 3 * Integer.BYTES + 1);
+    }
+
+    /** Returns the best known distance to v, or infinity if v is unreached. */
+    double distTo(int v) {
+        return stamp[v] == generation ? distTo[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Returns the vertex v was reached from, or -1 if v is unreached or the source. */
+    int edgeTo(int v) {
+        return stamp[v] == generation ? edgeTo[v] : -1;
+    }
+
+    boolean isSettled(int v) {
+        return stamp[v] == generation && settled[v];
+    }
+
+    /** Records a new best distance to v, reached from parent. */
+    void reach(int v, double dist, int parent) {
+        if (stamp[v] != generation) {
+            stamp[v] = generation;
+            settled[v] = false;
+        }
+        distTo[v] = dist;
+        edgeTo[v] = parent;
+    }
+
+    /**
+     * Marks a reached vertex settled.
+     * @throws SearchBudget.ExceededException If that passes a limit of the budget charged.
+     */
+    void settle(int v) {
+        settled[v] = true;
+        settledCount++;
+        if (budget != null) {
+            budget.charge();
+        }
+    }
+
+    /** Returns the number of vertices settled since the last reset. */
+    int settledCount() {
+        return settledCount;
+    }
+
+    /**
+     * Follows edgeTo back from dest to st.
+     * @param g The graph that was searched.
+     * @return The ids of the vertices from st to dest, or an empty list if dest was not reached.
+     */
+    List<Long> path(GraphDB g, int st, int dest) {
+        List<Long> results = new ArrayList<>();
+        for (int v = dest; v != st; v = edgeTo(v)) {
+            if (edgeTo(v) < 0) {
+                return new ArrayList<>();
+            }
+            results.add(g.idOf(v));
+        }
+        results.add(g.idOf(st));
+        Collections.reverse(results);
+        return results;
+    }
+}
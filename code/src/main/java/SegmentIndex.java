@@ -0,0 +1,252 @@
+import java.util.function.IntPredicate;
+
+/**
+ * Nearest-segment lookups over the roads of a CsrGraph, so that a location snaps onto the road
+ * it is on rather than to the closest intersection, which on a long block can be far away or
+ * on the wrong street. Each road segment, an edge stored once each way, is listed in every
+ * cell of a uniform grid that its bounding box touches; the lists are kept in CSR form like
+ * the graph itself, cellEdges[cellOffsets[c]] through cellEdges[cellOffsets[c + 1] - 1], with
+ * the source of each edge alongside in cellSources, which the CSR layout does not store. The
+ * grid is sized for a couple of segments per cell. A lookup scans rings of cells around the
+ * query point, nearest first, and stops as soon as the cells not yet scanned are all farther
+ * away than the closest segment found.
+ *
+ * Distances to a segment are measured in an equirectangular projection centered on the query
+ * point, which is exact enough over the length of a street block.
+ */
+public class SegmentIndex {
+    /** Miles per degree of latitude, for the earth radius GraphDB.distance uses. */
+    private static final double MILES_PER_DEGREE = Math.toRadians(3963);
+    /** The average number of segments per cell the grid is sized for. */
+    private static final int SEGMENTS_PER_CELL = 2;
+
+    private final CsrGraph g;
+    private final double minLon;
+    private final double minLat;
+    private final double cellLon;
+    private final double cellLat;
+    private final int columns;
+    private final int rows;
+    private final int[] cellOffsets;
+    private final int[] cellEdges;
+    private final int[] cellSources;
+
+    /**
+     * Builds the grid over every segment of a graph.
+     * @param g The graph; the index refers to its edges and coordinates.
+     */
+    SegmentIndex(CsrGraph g) {
+        this.g = g;
+        double west = Double.POSITIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+        double south = Double.POSITIVE_INFINITY;
+        double north = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < g.size(); v++) {
+            west = Math.min(west, g.lons[v]);
+            east = Math.max(east, g.lons[v]);
+            south = Math.min(south, g.lats[v]);
+            north = Math.max(north, g.lats[v]);
+        }
+        if (g.size() == 0) {
+            west = 0;
+            east = 0;
+            south = 0;
+            north = 0;
+        }
+
+        // Square cells, in miles, about SEGMENTS_PER_CELL segments each on average.
+        double cosLat = Math.cos(Math.toRadians((south + north) / 2));
+        double width = (east - west) * cosLat;
+        double height = north - south;
+        int cells = Math.max(1, g.edgeCount() / 2 / SEGMENTS_PER_CELL);
+        double side = Math.max(Math.sqrt(width * height / cells),
+                Math.max(width, height) / cells);
+        if (!(side > 0)) {
+            side = 1;
+        }
+        minLon = west;
+        minLat = south;
+        cellLat = side;
+        cellLon = side / cosLat;
+        columns = column(east) + 1;
+        rows = row(north) + 1;
+
+        cellOffsets = new int[columns * rows + 1];
+        int[] edges = null;
+        int[] sources = null;
+        for (int pass = 0; pass < 2; pass++) {
+            int[] fill = pass == 0 ? null : cellOffsets.clone();
+            for (int v = 0; v < g.size(); v++) {
+                for (int e = g.offsets[v]; e < g.offsets[v + 1]; e++) {
+                    int w = g.targets[e];
+                    if (w < v) {
+                        continue;
+                    }
+                    int x0 = column(Math.min(g.lons[v], g.lons[w]));
+                    int x1 = column(Math.max(g.lons[v], g.lons[w]));
+                    int y0 = row(Math.min(g.lats[v], g.lats[w]));
+                    int y1 = row(Math.max(g.lats[v], g.lats[w]));
+                    for (int y = y0; y <= y1; y++) {
+                        for (int x = x0; x <= x1; x++) {
+                            if (pass == 0) {
+                                cellOffsets[y * columns + x + 1]++;
+                            } else {
+                                int i = fill[y * columns + x]++;
+                                edges[i] = e;
+                                sources[i] = v;
+                            }
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int c = 0; c < columns * rows; c++) {
+                    cellOffsets[c + 1] += cellOffsets[c];
+                }
+                edges = new int[cellOffsets[columns * rows]];
+                sources = new int[edges.length];
+            }
+        }
+        cellEdges = edges;
+        cellSources = sources;
+    }
+
+    /** A location projected onto the closest point of a road segment. */
+    static class Snap {
+        /** The edge the point lies on, stored from its lower to its higher vertex index. */
+        final int edge;
+        /** The dense index of the vertex the edge leaves from. */
+        final int from;
+        /** The dense index of the vertex the edge points to. */
+        final int to;
+        /** How far along the edge the point lies, from 0 at from to 1 at to. */
+        final double fraction;
+        final double lon;
+        final double lat;
+        /** The distance in miles from the location to the point. */
+        final double distance;
+
+        Snap(int edge, int from, int to, double fraction, double lon, double lat,
+             double distance) {
+            this.edge = edge;
+            this.from = from;
+            this.to = to;
+            this.fraction = fraction;
+            this.lon = lon;
+            this.lat = lat;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Returns the closest point on any road segment accepted by a filter.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     * @param accept The vertices whose segments to consider, by dense index, or null for all.
+     *               A segment is considered if the filter accepts its lower vertex.
+     * @return The projection onto the closest segment, or null if there is none.
+     */
+    Snap nearest(double lon, double lat, IntPredicate accept) {
+        double cosLat = Math.cos(Math.toRadians(lat));
+        int cx = Math.max(0, Math.min(columns - 1, column(lon)));
+        int cy = Math.max(0, Math.min(rows - 1, row(lat)));
+        Candidate best = new Candidate();
+        for (int r = 0; ; r++) {
+            int x0 = cx - r;
+            int x1 = cx + r;
+            int y0 = cy - r;
+            int y1 = cy + r;
+            for (int x = Math.max(x0, 0); x <= Math.min(x1, columns - 1); x++) {
+                if (y0 >= 0) {
+                    scan(x, y0, lon, lat, cosLat, accept, best);
+                }
+                if (y1 < rows && y1 != y0) {
+                    scan(x, y1, lon, lat, cosLat, accept, best);
+                }
+            }
+            for (int y = Math.max(y0 + 1, 0); y <= Math.min(y1 - 1, rows - 1); y++) {
+                if (x0 >= 0) {
+                    scan(x0, y, lon, lat, cosLat, accept, best);
+                }
+                if (x1 < columns && x1 != x0) {
+                    scan(x1, y, lon, lat, cosLat, accept, best);
+                }
+            }
+
+            // Every cell not yet scanned lies beyond a side of the scanned square that is not
+            // on the border of the grid, and the point is on the near side of each of those.
+            double bound = Double.POSITIVE_INFINITY;
+            if (x0 > 0) {
+                bound = Math.min(bound, (lon - minLon - x0 * cellLon) * cosLat);
+            }
+            if (x1 < columns - 1) {
+                bound = Math.min(bound, (minLon + (x1 + 1) * cellLon - lon) * cosLat);
+            }
+            if (y0 > 0) {
+                bound = Math.min(bound, lat - minLat - y0 * cellLat);
+            }
+            if (y1 < rows - 1) {
+                bound = Math.min(bound, minLat + (y1 + 1) * cellLat - lat);
+            }
+            if (bound == Double.POSITIVE_INFINITY || best.distance <= bound * MILES_PER_DEGREE) {
+                break;
+            }
+        }
+        if (best.edge < 0) {
+            return null;
+        }
+        int v = best.from;
+        int w = g.targets[best.edge];
+        double t = best.fraction;
+        return new Snap(best.edge, v, w, t, g.lons[v] + t * (g.lons[w] - g.lons[v]),
+                g.lats[v] + t * (g.lats[w] - g.lats[v]), best.distance);
+    }
+
+    /** The closest segment found so far during a lookup. */
+    private static class Candidate {
+        int edge = -1;
+        int from;
+        double fraction;
+        double distance = Double.POSITIVE_INFINITY;
+    }
+
+    /** Measures the distance to every accepted segment listed in a cell. */
+    private void scan(int x, int y, double lon, double lat, double cosLat, IntPredicate accept,
+                      Candidate best) {
+        int c = y * columns + x;
+        for (int i = cellOffsets[c]; i < cellOffsets[c + 1]; i++) {
+            int e = cellEdges[i];
+            int v = cellSources[i];
+            int w = g.targets[e];
+            if (accept != null && !accept.test(v)) {
+                continue;
+            }
+            double ax = (g.lons[v] - lon) * cosLat;
+            double ay = g.lats[v] - lat;
+            double dx = (g.lons[w] - g.lons[v]) * cosLat;
+            double dy = g.lats[w] - g.lats[v];
+            double length2 = dx * dx + dy * dy;
+            double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / length2));
+            double distance = Math.hypot(ax + t * dx, ay + t * dy) * MILES_PER_DEGREE;
+            if (distance < best.distance) {
+                best.edge = e;
+                best.from = v;
+                best.fraction = t;
+                best.distance = distance;
+            }
+        }
+    }
+
+    private int column(double lon) {
+        return (int) Math.floor((lon - minLon) / cellLon);
+    }
+
+    private int row(double lat) {
+        return (int) Math.floor((lat - minLat) / cellLat);
+    }
+
+    /** Returns the number of bytes held by the grid. */
+    long footprintBytes() {
+        return (long) (cellOffsets.length + 2 * cellEdges.length) * Integer.BYTES;
+    }
+}
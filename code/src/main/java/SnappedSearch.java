@@ -0,0 +1,175 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shortest paths between locations snapped onto road segments; see SegmentIndex. Each end of
+ * the trip is a virtual vertex partway along its segment, joined to the two ends of the
+ * segment by the two parts of it. The virtual vertices are never added to the graph: the
+ * search starts from both ends of the start segment at once, each at the cost of the part of
+ * the segment that leads to it, and finishes at either end of the destination segment, adding
+ * the cost of the part from it. Two points on the same segment may also be joined directly
+ * along it, which passes no vertex at all.
+ *
+ * A* keeps a consistent lower bound: the bound to each end of the destination segment plus
+ * the part of the segment after it, whichever is smaller. CH seeds both of its upward
+ * searches the same way. Bidirectional A* is served by plain A*, which finds a path of the
+ * same cost. With arc flags, A* keeps the edges flagged for the cell of either end of the
+ * destination segment.
+ */
+class SnappedSearch {
+    private SnappedSearch() {
+    }
+
+    /**
+     * Finds the cheapest path between two snapped locations.
+     * @param st The start, snapped onto its segment.
+     * @param dest The destination, snapped onto its segment.
+     * @param options The metric, and the algorithm and heuristic to use.
+     * @return The ids of the vertices passed on the way, in order. The list is empty if there
+     * is no route, or if the trip runs directly along one segment.
+     * @throws IllegalArgumentException If options ask for CH with a metric other than distance,
+     * or for arc flags with CH or a metric other than distance.
+     */
+    static List<Long> shortestPath(GraphDB g, SegmentIndex.Snap st, SegmentIndex.Snap dest,
+                                   RouteOptions options) {
+        if (!g.components().connected(st.from, dest.from)) {
+            return new ArrayList<>();
+        }
+        ArcFlags flags = Router.arcFlags(g, options);
+        if (options.algorithm == RouteOptions.Algorithm.CH) {
+            if (options.metric != RouteOptions.Metric.DISTANCE) {
+                throw new IllegalArgumentException("CH only supports the distance metric.");
+            }
+            return searchContracted(g, st, dest);
+        }
+        Landmarks.Bound toFrom = null;
+        Landmarks.Bound toTo = null;
+        if (options.heuristic == RouteOptions.Heuristic.ALT) {
+            toFrom = g.landmarks().boundTo(st.from, dest.from);
+            toTo = g.landmarks().boundTo(st.from, dest.to);
+        }
+        return search(g, st, dest, toFrom, toTo, options.metric, flags);
+    }
+
+    /** Returns the cost along the segment from the snapped point back to its from vertex. */
+    static double toFrom(GraphDB g, SegmentIndex.Snap snap, RouteOptions.Metric metric) {
+        return snap.fraction * Router.cost(g, snap.edge, metric);
+    }
+
+    /** Returns the cost along the segment from the snapped point on to its to vertex. */
+    static double toTo(GraphDB g, SegmentIndex.Snap snap, RouteOptions.Metric metric) {
+        return (1 - snap.fraction) * Router.cost(g, snap.edge, metric);
+    }
+
+    /**
+     * Returns the cost of going directly along the segment between two points on it, or
+     * infinity if they are on different segments.
+     */
+    private static double direct(GraphDB g, SegmentIndex.Snap st, SegmentIndex.Snap dest,
+                                 RouteOptions.Metric metric) {
+        if (st.edge != dest.edge) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.abs(st.fraction - dest.fraction) * Router.cost(g, st.edge, metric);
+    }
+
+    /** Runs A* from both ends of the start segment until no cheaper path can be found. */
+    private static List<Long> search(GraphDB g, SegmentIndex.Snap st, SegmentIndex.Snap dest,
+                                     Landmarks.Bound toFrom, Landmarks.Bound toTo,
+                                     RouteOptions.Metric metric, ArcFlags flags) {
+        long mask = flags == null ? 0 : flags.cellMask(dest.from) | flags.cellMask(dest.to);
+        double tailFrom = toFrom(g, dest, metric);
+        double tailTo = toTo(g, dest, metric);
+        double best = direct(g, st, dest, metric);
+        int end = -1;
+
+        SearchWorkspace ws = SearchWorkspace.acquire(g);
+        seed(g, ws, st.from, toFrom(g, st, metric), dest, toFrom, toTo, metric);
+        seed(g, ws, st.to, toTo(g, st, metric), dest, toFrom, toTo, metric);
+        while (!ws.heap.isEmpty() && ws.heap.minKey() < best) {
+            int v = ws.heap.poll();
+            ws.settle(v);
+            double tail = v == dest.from ? tailFrom : v == dest.to ? tailTo
+                    : Double.POSITIVE_INFINITY;
+            if (ws.distTo(v) + tail < best) {
+                best = ws.distTo(v) + tail;
+                end = v;
+            }
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                if (flags != null && !flags.allows(e, mask)) {
+                    continue;
+                }
+                int w = g.edgeTarget(e);
+                double dist = ws.distTo(v) + Router.cost(g, e, metric);
+                if (dist < ws.distTo(w)) {
+                    ws.reach(w, dist, v);
+                    if (!ws.isSettled(w)) {
+                        ws.heap.insertOrDecrease(w,
+                                dist + lowerBound(g, w, dest, toFrom, toTo, metric));
+                    }
+                }
+            }
+        }
+        return end < 0 ? new ArrayList<>() : path(g, ws, end);
+    }
+
+    private static void seed(GraphDB g, SearchWorkspace ws, int v, double dist,
+                             SegmentIndex.Snap dest, Landmarks.Bound toFrom,
+                             Landmarks.Bound toTo, RouteOptions.Metric metric) {
+        if (dist < ws.distTo(v)) {
+            ws.reach(v, dist, -1);
+            ws.heap.insertOrDecrease(v, dist + lowerBound(g, v, dest, toFrom, toTo, metric));
+        }
+    }
+
+    /** Returns a lower bound on the cost from v to the snapped destination. */
+    private static double lowerBound(GraphDB g, int v, SegmentIndex.Snap dest,
+                                     Landmarks.Bound toFrom, Landmarks.Bound toTo,
+                                     RouteOptions.Metric metric) {
+        return Math.min(Router.lowerBound(g, v, dest.from, toFrom, metric)
+                        + toFrom(g, dest, metric),
+                Router.lowerBound(g, v, dest.to, toTo, metric) + toTo(g, dest, metric));
+    }
+
+    /** Runs the upward searches of the graph's CH from both ends of each segment. */
+    private static List<Long> searchContracted(GraphDB g, SegmentIndex.Snap st,
+                                               SegmentIndex.Snap dest) {
+        RouteOptions.Metric metric = RouteOptions.Metric.DISTANCE;
+        SearchWorkspace forward = SearchWorkspace.acquire(g, SearchWorkspace.FORWARD);
+        SearchWorkspace backward = SearchWorkspace.acquire(g, SearchWorkspace.BACKWARD);
+        seed(forward, st.from, toFrom(g, st, metric));
+        seed(forward, st.to, toTo(g, st, metric));
+        seed(backward, dest.from, toFrom(g, dest, metric));
+        seed(backward, dest.to, toTo(g, dest, metric));
+
+        ContractionHierarchy ch = g.contractionHierarchy();
+        int meet = ch.search(forward, backward);
+        if (meet < 0 || forward.distTo(meet) + backward.distTo(meet)
+                >= direct(g, st, dest, metric)) {
+            return new ArrayList<>();
+        }
+        int root = meet;
+        while (forward.edgeTo(root) >= 0) {
+            root = forward.edgeTo(root);
+        }
+        return ch.path(g, root, meet, forward, backward);
+    }
+
+    private static void seed(SearchWorkspace ws, int v, double dist) {
+        if (dist < ws.distTo(v)) {
+            ws.reach(v, dist, -1);
+            ws.heap.insertOrDecrease(v, dist);
+        }
+    }
+
+    /** Follows edgeTo back from end to the seed the path started from. */
+    private static List<Long> path(GraphDB g, SearchWorkspace ws, int end) {
+        List<Long> results = new ArrayList<>();
+        for (int v = end; v >= 0; v = ws.edgeTo(v)) {
+            results.add(g.idOf(v));
+        }
+        Collections.reverse(results);
+        return results;
+    }
+}
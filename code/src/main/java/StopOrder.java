@@ -0,0 +1,232 @@
+import java.util.Arrays;
+
+/**
+ * Chooses the order in which to visit the stops of a multi-stop route, given the distance
+ * between every pair of them. The first stop is where the route starts and stays first; the
+ * route either ends at whichever stop it visits last or, on a round trip, returns to the first.
+ *
+ * Up to EXACT_LIMIT stops the order is the shortest there is, found by Held-Karp dynamic
+ * programming over the subsets of stops, in O(2^n n^2) time. Beyond that a nearest-neighbor
+ * tour is improved by 2-opt moves, which reverse a run of stops, and Or-opt moves, which move a
+ * run of up to three stops elsewhere, until neither shortens it. That is not guaranteed to be
+ * the best order, but is usually within a few percent of it.
+ *
+ * Every road of the graph is stored both ways, so the table is symmetric, and 2-opt prices a
+ * reversed run by its two new ends alone.
+ */
+public class StopOrder {
+    /** The largest number of stops ordered exactly. */
+    static final int EXACT_LIMIT = 12;
+    /** The least improvement in miles a move must make, so rounding cannot make moves cycle. */
+    private static final double EPSILON = 1e-9;
+    /** The longest run of stops an Or-opt move relocates. */
+    private static final int OR_OPT_RUN = 3;
+
+    private StopOrder() {
+    }
+
+    /**
+     * Returns a short order in which to visit the stops.
+     * @param table table[i * n + j] is the distance from stop i to stop j.
+     * @param n The number of stops.
+     * @param roundTrip Whether the route returns to the first stop at the end.
+     * @return The stops in the order to visit them, starting with 0.
+     */
+    static int[] optimize(double[] table, int n, boolean roundTrip) {
+        if (n <= EXACT_LIMIT) {
+            return heldKarp(table, n, roundTrip);
+        }
+        int[] order = nearestNeighbor(table, n);
+        boolean improved = true;
+        while (improved) {
+            improved = twoOpt(table, order, roundTrip) || orOpt(table, order, roundTrip);
+        }
+        return order;
+    }
+
+    /** Returns the length of the route visiting the stops in the given order. */
+    static double length(double[] table, int[] order, boolean roundTrip) {
+        int n = order.length;
+        double length = 0;
+        for (int i = 1; i < n; i++) {
+            length += table[order[i - 1] * n + order[i]];
+        }
+        if (roundTrip && n > 1) {
+            length += table[order[n - 1] * n + order[0]];
+        }
+        return length;
+    }
+
+    /**
+     * Finds the shortest order exactly. best[s * m + j] is the length of the shortest route
+     * from stop 0 through the set s of the other m stops, ending at the j-th of them; bit j of
+     * s stands for stop j + 1.
+     */
+    private static int[] heldKarp(double[] table, int n, boolean roundTrip) {
+        int[] order = new int[n];
+        if (n <= 2) {
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            return order;
+        }
+        int m = n - 1;
+        int sets = 1 << m;
+        double[] best = new double[sets * m];
+        int[] previous = new int[sets * m];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        for (int j = 0; j < m; j++) {
+            best[(1 << j) * m + j] = table[j + 1];
+            previous[(1 << j) * m + j] = -1;
+        }
+        for (int s = 1; s < sets; s++) {
+            for (int j = 0; j < m; j++) {
+                double dist = best[s * m + j];
+                if ((s & (1 << j)) == 0 || dist == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                for (int k = 0; k < m; k++) {
+                    if ((s & (1 << k)) != 0) {
+                        continue;
+                    }
+                    int t = (s | (1 << k)) * m + k;
+                    double next = dist + table[(j + 1) * n + k + 1];
+                    if (next < best[t]) {
+                        best[t] = next;
+                        previous[t] = j;
+                    }
+                }
+            }
+        }
+
+        int all = sets - 1;
+        int last = 0;
+        double shortest = Double.POSITIVE_INFINITY;
+        for (int j = 0; j < m; j++) {
+            double dist = best[all * m + j] + (roundTrip ? table[(j + 1) * n] : 0);
+            if (dist < shortest) {
+                shortest = dist;
+                last = j;
+            }
+        }
+        for (int i = n - 1, s = all, j = last; i > 0; i--) {
+            order[i] = j + 1;
+            int p = previous[s * m + j];
+            s &= ~(1 << j);
+            j = p;
+        }
+        return order;
+    }
+
+    /** Starts at stop 0 and always goes on to the closest stop not yet visited. */
+    private static int[] nearestNeighbor(double[] table, int n) {
+        int[] order = new int[n];
+        boolean[] visited = new boolean[n];
+        visited[0] = true;
+        for (int i = 1; i < n; i++) {
+            int from = order[i - 1];
+            int closest = -1;
+            for (int j = 1; j < n; j++) {
+                if (!visited[j] && (closest < 0
+                        || table[from * n + j] < table[from * n + closest])) {
+                    closest = j;
+                }
+            }
+            order[i] = closest;
+            visited[closest] = true;
+        }
+        return order;
+    }
+
+    /** Returns the stop after position i of the order, or -1 if the route ends there. */
+    private static int next(int[] order, int i, boolean roundTrip) {
+        if (i + 1 < order.length) {
+            return order[i + 1];
+        }
+        return roundTrip ? order[0] : -1;
+    }
+
+    /** Returns the distance between two stops, or 0 if either is -1, past the end. */
+    private static double dist(double[] table, int n, int from, int to) {
+        return from < 0 || to < 0 ? 0 : table[from * n + to];
+    }
+
+    /**
+     * Applies the first 2-opt move found that shortens the route: reversing the stops from
+     * position i through position j, which replaces the two edges around the run.
+     * @return Whether a move was made.
+     */
+    private static boolean twoOpt(double[] table, int[] order, boolean roundTrip) {
+        int n = order.length;
+        for (int i = 1; i < n - 1; i++) {
+            int before = order[i - 1];
+            int first = order[i];
+            for (int j = i + 1; j < n; j++) {
+                int last = order[j];
+                int after = next(order, j, roundTrip);
+                double delta = dist(table, n, before, last) + dist(table, n, first, after)
+                        - dist(table, n, before, first) - dist(table, n, last, after);
+                if (delta < -EPSILON) {
+                    for (int a = i, b = j; a < b; a++, b--) {
+                        int tmp = order[a];
+                        order[a] = order[b];
+                        order[b] = tmp;
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies the first Or-opt move found that shortens the route: taking a run of up to
+     * OR_OPT_RUN stops out from position i and putting it back, either way round, after the
+     * stop at another position k.
+     * @return Whether a move was made.
+     */
+    private static boolean orOpt(double[] table, int[] order, boolean roundTrip) {
+        int n = order.length;
+        for (int run = 1; run <= OR_OPT_RUN; run++) {
+            for (int i = 1; i + run <= n; i++) {
+                int before = order[i - 1];
+                int first = order[i];
+                int last = order[i + run - 1];
+                int after = next(order, i + run - 1, roundTrip);
+                double removed = dist(table, n, before, first) + dist(table, n, last, after)
+                        - dist(table, n, before, after);
+                for (int k = 0; k < n; k++) {
+                    if (k >= i - 1 && k < i + run) {
+                        continue;
+                    }
+                    int x = order[k];
+                    int y = next(order, k, roundTrip);
+                    double forward = dist(table, n, x, first) + dist(table, n, last, y)
+                            - dist(table, n, x, y);
+                    double backward = dist(table, n, x, last) + dist(table, n, first, y)
+                            - dist(table, n, x, y);
+                    if (Math.min(forward, backward) < removed - EPSILON) {
+                        move(order, i, run, k, backward < forward);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Moves the run of stops at position i to follow the stop now at position k. */
+    private static void move(int[] order, int i, int run, int k, boolean reverse) {
+        int[] stops = new int[run];
+        for (int r = 0; r < run; r++) {
+            stops[r] = order[reverse ? i + run - 1 - r : i + r];
+        }
+        if (k < i) {
+            System.arraycopy(order, k + 1, order, k + 1 + run, i - k - 1);
+            System.arraycopy(stops, 0, order, k + 1, run);
+        } else {
+            System.arraycopy(order, i + run, order, i, k - i - run + 1);
+            System.arraycopy(stops, 0, order, k - run + 1, run);
+        }
+    }
+}
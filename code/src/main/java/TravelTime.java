@@ -0,0 +1,80 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The travel-time cost model. Each way is driven at its posted maxspeed, or, if it has none
+ * that can be read, at a default speed for its highway class. An edge takes the time needed
+ * to cover its great-circle length at the speed of the way it belongs to.
+ *
+ * A maxspeed is a number with an optional unit, mph, km/h, kmh or kph. Following the OSM
+ * convention, a bare number is in km/h. Where several speeds are given, separated by
+ * semicolons, the first is used. Values such as "none", "signals" or "walk" fall back to the
+ * highway default.
+ */
+public class TravelTime {
+    /** The speed of a way whose highway class has no default, in mph. */
+    static final double DEFAULT_SPEED_MPH = 25;
+    private static final double MPH_PER_KMH = 0.621371;
+    private static final double SECONDS_PER_HOUR = 3600;
+    private static final Pattern MAXSPEED =
+            Pattern.compile("\\s*(\\d+(?:\\.\\d+)?)\\s*(mph|km/h|kmh|kph)?\\s*");
+    private static final Map<String, Double> HIGHWAY_SPEEDS_MPH = new HashMap<>();
+
+    static {
+        HIGHWAY_SPEEDS_MPH.put("motorway", 65.0);
+        HIGHWAY_SPEEDS_MPH.put("trunk", 55.0);
+        HIGHWAY_SPEEDS_MPH.put("primary", 40.0);
+        HIGHWAY_SPEEDS_MPH.put("secondary", 35.0);
+        HIGHWAY_SPEEDS_MPH.put("tertiary", 30.0);
+        HIGHWAY_SPEEDS_MPH.put("unclassified", 25.0);
+        HIGHWAY_SPEEDS_MPH.put("residential", 25.0);
+        HIGHWAY_SPEEDS_MPH.put("living_street", 10.0);
+        HIGHWAY_SPEEDS_MPH.put("motorway_link", 45.0);
+        HIGHWAY_SPEEDS_MPH.put("trunk_link", 40.0);
+        HIGHWAY_SPEEDS_MPH.put("primary_link", 30.0);
+        HIGHWAY_SPEEDS_MPH.put("secondary_link", 25.0);
+        HIGHWAY_SPEEDS_MPH.put("tertiary_link", 20.0);
+    }
+
+    private TravelTime() {
+    }
+
+    /**
+     * Returns the speed to drive a way at.
+     * @param maxSpeed The maxspeed tag of the way, or null.
+     * @param highway The highway tag of the way, or null.
+     * @return The speed in mph, always positive.
+     */
+    static double speedMph(String maxSpeed, String highway) {
+        if (maxSpeed != null) {
+            Matcher m = MAXSPEED.matcher(maxSpeed.split(";")[0]);
+            if (m.matches()) {
+                double speed = Double.parseDouble(m.group(1));
+                if (!"mph".equals(m.group(2))) {
+                    speed *= MPH_PER_KMH;
+                }
+                if (speed > 0) {
+                    return speed;
+                }
+            }
+        }
+        return HIGHWAY_SPEEDS_MPH.getOrDefault(highway, DEFAULT_SPEED_MPH);
+    }
+
+    /** Returns the speed of every way, in the order of ways. */
+    static double[] waySpeeds(List<GraphDB.Way> ways) {
+        double[] speeds = new double[ways.size()];
+        for (int i = 0; i < speeds.length; i++) {
+            speeds[i] = speedMph(ways.get(i).maxSpeed, ways.get(i).highway);
+        }
+        return speeds;
+    }
+
+    /** Returns the time in seconds to cover a distance in miles at a speed in mph. */
+    static double seconds(double miles, double mph) {
+        return miles / mph * SECONDS_PER_HOUR;
+    }
+}
@@ -0,0 +1,94 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Alternative routes on the tiny graph and on a small street grid. */
+public class TestAlternativeRoutes {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static final int GRID_SIZE = 5;
+    private static final double GRID_SPACING = 0.001;
+    private GraphDB tiny;
+    private GraphDB grid;
+
+    @Before
+    public void setUp() throws Exception {
+        tiny = new GraphDB(OSM_DB_PATH_TINY);
+        grid = TestGraphs.grid(GRID_SIZE, GRID_SPACING);
+    }
+
+    private static long gridId(int i, int j) {
+        return TestGraphs.id(GRID_SIZE, i, j);
+    }
+
+    /** The first route is always a shortest path. */
+    @Test
+    public void testFirstRouteIsShortest() {
+        RouteOptions options = new RouteOptions();
+        for (long v : tiny.vertices()) {
+            for (long w : tiny.vertices()) {
+                List<List<Long>> routes = Router.alternativeRoutes(tiny, tiny.lon(v),
+                        tiny.lat(v), tiny.lon(w), tiny.lat(w), 3, options);
+                List<Long> expected = Router.shortestPath(tiny,
+                        tiny.lon(v), tiny.lat(v), tiny.lon(w), tiny.lat(w));
+                assertEquals(length(tiny, expected), length(tiny, routes.get(0)), 1e-9);
+            }
+        }
+    }
+
+    /** Every route is a simple path within the stretch and overlap limits. */
+    @Test
+    public void testLimits() {
+        RouteOptions options = new RouteOptions();
+        long st = gridId(0, 0);
+        long dest = gridId(GRID_SIZE - 1, GRID_SIZE - 2);
+        List<List<Long>> routes = Router.alternativeRoutes(grid, grid.lon(st), grid.lat(st),
+                grid.lon(dest), grid.lat(dest), 3, options);
+        assertEquals(3, routes.size());
+
+        double best = length(grid, routes.get(0));
+        Set<Set<Long>> edges = new HashSet<>();
+        for (List<Long> route : routes) {
+            assertEquals(st, (long) route.get(0));
+            assertEquals(dest, (long) route.get(route.size() - 1));
+            assertEquals(route.size(), new HashSet<>(route).size());
+            double length = length(grid, route);
+            assertTrue(length <= (1 + options.maxStretch) * best + 1e-9);
+
+            double shared = 0;
+            for (int i = 1; i < route.size(); i++) {
+                assertTrue(grid.edge(route.get(i - 1), route.get(i)) >= 0);
+                Set<Long> edge = new HashSet<>(route.subList(i - 1, i + 1));
+                if (!edges.add(edge)) {
+                    shared += grid.distance(route.get(i - 1), route.get(i));
+                }
+            }
+            assertTrue(shared <= options.maxOverlap * length + 1e-9);
+        }
+    }
+
+    /** Asking for one route gives just the shortest path. */
+    @Test
+    public void testOneRoute() {
+        long st = gridId(0, 0);
+        long dest = gridId(GRID_SIZE - 1, GRID_SIZE - 1);
+        List<List<Long>> routes = Router.alternativeRoutes(grid, grid.lon(st), grid.lat(st),
+                grid.lon(dest), grid.lat(dest), 1, new RouteOptions());
+        assertEquals(1, routes.size());
+        assertEquals(length(grid, Router.shortestPath(grid, grid.lon(st), grid.lat(st),
+                grid.lon(dest), grid.lat(dest))), length(grid, routes.get(0)), 1e-9);
+    }
+
+    private static double length(GraphDB g, List<Long> path) {
+        double length = 0;
+        for (int i = 1; i < path.size(); i++) {
+            length += g.distance(path.get(i - 1), path.get(i));
+        }
+        return length;
+    }
+}
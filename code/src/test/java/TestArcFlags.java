@@ -0,0 +1,170 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Arc flags on a street grid, where many paths tie, and on the tiny graph. */
+public class TestArcFlags {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static final int GRID_SIZE = 20;
+    private static final double GRID_SPACING = 0.001;
+    private static final double LAT = TestGraphs.LAT;
+    private static final double LON = TestGraphs.LON;
+    private static final int CELLS = 16;
+    private GraphDB grid;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        grid = TestGraphs.grid(GRID_SIZE, GRID_SPACING);
+        grid.useArcFlags(ArcFlags.build(grid, CELLS));
+        file = File.createTempFile("grid", ".arcflags");
+        file.deleteOnExit();
+    }
+
+    private static long gridId(int i, int j) {
+        return TestGraphs.id(GRID_SIZE, i, j);
+    }
+
+    /** Every search with arc flags finds a path as short as plain A*, ties and all. */
+    @Test
+    public void testSameLengthsAsAStar() {
+        Random random = new Random(24);
+        for (int k = 0; k < 200; k++) {
+            double stlon = LON + random.nextDouble() * GRID_SIZE * GRID_SPACING;
+            double stlat = LAT + random.nextDouble() * GRID_SIZE * GRID_SPACING;
+            double destlon = LON + random.nextDouble() * GRID_SIZE * GRID_SPACING;
+            double destlat = LAT + random.nextDouble() * GRID_SIZE * GRID_SPACING;
+            double expected = length(grid,
+                    Router.shortestPath(grid, stlon, stlat, destlon, destlat));
+            for (RouteOptions.Algorithm algorithm : new RouteOptions.Algorithm[]{
+                RouteOptions.Algorithm.ASTAR, RouteOptions.Algorithm.BIDIRECTIONAL}) {
+                for (RouteOptions.Heuristic heuristic : RouteOptions.Heuristic.values()) {
+                    RouteOptions options = new RouteOptions();
+                    options.algorithm = algorithm;
+                    options.heuristic = heuristic;
+                    options.arcFlags = true;
+                    assertEquals(expected, length(grid, Router.shortestPath(grid,
+                            stlon, stlat, destlon, destlat, options)), 1e-9);
+                }
+            }
+        }
+    }
+
+    /** Snapped onto segments, arc flags still find the same paths on the tiny graph. */
+    @Test
+    public void testSnapped() {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_TINY);
+        graph.useArcFlags(ArcFlags.build(graph, 4));
+        RouteOptions plain = new RouteOptions();
+        plain.snapToSegment = true;
+        RouteOptions flagged = new RouteOptions();
+        flagged.snapToSegment = true;
+        flagged.arcFlags = true;
+        for (long v : graph.vertices()) {
+            for (long w : graph.vertices()) {
+                double stlon = graph.lon(v) + 0.01;
+                double stlat = graph.lat(v) - 0.01;
+                double destlon = graph.lon(w) - 0.01;
+                double destlat = graph.lat(w) + 0.01;
+                assertEquals(Router.shortestPath(graph, stlon, stlat, destlon, destlat, plain),
+                        Router.shortestPath(graph, stlon, stlat, destlon, destlat, flagged));
+            }
+        }
+    }
+
+    /** Across the grid, the flags leave the search fewer vertices to settle. */
+    @Test
+    public void testFewerSettled() {
+        int st = grid.indexOf(gridId(0, 0));
+        int dest = grid.indexOf(gridId(GRID_SIZE - 1, GRID_SIZE / 2));
+        SearchWorkspace ws = SearchWorkspace.acquire(grid);
+        Router.search(grid, st, dest, ws, null, RouteOptions.Metric.DISTANCE, null);
+        int plain = ws.settledCount();
+        double length = ws.distTo(dest);
+        ws = SearchWorkspace.acquire(grid);
+        Router.search(grid, st, dest, ws, null, RouteOptions.Metric.DISTANCE, grid.arcFlags());
+        assertEquals(length, ws.distTo(dest), 1e-9);
+        assertTrue(ws.settledCount() < plain);
+    }
+
+    /** Every edge inside a cell keeps the flag of its cell. */
+    @Test
+    public void testCells() {
+        ArcFlags flags = grid.arcFlags();
+        assertEquals(CELLS, flags.cellCount());
+        int[] sizes = new int[CELLS];
+        for (int v = 0; v < grid.size(); v++) {
+            sizes[flags.cellOf(v)]++;
+            for (int e = grid.edgeBegin(v); e < grid.edgeEnd(v); e++) {
+                if (flags.cellOf(grid.edgeTarget(e)) == flags.cellOf(v)) {
+                    assertTrue(flags.allows(e, flags.cellMask(v)));
+                }
+            }
+        }
+        for (int size : sizes) {
+            assertEquals(GRID_SIZE * GRID_SIZE / CELLS, size);
+        }
+    }
+
+    @Test
+    public void testUnsupportedOptions() {
+        RouteOptions options = new RouteOptions();
+        options.arcFlags = true;
+        options.algorithm = RouteOptions.Algorithm.CH;
+        assertRejected(options);
+        options.algorithm = RouteOptions.Algorithm.ASTAR;
+        options.metric = RouteOptions.Metric.TIME;
+        assertRejected(options);
+        options.metric = RouteOptions.Metric.DISTANCE;
+        options.turnCosts = true;
+        assertRejected(options);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        ArcFlags built = grid.arcFlags();
+        built.write(file);
+        ArcFlags loaded = ArcFlags.read(file, grid);
+        assertNotNull(loaded);
+        assertEquals(built.cellCount(), loaded.cellCount());
+        assertEquals(built.density(), loaded.density(), 0);
+        for (int e = 0; e < grid.edgeCount(); e++) {
+            for (int c = 0; c < CELLS; c++) {
+                assertEquals(built.allows(e, 1L << c), loaded.allows(e, 1L << c));
+            }
+        }
+    }
+
+    @Test
+    public void testOtherGraphIsRejected() {
+        grid.arcFlags().write(file);
+        GraphDB other = new GraphDB(OSM_DB_PATH_TINY);
+        assertNull(ArcFlags.read(file, other));
+    }
+
+    private void assertRejected(RouteOptions options) {
+        try {
+            Router.shortestPath(grid, LON, LAT, LON + GRID_SPACING, LAT + GRID_SPACING, options);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    private static double length(GraphDB g, List<Long> path) {
+        double length = 0;
+        for (int k = 1; k < path.size(); k++) {
+            length += g.distance(path.get(k - 1), path.get(k));
+        }
+        return length;
+    }
+}
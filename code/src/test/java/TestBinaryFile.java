@@ -0,0 +1,68 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/** The header and checks shared by the binary file formats. */
+public class TestBinaryFile {
+    private static final long MAGIC = 0x54455354464F524DL; // "TESTFORM"
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("test", ".bin");
+        file.deleteOnExit();
+        BinaryFile.write(file, MAGIC, 1, new long[]{7, 8}, out -> {
+            out.writeInt(3);
+            BinaryFile.writeLongs(out, new long[]{1, 2, 3});
+        });
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (long[] key : new long[][]{{7, 8}, null}) {
+            ByteBuffer payload = BinaryFile.read(file, MAGIC, 1, key);
+            assertArrayEquals(new long[]{1, 2, 3}, BinaryFile.readLongs(payload, payload.getInt()));
+            assertEquals(0, payload.remaining());
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testRejections() throws Exception {
+        assertRejected("has an unknown format", MAGIC + 1, 1, null);
+        assertRejected("has an unknown format", MAGIC, 2, null);
+        assertRejected("was written for other input", MAGIC, 1, new long[]{7, 9});
+        assertRejected("was written for other input", MAGIC, 1, new long[]{7});
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+        assertRejected("failed its checksum", MAGIC, 1, null);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(10);
+        }
+        assertRejected("is truncated", MAGIC, 1, null);
+    }
+
+    private void assertRejected(String reason, long magic, int version, long[] key)
+            throws Exception {
+        try {
+            BinaryFile.read(file, magic, version, key);
+            fail("Expected " + reason);
+        } catch (BinaryFile.RejectedException e) {
+            assertEquals(reason, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Connected components on a street grid with a small island beside it. */
+public class TestComponents {
+    private static final int GRID_SIZE = 3;
+    private static final double GRID_SPACING = 0.001;
+    private static final long ISLAND_A = 200;
+    private static final long ISLAND_B = 201;
+    private GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        String islands = String.format("<node id=\"%d\" lat=\"%f\" lon=\"%f\"/>%n"
+                + "<node id=\"%d\" lat=\"%f\" lon=\"%f\"/>%n"
+                + "<way id=\"99\"><nd ref=\"%d\"/><nd ref=\"%d\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/></way>%n",
+                ISLAND_A, TestGraphs.LAT, TestGraphs.LON + (GRID_SIZE + 1) * GRID_SPACING,
+                ISLAND_B, TestGraphs.LAT, TestGraphs.LON + (GRID_SIZE + 2) * GRID_SPACING,
+                ISLAND_A, ISLAND_B);
+        graph = TestGraphs.grid(GRID_SIZE, GRID_SPACING, islands);
+    }
+
+    private static long gridId(int i, int j) {
+        return TestGraphs.id(GRID_SIZE, i, j);
+    }
+
+    @Test
+    public void testLabels() {
+        Components components = graph.components();
+        assertEquals(2, components.count());
+        int largest = components.largest();
+        assertEquals(GRID_SIZE * GRID_SIZE, components.size(largest));
+        for (int i = 0; i < GRID_SIZE; i++) {
+            for (int j = 0; j < GRID_SIZE; j++) {
+                assertEquals(largest, components.of(graph.indexOf(gridId(i, j))));
+            }
+        }
+        int island = components.of(graph.indexOf(ISLAND_A));
+        assertEquals(island, components.of(graph.indexOf(ISLAND_B)));
+        assertEquals(2, components.size(island));
+        assertFalse(components.connected(graph.indexOf(ISLAND_A), graph.indexOf(gridId(0, 0))));
+    }
+
+    /** A trip onto the island has no route with any algorithm. */
+    @Test
+    public void testCrossComponentQuery() {
+        for (RouteOptions.Algorithm algorithm : RouteOptions.Algorithm.values()) {
+            RouteOptions options = new RouteOptions();
+            options.algorithm = algorithm;
+            List<Long> path = Router.shortestPath(graph, graph.lon(gridId(0, 0)),
+                    graph.lat(gridId(0, 0)), graph.lon(ISLAND_B), graph.lat(ISLAND_B), options);
+            assertTrue(path.isEmpty());
+        }
+        assertTrue(Router.alternativeRoutes(graph, graph.lon(gridId(0, 0)),
+                graph.lat(gridId(0, 0)), graph.lon(ISLAND_B), graph.lat(ISLAND_B), 3,
+                new RouteOptions()).isEmpty());
+    }
+
+    /** Asked to, a point on the island snaps to the nearest vertex of the grid instead. */
+    @Test
+    public void testSnapToLargestComponent() {
+        assertEquals(graph.indexOf(ISLAND_A),
+                graph.closestIndex(graph.lon(ISLAND_A), graph.lat(ISLAND_A)));
+        assertEquals(graph.indexOf(gridId(0, GRID_SIZE - 1)), graph.closestIndexInLargestComponent(
+                graph.lon(ISLAND_A), graph.lat(ISLAND_A)));
+
+        RouteOptions options = new RouteOptions();
+        options.largestComponent = true;
+        List<Long> path = Router.shortestPath(graph, graph.lon(gridId(0, 0)),
+                graph.lat(gridId(0, 0)), graph.lon(ISLAND_B), graph.lat(ISLAND_B), options);
+        assertEquals(GRID_SIZE, path.size());
+        assertEquals(gridId(0, GRID_SIZE - 1), (long) path.get(path.size() - 1));
+    }
+}
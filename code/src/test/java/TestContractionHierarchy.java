@@ -0,0 +1,80 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/** Contraction hierarchy queries and persistence, on the tiny graph. */
+public class TestContractionHierarchy {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private GraphDB graph;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+        file = File.createTempFile("tiny-clean", ".ch");
+        file.deleteOnExit();
+    }
+
+    /** Every pair of vertices gets the same path as plain A*. */
+    @Test
+    public void testSamePathsAsAStar() {
+        RouteOptions options = new RouteOptions();
+        options.algorithm = RouteOptions.Algorithm.CH;
+        for (long v : graph.vertices()) {
+            for (long w : graph.vertices()) {
+                List<Long> expected = Router.shortestPath(graph,
+                        graph.lon(v), graph.lat(v), graph.lon(w), graph.lat(w));
+                List<Long> actual = Router.shortestPath(graph,
+                        graph.lon(v), graph.lat(v), graph.lon(w), graph.lat(w), options);
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    /** The matrix holds the length of the A* path for every pair, or infinity if none. */
+    @Test
+    public void testDistanceMatrix() {
+        List<double[]> points = new ArrayList<>();
+        for (long v : graph.vertices()) {
+            points.add(new double[]{graph.lon(v), graph.lat(v)});
+        }
+        double[][] locations = points.toArray(new double[0][]);
+        double[] distances = Router.distanceMatrix(graph, locations, locations);
+
+        for (int i = 0; i < locations.length; i++) {
+            for (int j = 0; j < locations.length; j++) {
+                List<Long> path = Router.shortestPath(graph, locations[i][0], locations[i][1],
+                        locations[j][0], locations[j][1]);
+                double expected = path.isEmpty() ? Double.POSITIVE_INFINITY : 0;
+                for (int k = 1; k < path.size(); k++) {
+                    expected += graph.distance(path.get(k - 1), path.get(k));
+                }
+                assertEquals(expected, distances[i * locations.length + j], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() {
+        ContractionHierarchy built = ContractionHierarchy.build(graph);
+        built.write(file);
+        ContractionHierarchy loaded = ContractionHierarchy.read(file, graph);
+        assertNotNull(loaded);
+        assertEquals(built.edgeCount(), loaded.edgeCount());
+        assertEquals(built.shortcutCount(), loaded.shortcutCount());
+    }
+
+    @Test
+    public void testOtherGraphIsRejected() {
+        ContractionHierarchy.build(graph).write(file);
+        GraphDB other = new GraphDB("../library-sp18/data/berkeley-2018-small.osm.xml");
+        assertNull(ContractionHierarchy.read(file, other));
+    }
+}
@@ -0,0 +1,89 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Round trip and staleness checks for the binary graph snapshot, on the tiny graph. */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private File source;
+    private File snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        source = File.createTempFile("tiny-clean", ".osm.xml");
+        source.deleteOnExit();
+        Files.copy(new File(OSM_DB_PATH_TINY).toPath(), source.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        snapshot = File.createTempFile("tiny-clean", ".snapshot");
+        snapshot.deleteOnExit();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        GraphDB imported = new GraphDB(source.getPath());
+        GraphSnapshot.write(imported, snapshot, source);
+        GraphDB loaded = GraphSnapshot.read(snapshot, source);
+        assertNotNull(loaded);
+
+        assertEquals(toList(imported.vertices()), toList(loaded.vertices()));
+        for (long v : imported.vertices()) {
+            assertEquals(toList(imported.adjacent(v)), toList(loaded.adjacent(v)));
+            assertEquals(imported.lon(v), loaded.lon(v), 0);
+            assertEquals(imported.lat(v), loaded.lat(v), 0);
+        }
+        for (int e = 0; e < imported.edgeCount(); e++) {
+            assertEquals(imported.edgeTime(e), loaded.edgeTime(e), 0);
+        }
+        assertEquals(imported.minSecondsPerMile(), loaded.minSecondsPerMile(), 0);
+        assertEquals(imported.components().count(), loaded.components().count());
+        assertEquals(55L, loaded.closest(0.4, 38.51));
+        assertEquals(Router.shortestPath(imported, 0.4, 38.1, 0.4, 38.6),
+                Router.shortestPath(loaded, 0.4, 38.1, 0.4, 38.6));
+    }
+
+    @Test
+    public void testStaleSnapshotIsRejected() {
+        GraphSnapshot.write(new GraphDB(source.getPath()), snapshot, source);
+        assertTrue(source.setLastModified(source.lastModified() + 60000));
+        assertNull(GraphSnapshot.read(snapshot, source));
+    }
+
+    @Test
+    public void testCorruptSnapshotIsRejected() throws Exception {
+        GraphSnapshot.write(new GraphDB(source.getPath()), snapshot, source);
+        try (RandomAccessFile raf = new RandomAccessFile(snapshot, "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+        assertNull(GraphSnapshot.read(snapshot, source));
+    }
+
+    @Test
+    public void testOpenWritesSnapshot() {
+        assertTrue(snapshot.delete());
+        GraphDB.open(source.getPath(), snapshot.getPath());
+        assertTrue(snapshot.isFile());
+        assertNotNull(GraphSnapshot.read(snapshot, source));
+    }
+
+    private static List<Long> toList(Iterable<Long> ids) {
+        List<Long> list = new ArrayList<>();
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+}
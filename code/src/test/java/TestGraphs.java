@@ -0,0 +1,63 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Street grids for the tests: size by size vertices, spacing degrees apart, with a residential
+ * way along every row and every column, so that many shortest paths tie. The vertex in row i
+ * and column j lies at (LON + j * spacing, LAT + i * spacing) and has the id given by id.
+ */
+final class TestGraphs {
+    static final double LAT = 37.87;
+    static final double LON = -122.26;
+    private static final long FIRST_ID = 100;
+
+    private TestGraphs() {
+    }
+
+    /** Returns the id of the vertex in row i and column j of a grid of the size. */
+    static long id(int size, int i, int j) {
+        return FIRST_ID + (long) i * size + j;
+    }
+
+    static GraphDB grid(int size, double spacing) throws IOException {
+        return grid(size, spacing, "");
+    }
+
+    /**
+     * Builds a grid with more OSM elements beside it.
+     * @param size The number of rows and of columns.
+     * @param spacing The degrees between neighbouring rows and columns.
+     * @param extra Nodes and ways to add, whose ids must not clash with the grid's: ways 1 to
+     *              2 * size and nodes from id(size, 0, 0) to id(size, size - 1, size - 1).
+     */
+    static GraphDB grid(int size, double spacing, String extra) throws IOException {
+        File file = File.createTempFile("grid", ".osm.xml");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<osm version=\"0.6\">");
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    out.printf("<node id=\"%d\" lat=\"%f\" lon=\"%f\"/>%n", id(size, i, j),
+                            LAT + i * spacing, LON + j * spacing);
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                out.printf("<way id=\"%d\">", 1 + i);
+                for (int j = 0; j < size; j++) {
+                    out.printf("<nd ref=\"%d\"/>", id(size, i, j));
+                }
+                out.println("<tag k=\"highway\" v=\"residential\"/></way>");
+                out.printf("<way id=\"%d\">", 1 + size + i);
+                for (int j = 0; j < size; j++) {
+                    out.printf("<nd ref=\"%d\"/>", id(size, j, i));
+                }
+                out.println("<tag k=\"highway\" v=\"residential\"/></way>");
+            }
+            out.print(extra);
+            out.println("</osm>");
+        }
+        return new GraphDB(file.getPath());
+    }
+}
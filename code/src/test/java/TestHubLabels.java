@@ -0,0 +1,66 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Hub label distances on the tiny graph. */
+public class TestHubLabels {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+    }
+
+    /** Every pair of vertices is as far apart as the A* path between them, or infinity. */
+    @Test
+    public void testSameDistancesAsAStar() {
+        for (long v : graph.vertices()) {
+            for (long w : graph.vertices()) {
+                List<Long> path = Router.shortestPath(graph,
+                        graph.lon(v), graph.lat(v), graph.lon(w), graph.lat(w));
+                double expected = path.isEmpty() ? Double.POSITIVE_INFINITY : 0;
+                for (int k = 1; k < path.size(); k++) {
+                    expected += graph.distance(path.get(k - 1), path.get(k));
+                }
+                assertEquals(expected, Router.distance(graph,
+                        graph.lon(v), graph.lat(v), graph.lon(w), graph.lat(w)), 1e-9);
+            }
+        }
+    }
+
+    /** The labels add up the same upward distances as the many-to-many matrix. */
+    @Test
+    public void testSameDistancesAsMatrix() {
+        List<double[]> points = new ArrayList<>();
+        for (long v : graph.vertices()) {
+            points.add(new double[]{graph.lon(v), graph.lat(v)});
+        }
+        double[][] locations = points.toArray(new double[0][]);
+        double[] distances = Router.distanceMatrix(graph, locations, locations);
+        for (int i = 0; i < locations.length; i++) {
+            for (int j = 0; j < locations.length; j++) {
+                assertEquals(distances[i * locations.length + j], Router.distance(graph,
+                        locations[i][0], locations[i][1], locations[j][0], locations[j][1]), 0);
+            }
+        }
+    }
+
+    /** Every label holds at least the vertex itself, at distance 0. */
+    @Test
+    public void testLabels() {
+        HubLabels labels = graph.hubLabels();
+        long total = 0;
+        for (int v = 0; v < graph.size(); v++) {
+            assertTrue(labels.labelSize(v) >= 1);
+            assertEquals(0, labels.distance(v, v), 0);
+            total += labels.labelSize(v);
+        }
+        assertEquals(total, labels.hubCount());
+    }
+}
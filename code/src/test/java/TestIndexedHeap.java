@@ -0,0 +1,58 @@
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestIndexedHeap {
+    private static final int NUM_ITEMS = 1000;
+
+    @Test
+    public void testPollsInKeyOrderAfterDecreases() {
+        Random random = new Random(11);
+        double[] keys = new double[NUM_ITEMS];
+        IndexedHeap heap = new IndexedHeap(NUM_ITEMS);
+        for (int v = 0; v < NUM_ITEMS; v++) {
+            keys[v] = random.nextDouble();
+            heap.insertOrDecrease(v, keys[v]);
+        }
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            int v = random.nextInt(NUM_ITEMS);
+            double key = random.nextDouble();
+            heap.insertOrDecrease(v, key);
+            keys[v] = Math.min(keys[v], key);
+        }
+
+        assertEquals(NUM_ITEMS, heap.size());
+        double last = Double.NEGATIVE_INFINITY;
+        while (!heap.isEmpty()) {
+            double min = heap.minKey();
+            int v = heap.poll();
+            assertEquals(keys[v], min, 0);
+            assertTrue(min >= last);
+            assertFalse(heap.contains(v));
+            last = min;
+        }
+    }
+
+    @Test
+    public void testClearLeavesHeapReusable() {
+        IndexedHeap heap = new IndexedHeap(NUM_ITEMS);
+        for (int v = 0; v < NUM_ITEMS; v += 2) {
+            heap.insertOrDecrease(v, v);
+        }
+        heap.poll();
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        for (int v = 0; v < NUM_ITEMS; v++) {
+            assertFalse(heap.contains(v));
+        }
+
+        heap.insertOrDecrease(7, 3.0);
+        heap.insertOrDecrease(7, 5.0);
+        assertEquals(3.0, heap.key(7), 0);
+        assertEquals(7, heap.poll());
+    }
+}
@@ -0,0 +1,138 @@
+import org.junit.Before;
+import org.junit.Test;
+import spark.HaltException;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Isochrones on the tiny graph. */
+public class TestIsochrone {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static final double[] BUDGETS = {0, 0.01, 0.05, 0.1, 1};
+    private GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+    }
+
+    /** The vertices are exactly those whose shortest path fits the budget, nearest first. */
+    @Test
+    public void testReachableVertices() {
+        for (long v : graph.vertices()) {
+            for (double budget : BUDGETS) {
+                Isochrone isochrone = Router.isochrone(graph, graph.lon(v), graph.lat(v), budget);
+                Set<Long> expected = new HashSet<>();
+                for (long w : graph.vertices()) {
+                    double length = length(Router.shortestPath(graph,
+                            graph.lon(v), graph.lat(v), graph.lon(w), graph.lat(w)));
+                    if (length <= budget) {
+                        expected.add(w);
+                    }
+                }
+
+                Set<Long> actual = new HashSet<>();
+                for (int i = 0; i < isochrone.ids.length; i++) {
+                    actual.add(isochrone.ids[i]);
+                    double length = length(Router.shortestPath(graph, graph.lon(v), graph.lat(v),
+                            graph.lon(isochrone.ids[i]), graph.lat(isochrone.ids[i])));
+                    assertEquals(length, isochrone.distances[i], 1e-9);
+                    if (i > 0) {
+                        assertTrue(isochrone.distances[i - 1] <= isochrone.distances[i]);
+                    }
+                }
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    /** The outline is made of closed rings, one of which surrounds the start. */
+    @Test
+    public void testOutline() {
+        for (long v : graph.vertices()) {
+            Isochrone isochrone = Router.isochrone(graph, graph.lon(v), graph.lat(v), 0.1);
+            assertFalse(isochrone.rings.isEmpty());
+            boolean covered = false;
+            for (double[][] ring : isochrone.rings) {
+                assertTrue(ring.length >= 5);
+                assertArrayEquals(ring[0], ring[ring.length - 1], 0);
+                covered |= withinBounds(ring, graph.lon(v), graph.lat(v));
+            }
+            assertTrue(covered);
+        }
+    }
+
+    /** A search that settles more vertices than its budget allows stops, counting the trip. */
+    @Test
+    public void testBudget() {
+        long v = graph.vertices().iterator().next();
+        double miles = Double.POSITIVE_INFINITY;
+        SearchBudget budget = new SearchBudget(1, Long.MAX_VALUE);
+        assertTrue(Router.isochrone(graph, graph.lon(v), graph.lat(v), miles).ids.length > 1);
+        try {
+            Router.isochrone(graph, graph.lon(v), graph.lat(v), miles, budget);
+            fail();
+        } catch (SearchBudget.ExceededException e) {
+            assertEquals(SearchBudget.Reason.SETTLED_LIMIT, e.reason);
+        }
+        assertEquals(1, budget.trips(SearchBudget.Reason.SETTLED_LIMIT));
+    }
+
+    /** The server only accepts distance budgets from 0 to MAX_ISOCHRONE_MILES. */
+    @Test
+    public void testMilesLimits() {
+        for (double miles : new double[]{0, MapServer.MAX_ISOCHRONE_MILES}) {
+            assertEquals(miles, MapServer.getIsochroneMiles(params(miles)), 0);
+        }
+        for (double miles : new double[]{-1, MapServer.MAX_ISOCHRONE_MILES + 0.01, 1e9,
+            Double.NaN}) {
+            try {
+                MapServer.getIsochroneMiles(params(miles));
+                fail("Expected " + miles + " miles to be rejected");
+            } catch (HaltException e) {
+                assertTrue(e.body().startsWith("Incorrect parameters"));
+            }
+        }
+    }
+
+    private static Map<String, Double> params(double miles) {
+        Map<String, Double> params = new HashMap<>();
+        params.put("miles", miles);
+        return params;
+    }
+
+    /** Whether a point is within the bounding box of a ring. */
+    private static boolean withinBounds(double[][] ring, double lon, double lat) {
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (double[] point : ring) {
+            minLon = Math.min(minLon, point[0]);
+            maxLon = Math.max(maxLon, point[0]);
+            minLat = Math.min(minLat, point[1]);
+            maxLat = Math.max(maxLat, point[1]);
+        }
+        return minLon <= lon && lon <= maxLon && minLat <= lat && lat <= maxLat;
+    }
+
+    private double length(List<Long> path) {
+        if (path.isEmpty()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double length = 0;
+        for (int i = 1; i < path.size(); i++) {
+            length += graph.distance(path.get(i - 1), path.get(i));
+        }
+        return length;
+    }
+}
@@ -0,0 +1,189 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** Stop ordering on made-up tables, and multi-stop routes on the tiny graph. */
+public class TestMultiStopRoute {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+    }
+
+    /** Up to EXACT_LIMIT stops the order is as short as the best of all permutations. */
+    @Test
+    public void testExactOrder() {
+        Random random = new Random(3);
+        for (int n = 1; n <= 8; n++) {
+            for (int trial = 0; trial < 20; trial++) {
+                double[] table = planar(random, n);
+                for (boolean roundTrip : new boolean[]{false, true}) {
+                    int[] order = StopOrder.optimize(table, n, roundTrip);
+                    assertPermutation(order, n);
+                    assertEquals(bruteForce(table, n, roundTrip),
+                            StopOrder.length(table, order, roundTrip), 1e-9);
+                }
+            }
+        }
+    }
+
+    /**
+     * Beyond EXACT_LIMIT, a round trip through points on a circle, given shuffled, goes around
+     * the circle: every other tour crosses itself, and 2-opt undoes any crossing.
+     */
+    @Test
+    public void testLocalSearchOrder() {
+        int n = 40;
+        List<Integer> shuffled = new ArrayList<>();
+        for (int i = 1; i < n; i++) {
+            shuffled.add(i);
+        }
+        Collections.shuffle(shuffled, new Random(5));
+        shuffled.add(0, 0);
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            double angle = 2 * Math.PI * shuffled.get(i) / n;
+            xs[i] = Math.cos(angle);
+            ys[i] = Math.sin(angle);
+        }
+        double[] table = table(xs, ys);
+        int[] order = StopOrder.optimize(table, n, true);
+        assertPermutation(order, n);
+        assertEquals(2 * n * Math.sin(Math.PI / n), StopOrder.length(table, order, true), 1e-9);
+
+        Random random = new Random(9);
+        table = planar(random, 60);
+        for (boolean roundTrip : new boolean[]{false, true}) {
+            order = StopOrder.optimize(table, 60, roundTrip);
+            assertPermutation(order, 60);
+        }
+    }
+
+    /**
+     * The route passes every stop in the chosen order, is as long as the table says, and no
+     * other order of the stops is shorter.
+     */
+    @Test
+    public void testRoute() {
+        List<Long> vertices = new ArrayList<>();
+        for (long v : graph.vertices()) {
+            vertices.add(v);
+        }
+        Random random = new Random(13);
+        for (int trial = 0; trial < 30; trial++) {
+            int n = 2 + trial % 6;
+            double[][] stops = new double[n][];
+            for (int i = 0; i < n; i++) {
+                long v = vertices.get(random.nextInt(vertices.size()));
+                stops[i] = new double[]{graph.lon(v), graph.lat(v)};
+            }
+            boolean roundTrip = trial % 2 == 0;
+            MultiStopRoute route = Router.multiStopRoute(graph, stops, roundTrip);
+            assertPermutation(route.order, n);
+
+            double[] table = Router.distanceMatrix(graph, stops, stops);
+            assertEquals(bruteForce(table, n, roundTrip), route.distance, 1e-9);
+            double length = 0;
+            for (int i = 1; i < route.path.size(); i++) {
+                length += graph.distance(route.path.get(i - 1), route.path.get(i));
+            }
+            assertEquals(route.distance, length, 1e-9);
+            double directed = 0;
+            for (Router.NavigationDirection d : route.directions) {
+                directed += d.distance;
+            }
+            assertEquals(route.distance, directed, 1e-9);
+
+            int visits = roundTrip ? n + 1 : n;
+            int next = 0;
+            for (long v : route.path) {
+                while (next < visits && v == graph.closest(stops[route.order[next % n]][0],
+                        stops[route.order[next % n]][1])) {
+                    next++;
+                }
+            }
+            assertEquals(visits, next);
+        }
+    }
+
+    /** A single stop is a route of one vertex. */
+    @Test
+    public void testSingleStop() {
+        long v = graph.vertices().iterator().next();
+        MultiStopRoute route = Router.multiStopRoute(graph,
+                new double[][]{{graph.lon(v), graph.lat(v)}}, true);
+        assertArrayEquals(new int[]{0}, route.order);
+        assertEquals(Arrays.asList(v), route.path);
+        assertEquals(0, route.distance, 0);
+    }
+
+    private static double[] planar(Random random, int n) {
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+        }
+        return table(xs, ys);
+    }
+
+    private static double[] table(double[] xs, double[] ys) {
+        int n = xs.length;
+        double[] table = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                table[i * n + j] = Math.hypot(xs[i] - xs[j], ys[i] - ys[j]);
+            }
+        }
+        return table;
+    }
+
+    private static void assertPermutation(int[] order, int n) {
+        assertEquals(n, order.length);
+        assertEquals(0, order[0]);
+        int[] sorted = order.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, sorted[i]);
+        }
+    }
+
+    /** Returns the length of the shortest order starting at stop 0, trying every one. */
+    private static double bruteForce(double[] table, int n, boolean roundTrip) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        return bruteForce(table, order, 1, roundTrip);
+    }
+
+    private static double bruteForce(double[] table, int[] order, int k, boolean roundTrip) {
+        if (k >= order.length - 1) {
+            return StopOrder.length(table, order, roundTrip);
+        }
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = k; i < order.length; i++) {
+            swap(order, k, i);
+            best = Math.min(best, bruteForce(table, order, k + 1, roundTrip));
+            swap(order, k, i);
+        }
+        return best;
+    }
+
+    private static void swap(int[] order, int i, int j) {
+        int tmp = order[i];
+        order[i] = order[j];
+        order[j] = tmp;
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/** The route cache, on its own and behind Router.route on the tiny graph. */
+public class TestRouteCache {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+    }
+
+    /** Endpoints that snap to the same vertices share one cached route. */
+    @Test
+    public void testHitsAndMisses() {
+        RouteOptions options = new RouteOptions();
+        RouteCache.Route first = Router.route(graph, 0.2, 38.2, 0.6, 38.6, options);
+        RouteCache.Route second = Router.route(graph, 0.21, 38.19, 0.59, 38.61, options);
+        assertSame(first, second);
+        assertEquals(1, graph.routeCache().misses());
+        assertEquals(1, graph.routeCache().hits());
+
+        List<Long> expected = Router.shortestPath(graph, 0.2, 38.2, 0.6, 38.6);
+        assertEquals(expected, first.path);
+        assertEquals(Router.routeDirections(graph, expected).toString(),
+                first.directions.toString());
+
+        Router.route(graph, 0.6, 38.6, 0.2, 38.2, options);
+        assertEquals(2, graph.routeCache().misses());
+        assertEquals(2, graph.routeCache().size());
+    }
+
+    /**
+     * With the options /route uses by default, endpoints snapped onto segments, a repeated
+     * request is answered from the cache; a point elsewhere on the same segment is not.
+     */
+    @Test
+    public void testSnappedToSegments() {
+        RouteOptions options = new RouteOptions();
+        options.snapToSegment = true;
+        options.algorithm = RouteOptions.Algorithm.CH;
+        RouteCache.Route first = Router.route(graph, 0.2, 38.2, 0.6, 38.6, options);
+        RouteCache.Route second = Router.route(graph, 0.2, 38.2, 0.6, 38.6, options);
+        assertSame(first, second);
+        assertEquals(1, graph.routeCache().misses());
+        assertEquals(1, graph.routeCache().hits());
+        assertEquals(Router.shortestPath(graph, 0.2, 38.2, 0.6, 38.6, options), first.path);
+
+        Router.route(graph, 0.21, 38.19, 0.6, 38.6, options);
+        assertEquals(2, graph.routeCache().misses());
+        assertEquals(2, graph.routeCache().size());
+    }
+
+    /** A full cache evicts the least recently used route. */
+    @Test
+    public void testEviction() {
+        RouteCache cache = new RouteCache(2);
+        RouteOptions options = new RouteOptions();
+        RouteCache.Route route = new RouteCache.Route(new ArrayList<>(), new ArrayList<>());
+        cache.put(0, 1, options, route);
+        cache.put(1, 2, options, route);
+        assertNotNull(cache.get(0, 1, options));
+        cache.put(2, 3, options, route);
+
+        assertEquals(1, cache.evictions());
+        assertNull(cache.get(1, 2, options));
+        assertNotNull(cache.get(0, 1, options));
+        assertNotNull(cache.get(2, 3, options));
+        assertEquals(3, cache.hits());
+        assertEquals(1, cache.misses());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(0, 1, options));
+    }
+
+    /** Routes found with another metric or turn costs, or between large indices, stay apart. */
+    @Test
+    public void testKeys() {
+        RouteCache cache = new RouteCache(10);
+        RouteOptions options = new RouteOptions();
+        RouteCache.Route route = new RouteCache.Route(new ArrayList<>(), new ArrayList<>());
+        cache.put(0, 1, options, route);
+        cache.put(Integer.MAX_VALUE, Integer.MAX_VALUE, options, route);
+
+        RouteOptions time = new RouteOptions();
+        time.metric = RouteOptions.Metric.TIME;
+        RouteOptions turns = new RouteOptions();
+        turns.turnCosts = true;
+        assertNull(cache.get(0, 1, time));
+        assertNull(cache.get(0, 1, turns));
+        assertNull(cache.get(Integer.MAX_VALUE, Integer.MAX_VALUE - 1, options));
+        assertSame(route, cache.get(0, 1, new RouteOptions()));
+        assertSame(route, cache.get(Integer.MAX_VALUE, Integer.MAX_VALUE, options));
+    }
+}
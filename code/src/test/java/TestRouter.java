@@ -8,6 +8,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 
@@ -15,6 +18,8 @@ public class TestRouter {
     private static final String PARAMS_FILE = "path_params.txt";
     private static final String RESULTS_FILE = "path_results.txt";
     private static final int NUM_TESTS = 8;
+    private static final int NUM_THREADS = 8;
+    private static final int NUM_ROUNDS = 25;
     private static final String OSM_DB_PATH = "../library-sp18/data/berkeley-2018.osm.xml";
     private static GraphDB graph;
     private static boolean initialized = false;
@@ -44,6 +49,100 @@ public class TestRouter {
         }
     }
 
+    /** Bidirectional A* may break ties differently, but its paths must be just as short. */
+    @Test
+    public void testBidirectionalShortestPathLength() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+        RouteOptions options = new RouteOptions();
+        options.algorithm = RouteOptions.Algorithm.BIDIRECTIONAL;
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            List<Long> actual = Router.shortestPath(graph,
+                    params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), options);
+            List<Long> expected = expectedResults.get(i);
+            assertEquals(expected.get(0), actual.get(0));
+            assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+            assertEquals("Bidirectional path length did not match",
+                    length(expected), length(actual), 1e-9);
+        }
+    }
+
+    /** The landmark heuristic only changes which vertices are settled, not the path length. */
+    @Test
+    public void testAltShortestPathLength() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+        for (RouteOptions.Algorithm algorithm : new RouteOptions.Algorithm[]{
+            RouteOptions.Algorithm.ASTAR, RouteOptions.Algorithm.BIDIRECTIONAL}) {
+            RouteOptions options = new RouteOptions();
+            options.algorithm = algorithm;
+            options.heuristic = RouteOptions.Heuristic.ALT;
+
+            for (int i = 0; i < NUM_TESTS; i++) {
+                Map<String, Double> params = testParams.get(i);
+                List<Long> actual = Router.shortestPath(graph,
+                        params.get("start_lon"), params.get("start_lat"),
+                        params.get("end_lon"), params.get("end_lat"), options);
+                assertEquals("ALT path length did not match",
+                        length(expectedResults.get(i)), length(actual), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testContractionHierarchyShortestPath() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+        RouteOptions options = new RouteOptions();
+        options.algorithm = RouteOptions.Algorithm.CH;
+
+        for (int i = 0; i < NUM_TESTS; i++) {
+            Map<String, Double> params = testParams.get(i);
+            List<Long> actual = Router.shortestPath(graph,
+                    params.get("start_lon"), params.get("start_lat"),
+                    params.get("end_lon"), params.get("end_lat"), options);
+            assertEquals("Contraction hierarchy results did not match the expected results",
+                    expectedResults.get(i), actual);
+        }
+    }
+
+    /** Runs the same queries from several threads at once; no search may see another's state. */
+    @Test
+    public void testShortestPathConcurrently() throws Exception {
+        List<Map<String, Double>> testParams = paramsFromFile();
+        List<List<Long>> expectedResults = resultsFromFile();
+
+        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int round = 0; round < NUM_ROUNDS; round++) {
+                for (int i = 0; i < NUM_TESTS; i++) {
+                    Map<String, Double> params = testParams.get(i);
+                    futures.add(pool.submit(() -> Router.shortestPath(graph,
+                            params.get("start_lon"), params.get("start_lat"),
+                            params.get("end_lon"), params.get("end_lat"))));
+                }
+            }
+            for (int j = 0; j < futures.size(); j++) {
+                assertEquals("Concurrent results did not match the expected results",
+                        expectedResults.get(j % NUM_TESTS), futures.get(j).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static double length(List<Long> path) {
+        double length = 0;
+        for (int i = 1; i < path.size(); i++) {
+            length += graph.distance(path.get(i - 1), path.get(i));
+        }
+        return length;
+    }
+
     private List<Map<String, Double>> paramsFromFile() throws Exception {
         List<String> lines = Files.readAllLines(Paths.get(PARAMS_FILE), Charset.defaultCharset());
         List<Map<String, Double>> testParams = new ArrayList<>();
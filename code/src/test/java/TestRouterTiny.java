@@ -63,4 +63,23 @@ public class TestRouterTiny {
         expected.add(55L);
         assertEquals(expected, actual);
     }
+
+    /** A batch gets the same paths as one call per trip, in the order of the trips. */
+    @Test
+    public void testBatchInOrder() {
+        List<double[]> trips = new ArrayList<>();
+        List<List<Long>> expected = new ArrayList<>();
+        for (long v : graphTiny.vertices()) {
+            for (long w : graphTiny.vertices()) {
+                trips.add(new double[]{graphTiny.lon(v), graphTiny.lat(v),
+                    graphTiny.lon(w), graphTiny.lat(w)});
+                expected.add(Router.shortestPath(graphTiny, graphTiny.lon(v), graphTiny.lat(v),
+                        graphTiny.lon(w), graphTiny.lat(w)));
+            }
+        }
+        List<List<Long>> actual = new ArrayList<>();
+        Router.shortestPaths(graphTiny, trips.toArray(new double[0][]), new RouteOptions(),
+                actual::add);
+        assertEquals(expected, actual);
+    }
 }
@@ -0,0 +1,153 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/** Search budgets on a street grid, routed corner to corner. */
+public class TestSearchBudget {
+    private static final int GRID_SIZE = 40;
+    private static final double GRID_SPACING = 0.001;
+    private static final double LAT = TestGraphs.LAT;
+    private static final double LON = TestGraphs.LON;
+    private static final double FAR = (GRID_SIZE - 1) * GRID_SPACING;
+    private GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = TestGraphs.grid(GRID_SIZE, GRID_SPACING);
+    }
+
+    private static long gridId(int i, int j) {
+        return TestGraphs.id(GRID_SIZE, i, j);
+    }
+
+    private List<Long> acrossGrid(RouteOptions options) {
+        return Router.shortestPath(graph, LON, LAT, LON + FAR, LAT + FAR, options);
+    }
+
+    /** Every search stops with settled_limit when it settles too much, and counts the trip. */
+    @Test
+    public void testSettledLimit() {
+        SearchBudget budget = new SearchBudget(10, Long.MAX_VALUE);
+        List<RouteOptions> searches = new ArrayList<>();
+        for (RouteOptions.Algorithm algorithm : RouteOptions.Algorithm.values()) {
+            for (boolean snapToSegment : new boolean[]{false, true}) {
+                RouteOptions options = new RouteOptions();
+                options.algorithm = algorithm;
+                options.snapToSegment = snapToSegment;
+                searches.add(options);
+            }
+        }
+        RouteOptions turns = new RouteOptions();
+        turns.turnCosts = true;
+        searches.add(turns);
+
+        for (RouteOptions options : searches) {
+            assertFalse(acrossGrid(options).isEmpty());
+            options.budget = budget;
+            assertStopped(options, SearchBudget.Reason.SETTLED_LIMIT);
+        }
+        assertEquals(searches.size(), budget.trips(SearchBudget.Reason.SETTLED_LIMIT));
+        assertEquals(0, budget.trips(SearchBudget.Reason.DEADLINE));
+    }
+
+    /** A search past its deadline stops with deadline. */
+    @Test
+    public void testDeadline() {
+        RouteOptions options = new RouteOptions();
+        options.metric = RouteOptions.Metric.TIME;
+        options.budget = new SearchBudget(Integer.MAX_VALUE, 0);
+        assertStopped(options, SearchBudget.Reason.DEADLINE);
+        assertEquals(1, options.budget.trips(SearchBudget.Reason.DEADLINE));
+    }
+
+    /**
+     * The first query on a fresh graph waits for the graph to compute its arc flags, hundreds
+     * of milliseconds on this grid, but its deadline only covers the search itself.
+     */
+    @Test
+    public void testPreprocessingNotCharged() throws Exception {
+        int size = 50;
+        GraphDB fresh = TestGraphs.grid(size, GRID_SPACING);
+        RouteOptions options = new RouteOptions();
+        options.arcFlags = true;
+        options.budget = new SearchBudget(Integer.MAX_VALUE, 100);
+        double far = (size - 1) * GRID_SPACING;
+        List<Long> path = Router.shortestPath(fresh, LON, LAT, LON + far, LAT + far, options);
+        assertEquals(2 * size - 1, path.size());
+        assertEquals(0, options.budget.trips(SearchBudget.Reason.DEADLINE));
+    }
+
+    /** A budget large enough for the search changes nothing, and limits end with the query. */
+    @Test
+    public void testWithinBudget() {
+        RouteOptions options = new RouteOptions();
+        List<Long> expected = acrossGrid(options);
+        options.budget = new SearchBudget(GRID_SIZE * GRID_SIZE, 60000);
+        assertEquals(expected, acrossGrid(options));
+
+        options.budget = new SearchBudget(10, Long.MAX_VALUE);
+        assertStopped(options, SearchBudget.Reason.SETTLED_LIMIT);
+        assertEquals(expected, acrossGrid(new RouteOptions()));
+        assertEquals(expected, Router.route(graph, LON, LAT, LON + FAR, LAT + FAR,
+                new RouteOptions()).path);
+    }
+
+    /** A route that runs over its budget is not cached, and a cached one needs no search. */
+    @Test
+    public void testRouteCache() {
+        RouteOptions options = new RouteOptions();
+        options.budget = new SearchBudget(10, Long.MAX_VALUE);
+        try {
+            Router.route(graph, LON, LAT, LON + FAR, LAT + FAR, options);
+            fail();
+        } catch (SearchBudget.ExceededException e) {
+            assertEquals(SearchBudget.Reason.SETTLED_LIMIT, e.reason);
+        }
+        assertEquals(0, graph.routeCache().size());
+
+        List<Long> path = Router.route(graph, LON, LAT, LON + FAR, LAT + FAR,
+                new RouteOptions()).path;
+        assertEquals(path, Router.route(graph, LON, LAT, LON + FAR, LAT + FAR, options).path);
+    }
+
+    /** In a batch, only the trips that run over the budget come back as null. */
+    @Test
+    public void testBatch() {
+        RouteOptions options = new RouteOptions();
+        options.budget = new SearchBudget(GRID_SIZE, Long.MAX_VALUE);
+        double[][] trips = {{LON, LAT, LON + GRID_SPACING, LAT}, {LON, LAT, LON + FAR, LAT + FAR}};
+        List<List<Long>> paths = new ArrayList<>();
+        Router.shortestPaths(graph, trips, options, paths::add);
+        assertEquals(2, paths.get(0).size());
+        assertNull(paths.get(1));
+    }
+
+    /** A tightened budget keeps the lower limits and counts its trips with the original. */
+    @Test
+    public void testTighten() {
+        SearchBudget budget = new SearchBudget(1000, 500);
+        SearchBudget tight = budget.tighten(10, 1000);
+        assertEquals(10, tight.maxSettled);
+        assertEquals(500, tight.timeoutMillis);
+        RouteOptions options = new RouteOptions();
+        options.budget = tight;
+        assertStopped(options, SearchBudget.Reason.SETTLED_LIMIT);
+        assertEquals(1, budget.trips(SearchBudget.Reason.SETTLED_LIMIT));
+    }
+
+    private void assertStopped(RouteOptions options, SearchBudget.Reason reason) {
+        try {
+            acrossGrid(options);
+            fail("Expected " + reason.label() + " for " + options.algorithm);
+        } catch (SearchBudget.ExceededException e) {
+            assertEquals(reason, e.reason);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Snapping onto road segments, on the tiny graph and on two long blocks joined at the ends. */
+public class TestSegmentSnapping {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static final double BLOCK = 0.004;
+    private static final double LAT = 37.87;
+    private static final double LON = -122.26;
+    private GraphDB tiny;
+    private GraphDB ladder;
+
+    @Before
+    public void setUp() throws Exception {
+        tiny = new GraphDB(OSM_DB_PATH_TINY);
+        File file = File.createTempFile("ladder", ".osm.xml");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<osm version=\"0.6\">");
+            out.printf("<node id=\"1\" lat=\"%f\" lon=\"%f\"/>%n", LAT, LON);
+            out.printf("<node id=\"2\" lat=\"%f\" lon=\"%f\"/>%n", LAT, LON + BLOCK);
+            out.printf("<node id=\"3\" lat=\"%f\" lon=\"%f\"/>%n", LAT + BLOCK / 4, LON);
+            out.printf("<node id=\"4\" lat=\"%f\" lon=\"%f\"/>%n", LAT + BLOCK / 4, LON + BLOCK);
+            way(out, 10, "South Street", 1, 2);
+            way(out, 11, "North Street", 3, 4);
+            way(out, 12, "West Street", 1, 3);
+            way(out, 13, "East Street", 2, 4);
+            out.println("</osm>");
+        }
+        ladder = new GraphDB(file.getPath());
+    }
+
+    private static void way(PrintWriter out, long id, String name, long v, long w) {
+        out.printf("<way id=\"%d\"><nd ref=\"%d\"/><nd ref=\"%d\"/><tag k=\"name\" v=\"%s\"/>"
+                + "<tag k=\"highway\" v=\"residential\"/></way>%n", id, v, w, name);
+    }
+
+    /** The index finds the same closest segment as measuring every one of them. */
+    @Test
+    public void testNearestSegment() {
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i++) {
+            double lon = -0.2 + 1.4 * random.nextDouble();
+            double lat = 37.8 + 1.4 * random.nextDouble();
+            SegmentIndex.Snap snap = tiny.closestSegment(lon, lat);
+            double best = Double.POSITIVE_INFINITY;
+            for (long v : tiny.vertices()) {
+                for (long w : tiny.adjacent(v)) {
+                    best = Math.min(best, distanceToSegment(tiny, lon, lat, v, w));
+                }
+            }
+            assertEquals(best, snap.distance, 1e-9);
+        }
+    }
+
+    /** A point beside the middle of a block snaps onto the block, not to a corner. */
+    @Test
+    public void testSnapMidBlock() {
+        SegmentIndex.Snap snap = ladder.closestSegment(LON + BLOCK / 2, LAT + BLOCK / 20);
+        assertEquals("South Street", ladder.edgeWayName(snap.edge));
+        assertEquals(0.5, snap.fraction, 1e-6);
+        assertEquals(LAT, snap.lat, 1e-12);
+        assertEquals(GraphDB.distance(LON + BLOCK / 2, LAT + BLOCK / 20, snap.lon, snap.lat),
+                snap.distance, 1e-6);
+    }
+
+    /** Two points on one block are joined along it, without passing a vertex. */
+    @Test
+    public void testSameSegment() {
+        RouteOptions options = new RouteOptions();
+        options.snapToSegment = true;
+        RouteCache.Route route = Router.route(ladder, LON + BLOCK / 4, LAT,
+                LON + 3 * BLOCK / 4, LAT, options);
+        assertTrue(route.path.isEmpty());
+        assertEquals(1, route.directions.size());
+        assertEquals("South Street", route.directions.get(0).way);
+        assertEquals(GraphDB.distance(LON, LAT, LON + BLOCK / 2, LAT),
+                route.directions.get(0).distance, 1e-9);
+    }
+
+    /** Across the ladder the route leaves the block at the nearer end, with partial lengths. */
+    @Test
+    public void testPartialEdges() {
+        RouteOptions options = new RouteOptions();
+        options.snapToSegment = true;
+        for (RouteOptions.Algorithm algorithm : RouteOptions.Algorithm.values()) {
+            options.algorithm = algorithm;
+            RouteCache.Route route = Router.route(ladder, LON + BLOCK / 4, LAT,
+                    LON + BLOCK / 8, LAT + BLOCK / 4, options);
+            assertEquals(Arrays.asList(1L, 3L), route.path);
+            assertEquals(3, route.directions.size());
+            assertEquals(GraphDB.distance(LON, LAT, LON + BLOCK / 4, LAT),
+                    route.directions.get(0).distance, 1e-9);
+            assertEquals(GraphDB.distance(LON, LAT + BLOCK / 4, LON + BLOCK / 8, LAT + BLOCK / 4),
+                    route.directions.get(2).distance, 1e-9);
+        }
+    }
+
+    /**
+     * On random trips every algorithm and heuristic finds a route as long as the best way
+     * through any pair of ends of the two segments, or directly along a shared one.
+     */
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(11);
+        RouteOptions.Heuristic[] heuristics = RouteOptions.Heuristic.values();
+        for (int i = 0; i < 200; i++) {
+            double stlon = 0.1 + 0.8 * random.nextDouble();
+            double stlat = 38.1 + 0.8 * random.nextDouble();
+            double destlon = 0.1 + 0.8 * random.nextDouble();
+            double destlat = 38.1 + 0.8 * random.nextDouble();
+            SegmentIndex.Snap st = tiny.closestSegment(stlon, stlat);
+            SegmentIndex.Snap dest = tiny.closestSegment(destlon, destlat);
+            double expected = bruteForce(tiny, st, dest);
+
+            for (RouteOptions.Algorithm algorithm : RouteOptions.Algorithm.values()) {
+                RouteOptions options = new RouteOptions();
+                options.snapToSegment = true;
+                options.algorithm = algorithm;
+                options.heuristic = heuristics[i % heuristics.length];
+                RouteCache.Route route = Router.route(tiny, stlon, stlat, destlon, destlat,
+                        options);
+                double length = 0;
+                for (Router.NavigationDirection d : route.directions) {
+                    length += d.distance;
+                }
+                if (expected == Double.POSITIVE_INFINITY) {
+                    assertTrue(route.directions.isEmpty());
+                } else {
+                    assertEquals(expected, length, 1e-9);
+                }
+            }
+        }
+    }
+
+    private static double bruteForce(GraphDB g, SegmentIndex.Snap st, SegmentIndex.Snap dest) {
+        RouteOptions.Metric metric = RouteOptions.Metric.DISTANCE;
+        double best = st.edge == dest.edge
+                ? Math.abs(st.fraction - dest.fraction) * g.edgeWeight(st.edge)
+                : Double.POSITIVE_INFINITY;
+        int[] starts = {st.from, st.to};
+        double[] heads = {SnappedSearch.toFrom(g, st, metric), SnappedSearch.toTo(g, st, metric)};
+        int[] ends = {dest.from, dest.to};
+        double[] tails = {SnappedSearch.toFrom(g, dest, metric),
+            SnappedSearch.toTo(g, dest, metric)};
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                List<Long> path = Router.shortestPath(g, g.lonAt(starts[i]), g.latAt(starts[i]),
+                        g.lonAt(ends[j]), g.latAt(ends[j]));
+                if (!path.isEmpty()) {
+                    best = Math.min(best, heads[i] + length(g, path) + tails[j]);
+                }
+            }
+        }
+        return best;
+    }
+
+    /** The distance to a segment in the same projection SegmentIndex uses. */
+    private static double distanceToSegment(GraphDB g, double lon, double lat, long v, long w) {
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double ax = (g.lon(v) - lon) * cosLat;
+        double ay = g.lat(v) - lat;
+        double dx = (g.lon(w) - g.lon(v)) * cosLat;
+        double dy = g.lat(w) - g.lat(v);
+        double t = Math.max(0, Math.min(1, -(ax * dx + ay * dy) / (dx * dx + dy * dy)));
+        return Math.hypot(ax + t * dx, ay + t * dy) * Math.toRadians(3963);
+    }
+
+    private static double length(GraphDB g, List<Long> path) {
+        double length = 0;
+        for (int i = 1; i < path.size(); i++) {
+            length += g.distance(path.get(i - 1), path.get(i));
+        }
+        return length;
+    }
+}
@@ -0,0 +1,82 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Shortest path trees on the tiny graph. */
+public class TestShortestPathTree {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private GraphDB graph;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = new GraphDB(OSM_DB_PATH_TINY);
+    }
+
+    /**
+     * From every origin, each reachable vertex is visited once, nearest first, at the length of
+     * its A* path and one edge past its parent.
+     */
+    @Test
+    public void testSameDistancesAsAStar() {
+        for (long v : graph.vertices()) {
+            Map<Long, Double> distances = new HashMap<>();
+            double[] last = {0};
+            Router.shortestPathTree(graph, graph.lon(v), graph.lat(v),
+                    RouteOptions.Metric.DISTANCE, (id, distance, parent) -> {
+                        assertFalse(distances.containsKey(id));
+                        assertTrue(distance >= last[0]);
+                        last[0] = distance;
+                        if (parent == id) {
+                            assertEquals(v, id);
+                            assertEquals(0, distance, 0);
+                        } else {
+                            assertEquals(distances.get(parent) + graph.distance(parent, id),
+                                    distance, 1e-9);
+                        }
+                        distances.put(id, distance);
+                    });
+
+            for (long w : graph.vertices()) {
+                List<Long> path = Router.shortestPath(graph,
+                        graph.lon(v), graph.lat(v), graph.lon(w), graph.lat(w));
+                if (path.isEmpty()) {
+                    assertFalse(distances.containsKey(w));
+                } else {
+                    double expected = 0;
+                    for (int k = 1; k < path.size(); k++) {
+                        expected += graph.distance(path.get(k - 1), path.get(k));
+                    }
+                    assertEquals(expected, distances.get(w), 1e-9);
+                }
+            }
+        }
+    }
+
+    /** With the time metric, the distances are the travel times of the fastest paths. */
+    @Test
+    public void testTime() {
+        long v = graph.vertices().iterator().next();
+        RouteOptions options = new RouteOptions();
+        options.metric = RouteOptions.Metric.TIME;
+        Map<Long, Double> times = new HashMap<>();
+        Router.shortestPathTree(graph, graph.lon(v), graph.lat(v), RouteOptions.Metric.TIME,
+                (id, distance, parent) -> times.put(id, distance));
+        for (long w : times.keySet()) {
+            List<Long> path = Router.shortestPath(graph,
+                    graph.lon(v), graph.lat(v), graph.lon(w), graph.lat(w), options);
+            double expected = 0;
+            for (int k = 1; k < path.size(); k++) {
+                int e = graph.edge(path.get(k - 1), path.get(k));
+                expected += graph.edgeTime(e);
+            }
+            assertEquals(expected, times.get(w), 1e-9);
+        }
+    }
+}
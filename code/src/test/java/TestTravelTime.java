@@ -0,0 +1,105 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/** The travel-time cost model, and routing by time on the tiny graph and a small detour. */
+public class TestTravelTime {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private GraphDB tiny;
+    private GraphDB detour;
+
+    @Before
+    public void setUp() throws Exception {
+        tiny = new GraphDB(OSM_DB_PATH_TINY);
+        // A slow direct street from 1 to 3, and a fast road around it through 2.
+        File file = File.createTempFile("detour", ".osm.xml");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            out.println("<osm version=\"0.6\">");
+            out.println("<node id=\"1\" lat=\"37.870\" lon=\"-122.260\"/>");
+            out.println("<node id=\"2\" lat=\"37.875\" lon=\"-122.255\"/>");
+            out.println("<node id=\"3\" lat=\"37.870\" lon=\"-122.250\"/>");
+            out.println("<way id=\"1\"><nd ref=\"1\"/><nd ref=\"3\"/>"
+                    + "<tag k=\"highway\" v=\"residential\"/>"
+                    + "<tag k=\"maxspeed\" v=\"10 mph\"/></way>");
+            out.println("<way id=\"2\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+                    + "<tag k=\"highway\" v=\"primary\"/></way>");
+            out.println("</osm>");
+        }
+        detour = new GraphDB(file.getPath());
+    }
+
+    @Test
+    public void testSpeeds() {
+        assertEquals(25, TravelTime.speedMph("25 mph", "primary"), 1e-9);
+        assertEquals(50 * 0.621371, TravelTime.speedMph("50", "primary"), 1e-9);
+        assertEquals(50 * 0.621371, TravelTime.speedMph("50 km/h", "primary"), 1e-9);
+        assertEquals(35, TravelTime.speedMph("35 mph;25 mph", "primary"), 1e-9);
+        assertEquals(40, TravelTime.speedMph("none", "primary"), 1e-9);
+        assertEquals(25, TravelTime.speedMph("0", "residential"), 1e-9);
+        assertEquals(TravelTime.DEFAULT_SPEED_MPH, TravelTime.speedMph(null, null), 1e-9);
+    }
+
+    /** The fastest route takes the detour; the shortest one does not. */
+    @Test
+    public void testFastestRouteTakesDetour() {
+        RouteOptions options = new RouteOptions();
+        assertEquals(Arrays.asList(1L, 3L), Router.shortestPath(detour,
+                -122.260, 37.870, -122.250, 37.870, options));
+        options.metric = RouteOptions.Metric.TIME;
+        for (RouteOptions.Algorithm algorithm : new RouteOptions.Algorithm[]{
+            RouteOptions.Algorithm.ASTAR, RouteOptions.Algorithm.BIDIRECTIONAL}) {
+            options.algorithm = algorithm;
+            assertEquals(Arrays.asList(1L, 2L, 3L), Router.shortestPath(detour,
+                    -122.260, 37.870, -122.250, 37.870, options));
+        }
+    }
+
+    /** Every algorithm and heuristic finds a route of the same time, no slower than by distance. */
+    @Test
+    public void testSameTimeForEverySearch() {
+        RouteOptions byDistance = new RouteOptions();
+        for (long v : tiny.vertices()) {
+            for (long w : tiny.vertices()) {
+                double expected = time(Router.shortestPath(tiny, tiny.lon(v), tiny.lat(v),
+                        tiny.lon(w), tiny.lat(w), timeOptions(RouteOptions.Algorithm.ASTAR,
+                                RouteOptions.Heuristic.HAVERSINE)));
+                double shortest = time(Router.shortestPath(tiny, tiny.lon(v), tiny.lat(v),
+                        tiny.lon(w), tiny.lat(w), byDistance));
+                assertEquals(true, expected <= shortest + 1e-9);
+                for (RouteOptions.Algorithm algorithm : new RouteOptions.Algorithm[]{
+                    RouteOptions.Algorithm.ASTAR, RouteOptions.Algorithm.BIDIRECTIONAL}) {
+                    for (RouteOptions.Heuristic heuristic : RouteOptions.Heuristic.values()) {
+                        List<Long> path = Router.shortestPath(tiny, tiny.lon(v), tiny.lat(v),
+                                tiny.lon(w), tiny.lat(w), timeOptions(algorithm, heuristic));
+                        assertEquals(expected, time(path), 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    private static RouteOptions timeOptions(RouteOptions.Algorithm algorithm,
+                                            RouteOptions.Heuristic heuristic) {
+        RouteOptions options = new RouteOptions();
+        options.metric = RouteOptions.Metric.TIME;
+        options.algorithm = algorithm;
+        options.heuristic = heuristic;
+        return options;
+    }
+
+    private double time(List<Long> path) {
+        double time = 0;
+        for (int i = 1; i < path.size(); i++) {
+            time += tiny.edgeTime(tiny.edge(path.get(i - 1), path.get(i)));
+        }
+        return time;
+    }
+}
@@ -0,0 +1,102 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Edge-based routing with turn costs on the tiny graph and on a small street grid. */
+public class TestTurnCosts {
+    private static final String OSM_DB_PATH_TINY = "../library-sp18/data/tiny-clean.osm.xml";
+    private static final int GRID_SIZE = 5;
+    private static final double GRID_SPACING = 0.001;
+    private GraphDB tiny;
+    private GraphDB grid;
+
+    @Before
+    public void setUp() throws Exception {
+        tiny = new GraphDB(OSM_DB_PATH_TINY);
+        grid = TestGraphs.grid(GRID_SIZE, GRID_SPACING);
+    }
+
+    private static long gridId(int i, int j) {
+        return TestGraphs.id(GRID_SIZE, i, j);
+    }
+
+    /** Across the grid every staircase is as short, but with turn costs the route turns once. */
+    @Test
+    public void testFewestTurns() {
+        long st = gridId(0, 0);
+        long dest = gridId(GRID_SIZE - 1, GRID_SIZE - 1);
+        RouteOptions options = new RouteOptions();
+        options.algorithm = RouteOptions.Algorithm.ASTAR;
+        options.turnCosts = true;
+        for (RouteOptions.Metric metric : RouteOptions.Metric.values()) {
+            options.metric = metric;
+            List<Long> path = Router.route(grid, grid.lon(st), grid.lat(st),
+                    grid.lon(dest), grid.lat(dest), options).path;
+            assertEquals(st, (long) path.get(0));
+            assertEquals(dest, (long) path.get(path.size() - 1));
+            assertEquals(2 * GRID_SIZE - 1, path.size());
+            assertEquals(1, turns(grid, path));
+        }
+    }
+
+    /** Every route is a path of the graph no shorter than the node-based shortest path. */
+    @Test
+    public void testValidPaths() {
+        for (long v : tiny.vertices()) {
+            for (long w : tiny.vertices()) {
+                int st = tiny.closestIndex(tiny.lon(v), tiny.lat(v));
+                int dest = tiny.closestIndex(tiny.lon(w), tiny.lat(w));
+                List<Long> path = EdgeBasedSearch.shortestPath(tiny, st, dest, null,
+                        RouteOptions.Metric.DISTANCE);
+                List<Long> expected = Router.shortestPath(tiny,
+                        tiny.lon(v), tiny.lat(v), tiny.lon(w), tiny.lat(w));
+                assertEquals(expected.isEmpty(), path.isEmpty());
+                if (path.isEmpty()) {
+                    continue;
+                }
+                assertEquals(v, (long) path.get(0));
+                assertEquals(w, (long) path.get(path.size() - 1));
+                for (int i = 1; i < path.size(); i++) {
+                    assertTrue(tiny.edge(path.get(i - 1), path.get(i)) >= 0);
+                }
+                assertTrue(length(tiny, path) >= length(tiny, expected) - 1e-9);
+            }
+        }
+    }
+
+    /** Only A* searches with turn costs. */
+    @Test(expected = IllegalArgumentException.class)
+    public void testOnlyAStar() {
+        RouteOptions options = new RouteOptions();
+        options.turnCosts = true;
+        options.algorithm = RouteOptions.Algorithm.CH;
+        Router.route(tiny, 0.2, 38.2, 0.6, 38.6, options);
+    }
+
+    private static int turns(GraphDB g, List<Long> path) {
+        int turns = 0;
+        for (int i = 2; i < path.size(); i++) {
+            double prev = GraphDB.bearing(g.lon(path.get(i - 2)), g.lat(path.get(i - 2)),
+                    g.lon(path.get(i - 1)), g.lat(path.get(i - 1)));
+            double cur = GraphDB.bearing(g.lon(path.get(i - 1)), g.lat(path.get(i - 1)),
+                    g.lon(path.get(i)), g.lat(path.get(i)));
+            int direction = Router.convertBearingToDirection(prev, cur);
+            if (direction != Router.NavigationDirection.STRAIGHT) {
+                turns++;
+            }
+        }
+        return turns;
+    }
+
+    private static double length(GraphDB g, List<Long> path) {
+        double length = 0;
+        for (int i = 1; i < path.size(); i++) {
+            length += g.distance(path.get(i - 1), path.get(i));
+        }
+        return length;
+    }
+}